@@ -0,0 +1,150 @@
+package com.martinm1500.marsrover;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test for the map and rover endpoints of a running instance of the API.
+ * Not part of the build: start the application, then run {@code load-test/run.sh}, which launches this source file.
+ * <p>
+ * Each concurrency level runs that many clients in a closed loop for a fixed time. The clients cycle through
+ * the map details, the rover details, the rovers of a map and a simulation, which all read from the database.
+ * Comparing the output of a run against {@code rover.threads.virtual.enabled=false} with one against
+ * {@code rover.threads.virtual.enabled=true} shows the highest concurrency each mode serves at the same p99 latency.
+ * <p>
+ * Arguments: base URL (default http://localhost:8080), comma-separated concurrency levels
+ * (default 50,200,400,800,1600) and seconds per level (default 20).
+ */
+public class LoadTestRunner {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int[] levels = Arrays.stream((args.length > 1 ? args[1] : "50,200,400,800,1600").split(","))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 20);
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        long mapId = post(client, baseUrl + "/api/maps/create",
+                "{\"name\":\"Load test\",\"dimensionX\":100,\"dimensionY\":100}");
+        long roverId = post(client, baseUrl + "/api/rovers/create-on-map/" + mapId,
+                "{\"x\":50,\"y\":50,\"orientation\":\"N\"}");
+        List<HttpRequest> requests = List.of(
+                HttpRequest.newBuilder(URI.create(baseUrl + "/api/maps/get/" + mapId)).build(),
+                HttpRequest.newBuilder(URI.create(baseUrl + "/api/rovers/" + roverId)).build(),
+                HttpRequest.newBuilder(URI.create(baseUrl + "/api/rovers/by-map/" + mapId)).build(),
+                HttpRequest.newBuilder(URI.create(baseUrl + "/api/rovers/simulate/" + roverId))
+                        .header("Content-Type", "text/plain")
+                        .POST(HttpRequest.BodyPublishers.ofString("f10r2f5"))
+                        .build());
+
+        System.out.printf("%8s %10s %10s %10s %10s %8s%n", "clients", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (int level : levels) {
+            Result result = run(client, requests, level, duration);
+            System.out.printf("%8d %10.0f %10.1f %10.1f %10.1f %8d%n", level,
+                    result.latencies.length / (duration.toNanos() / 1e9),
+                    percentile(result.latencies, 0.50) / 1e6,
+                    percentile(result.latencies, 0.99) / 1e6,
+                    percentile(result.latencies, 1.0) / 1e6,
+                    result.errors);
+        }
+    }
+
+    private static Result run(HttpClient client, List<HttpRequest> requests, int clients, Duration duration)
+            throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Result>> futures = new ArrayList<>(clients);
+        // The clients themselves run on virtual threads, so the load generator is not the bottleneck.
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                int offset = i;
+                futures.add(executor.submit(() -> runClient(client, requests, offset, deadline)));
+            }
+            List<long[]> latencies = new ArrayList<>(clients);
+            int errors = 0;
+            int count = 0;
+            for (Future<Result> future : futures) {
+                Result result = future.get();
+                latencies.add(result.latencies);
+                errors += result.errors;
+                count += result.latencies.length;
+            }
+            long[] all = new long[count];
+            int position = 0;
+            for (long[] clientLatencies : latencies) {
+                System.arraycopy(clientLatencies, 0, all, position, clientLatencies.length);
+                position += clientLatencies.length;
+            }
+            Arrays.sort(all);
+            return new Result(all, errors);
+        }
+    }
+
+    private static Result runClient(HttpClient client, List<HttpRequest> requests, int offset, long deadline) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        int errors = 0;
+        for (int i = offset; System.nanoTime() < deadline; i++) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(requests.get(i % requests.size()),
+                        HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() >= 500) {
+                    errors++;
+                    continue;
+                }
+            } catch (IOException e) {
+                errors++;
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - start;
+        }
+        return new Result(Arrays.copyOf(latencies, count), errors);
+    }
+
+    private static long post(HttpClient client, String url, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 201) {
+            throw new IllegalStateException("POST " + url + " returned " + response.statusCode() + ": " + response.body());
+        }
+        return JSON.readTree(response.body()).get("id").asLong();
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private record Result(long[] latencies, int errors) {
+    }
+}
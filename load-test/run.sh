@@ -0,0 +1,9 @@
+#!/bin/sh
+# Runs LoadTestRunner against a running instance of the API, passing the arguments through:
+#   load-test/run.sh http://localhost:8080 50,200,400,800,1600 20
+# The runner is launched from its source file, with the runtime dependencies of the project,
+# which include Jackson, as its classpath.
+set -e
+cd "$(dirname "$0")/.."
+classpath=$(./mvnw -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)
+exec java -cp "$classpath" load-test/LoadTestRunner.java "$@"
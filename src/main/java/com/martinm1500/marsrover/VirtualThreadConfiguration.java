@@ -0,0 +1,37 @@
+package com.martinm1500.marsrover;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Runs request handling on virtual threads when {@code rover.threads.virtual.enabled=true}.
+ * Handlers block on JDBC; a virtual thread parks while it waits for the database instead of holding one of
+ * Tomcat's platform threads, so the number of concurrent requests is no longer capped by the thread pool.
+ */
+@Configuration
+@ConditionalOnProperty(value = "rover.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    /**
+     * Replaces the worker pool of the embedded Tomcat with one virtual thread per request.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Runs asynchronous handlers, such as the streaming responses of path traces, on virtual threads too.
+     */
+    @Bean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -0,0 +1,44 @@
+package com.martinm1500.marsrover.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes a JSON array to a response body one element at a time, through a fixed-size buffer, so the elements
+ * never need to be held in memory together.
+ * Failures to write, such as a client that went away, are thrown as UncheckedIOException and stop the listing.
+ */
+final class JsonArrayWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JsonGenerator generator;
+
+    JsonArrayWriter(ObjectMapper objectMapper, OutputStream output) throws IOException {
+        this.generator = objectMapper.getFactory().createGenerator(new BufferedOutputStream(output, BUFFER_SIZE));
+        // The response stream is closed by the container once the body is written.
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+    }
+
+    void write(Object element) {
+        try {
+            generator.writeObject(element);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the listing", e);
+        }
+    }
+
+    /**
+     * Closes the array and flushes the buffer.
+     */
+    void finish() throws IOException {
+        generator.writeEndArray();
+        generator.close();
+    }
+}
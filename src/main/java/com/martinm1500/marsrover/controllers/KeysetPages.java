@@ -0,0 +1,75 @@
+package com.martinm1500.marsrover.controllers;
+
+import com.martinm1500.marsrover.dtos.PageDTO;
+import com.martinm1500.marsrover.exceptions.InvalidPageRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Keyset pagination of listings ordered by ID. A page is the rows with an ID greater than the last one of the
+ * previous page, so fetching any page costs the same index range scan, however deep it is.
+ * Cursors are opaque to clients: the last ID of a page, encoded in URL-safe Base64.
+ */
+final class KeysetPages {
+
+    static final int DEFAULT_SIZE = 100;
+    static final int MAX_SIZE = 1000;
+
+    private KeysetPages() {
+    }
+
+    /**
+     * Gets the ID a page starts after.
+     *
+     * @param cursor The cursor of the previous page, or null for the first page.
+     * @return The last ID of the previous page, 0 for the first page.
+     */
+    static long after(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        try {
+            long afterId = Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+            if (afterId < 0) {
+                throw new InvalidPageRequestException("Invalid cursor: " + cursor);
+            }
+            return afterId;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidPageRequestException("Invalid cursor: " + cursor);
+        }
+    }
+
+    static String cursor(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Checks the size of a page.
+     *
+     * @return The number of rows to fetch: one more than the size, to tell whether a next page exists.
+     */
+    static int fetchSize(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new InvalidPageRequestException("The page size must be between 1 and " + MAX_SIZE);
+        }
+        return size + 1;
+    }
+
+    /**
+     * Builds a page from the rows fetched with {@link #fetchSize(int)}.
+     */
+    static <T, R> PageDTO<R> page(List<T> rows, int size, Function<T, Long> id, Function<T, R> converter) {
+        int count = Math.min(size, rows.size());
+        List<R> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(converter.apply(rows.get(i)));
+        }
+        String nextCursor = rows.size() > size ? cursor(id.apply(rows.get(count - 1))) : null;
+        return PageDTO.of(items, nextCursor);
+    }
+}
@@ -1,15 +1,24 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.martinm1500.marsrover.dtos.MapDTO;
 import com.martinm1500.marsrover.dtos.MapFullDTO;
+import com.martinm1500.marsrover.dtos.PageDTO;
+import com.martinm1500.marsrover.dtos.SnapshotCacheStatsDTO;
 import com.martinm1500.marsrover.exceptions.InvalidMapDimensionsException;
+import com.martinm1500.marsrover.exceptions.InvalidPageRequestException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.services.MapService;
+import com.martinm1500.marsrover.services.MapSnapshotCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -20,9 +29,13 @@ import java.util.stream.Collectors;
 public class MapController {
 
     private final MapService mapService;
+    private final MapSnapshotCache snapshotCache;
+    private final ObjectMapper objectMapper;
     @Autowired
-    public MapController(MapService mapService) {
+    public MapController(MapService mapService, MapSnapshotCache snapshotCache, ObjectMapper objectMapper) {
         this.mapService = mapService;
+        this.snapshotCache = snapshotCache;
+        this.objectMapper = objectMapper;
     }
     @PostMapping("/create")
     public ResponseEntity<?> createMap(@Valid @RequestBody Map map) {
@@ -43,16 +56,57 @@ public class MapController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         }
     }
+    /**
+     * Gets a map with its obstacles and rovers, tagged with its revision and, with write-behind, the changes of its
+     * rovers not written yet. A client sending back the tag it holds in If-None-Match gets 304 Not Modified while the
+     * map is unchanged, without the map being loaded.
+     */
     @GetMapping("/get/{id}")
-    public ResponseEntity<?> getMap(@PathVariable Long id) {
+    public ResponseEntity<?> getMap(@PathVariable Long id,
+                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            if (ifNoneMatch != null) {
+                String eTag = mapETag(id, mapService.getMapRevision(id), mapService.getRoverChangeTag(id));
+                if (matchesETag(ifNoneMatch, eTag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache())
+                            .eTag(eTag).build();
+                }
+            }
+            // Both parts of the tag are read before the obstacles and rovers, so the tag is never newer than them.
+            String roverChangeTag = mapService.getRoverChangeTag(id);
             Map obtainedMap = mapService.getMap(id);
             MapFullDTO mapFullDTO = MapFullDTO.convertToFullDTO(obtainedMap);
-            return ResponseEntity.ok(mapFullDTO);
+            return ResponseEntity.ok().cacheControl(CacheControl.noCache())
+                    .eTag(mapETag(id, obtainedMap.getRevision(), roverChangeTag)).body(mapFullDTO);
         } catch (MapNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         }
     }
+    static String mapETag(Long mapId, long revision, String roverChangeTag) {
+        if (roverChangeTag == null) {
+            return "\"" + mapId + "-" + revision + "\"";
+        }
+        return "\"" + mapId + "-" + revision + "-" + roverChangeTag + "\"";
+    }
+    /**
+     * Tells whether an If-None-Match header lists a tag, comparing the tags weakly as RFC 9110 requires.
+     */
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    @GetMapping("/snapshot-cache")
+    public ResponseEntity<?> getSnapshotCacheStats() {
+        return ResponseEntity.ok(SnapshotCacheStatsDTO.convertToDTO(snapshotCache));
+    }
     @GetMapping("/get/all")
     public ResponseEntity<List<MapDTO>> getAllMaps() {
         List<Map> maps = mapService.getAllMaps();
@@ -61,5 +115,31 @@ public class MapController {
                 .collect(Collectors.toList());
         return ResponseEntity.ok(mapDTOs);
     }
+    /**
+     * Gets a page of the maps, ordered by ID. The next page is requested with the cursor of the previous one.
+     */
+    @GetMapping("/page")
+    public ResponseEntity<?> getMapsPage(@RequestParam(required = false) String cursor,
+                                         @RequestParam(defaultValue = "" + KeysetPages.DEFAULT_SIZE) int size) {
+        try {
+            List<Map> maps = mapService.getMapsAfter(KeysetPages.after(cursor), KeysetPages.fetchSize(size));
+            PageDTO<MapDTO> page = KeysetPages.page(maps, size, Map::getId, MapDTO::convertToDTO);
+            return ResponseEntity.ok(page);
+        } catch (InvalidPageRequestException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+    /**
+     * Gets all maps as one JSON array written while the maps are read, so memory use does not depend on their number.
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<StreamingResponseBody> streamAllMaps() {
+        StreamingResponseBody body = output -> {
+            JsonArrayWriter writer = new JsonArrayWriter(objectMapper, output);
+            mapService.streamAllMaps(map -> writer.write(MapDTO.convertToDTO(map)));
+            writer.finish();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
 }
 
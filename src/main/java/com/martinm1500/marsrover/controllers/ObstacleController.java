@@ -1,17 +1,29 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.martinm1500.marsrover.dtos.ObstacleDTO;
+import com.martinm1500.marsrover.dtos.ObstacleDeletionDTO;
+import com.martinm1500.marsrover.dtos.ObstacleImportDTO;
+import com.martinm1500.marsrover.dtos.PageDTO;
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
+import com.martinm1500.marsrover.exceptions.InvalidPageRequestException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.ObstacleNotFoundException;
 import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
 import com.martinm1500.marsrover.services.ObstacleService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -20,10 +32,12 @@ import java.util.stream.Collectors;
 public class ObstacleController {
 
     private final ObstacleService obstacleService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public ObstacleController(ObstacleService obstacleService) {
+    public ObstacleController(ObstacleService obstacleService, ObjectMapper objectMapper) {
         this.obstacleService = obstacleService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/create-on-map/{mapId}")
@@ -39,6 +53,37 @@ public class ObstacleController {
         }
     }
 
+    /**
+     * Creates many obstacles on a map from a CSV ("x,y" lines), a JSON array of obstacles or a binary stream of
+     * big-endian int pairs, chosen by the Content-Type. Either every obstacle is created or none is.
+     */
+    @PostMapping(value = "/import/{mapId}", consumes = {"text/csv", MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> importObstacles(@PathVariable Long mapId,
+                                             @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                             InputStream body) {
+        try {
+            long start = System.nanoTime();
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            ObstacleCoordinates coordinates;
+            if (MediaType.APPLICATION_JSON.isCompatibleWith(mediaType)) {
+                coordinates = ObstacleCoordinates.readJson(body);
+            } else if (MediaType.APPLICATION_OCTET_STREAM.isCompatibleWith(mediaType)) {
+                coordinates = ObstacleCoordinates.readBinary(body);
+            } else {
+                coordinates = ObstacleCoordinates.readCsv(body);
+            }
+            int imported = obstacleService.importObstacles(mapId, coordinates);
+            ObstacleImportDTO importDTO = ObstacleImportDTO.of(mapId, imported, System.nanoTime() - start);
+            return ResponseEntity.status(HttpStatus.CREATED).body(importDTO);
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCoordinatesException | IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
     @DeleteMapping("/delete/{obstacleId}")
     public ResponseEntity<?> deleteObstacle(@PathVariable Long obstacleId) {
         try {
@@ -49,6 +94,29 @@ public class ObstacleController {
         }
     }
 
+    @DeleteMapping("/delete/in-region/{mapId}")
+    public ResponseEntity<?> deleteObstaclesInRegion(@PathVariable Long mapId, @RequestParam int x1, @RequestParam int y1,
+                                                     @RequestParam int x2, @RequestParam int y2) {
+        try {
+            int deleted = obstacleService.deleteInRegion(mapId, x1, y1, x2, y2);
+            return ResponseEntity.ok(ObstacleDeletionDTO.of(mapId, deleted));
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCoordinatesException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/delete/all-from-map/{mapId}")
+    public ResponseEntity<?> deleteAllObstaclesFromMap(@PathVariable Long mapId) {
+        try {
+            int deleted = obstacleService.deleteAllFromMap(mapId);
+            return ResponseEntity.ok(ObstacleDeletionDTO.of(mapId, deleted));
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
     @GetMapping("/get/all-from-map/{mapId}")
     public ResponseEntity<?> getAllObstaclesFromMap(@PathVariable Long mapId) {
         try {
@@ -61,5 +129,61 @@ public class ObstacleController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         }
     }
+
+    /**
+     * Gets a page of the obstacles of a map, ordered by ID. The next page is requested with the cursor of the
+     * previous one.
+     */
+    @GetMapping("/page/{mapId}")
+    public ResponseEntity<?> getObstaclesPage(@PathVariable Long mapId, @RequestParam(required = false) String cursor,
+                                              @RequestParam(defaultValue = "" + KeysetPages.DEFAULT_SIZE) int size) {
+        try {
+            List<Obstacle> obstacles = obstacleService.getFromMapAfter(mapId, KeysetPages.after(cursor),
+                    KeysetPages.fetchSize(size));
+            PageDTO<ObstacleDTO> page = KeysetPages.page(obstacles, size, Obstacle::getId, ObstacleDTO::convertToDTO);
+            return ResponseEntity.ok(page);
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidPageRequestException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets all obstacles of a map as one JSON array written while the obstacles are read, so memory use does not
+     * depend on their number. The X-Total-Count header tells how many obstacles the array will hold.
+     */
+    @GetMapping("/stream/{mapId}")
+    public ResponseEntity<?> streamAllObstaclesFromMap(@PathVariable Long mapId) {
+        try {
+            // Checked before streaming starts, since the status cannot be changed once the array is being written.
+            long count = obstacleService.countAllFromMap(mapId);
+            StreamingResponseBody body = output -> {
+                JsonArrayWriter writer = new JsonArrayWriter(objectMapper, output);
+                obstacleService.streamAllFromMap(mapId, obstacle -> writer.write(ObstacleDTO.convertToDTO(obstacle)));
+                writer.finish();
+            };
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                    .header("X-Total-Count", Long.toString(count)).body(body);
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/in-region/{mapId}")
+    public ResponseEntity<?> getObstaclesInRegion(@PathVariable Long mapId, @RequestParam int x1, @RequestParam int y1,
+                                                  @RequestParam int x2, @RequestParam int y2) {
+        try {
+            List<Obstacle> obstacles = obstacleService.getAllInRegion(mapId, x1, y1, x2, y2);
+            List<ObstacleDTO> obstacleDTOs = obstacles.stream()
+                    .map(ObstacleDTO::convertToDTO)
+                    .collect(Collectors.toList());
+            return ResponseEntity.ok(obstacleDTOs);
+        } catch (MapNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCoordinatesException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
 }
 
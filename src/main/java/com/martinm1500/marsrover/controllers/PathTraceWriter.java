@@ -0,0 +1,112 @@
+package com.martinm1500.marsrover.controllers;
+
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.StepListener;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes the path of a rover to a response body while the rover moves, through a fixed-size buffer.
+ * Failures to write, such as a client that went away, are thrown as UncheckedIOException and abort the mission.
+ */
+abstract class PathTraceWriter implements StepListener {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes one JSON object per line: {"x":1,"y":2,"orientation":"N"} for every state,
+     * then {"obstacle":{"x":1,"y":1}} if an obstacle stopped the rover.
+     */
+    static PathTraceWriter ndjson(OutputStream output) {
+        return new NdjsonWriter(new BufferedOutputStream(output, BUFFER_SIZE));
+    }
+
+    /**
+     * Writes 10-byte records: 'P', x and y as big-endian ints, then the orientation as one ASCII byte for every state,
+     * then 'O', x, y and a zero byte if an obstacle stopped the rover.
+     */
+    static PathTraceWriter binary(OutputStream output) {
+        return new BinaryWriter(new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE)));
+    }
+
+    @Override
+    public void onStep(int x, int y, char orientation) {
+        try {
+            writeStep(x, y, orientation);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write the path of the rover", e);
+        }
+    }
+
+    /**
+     * Writes the obstacle that stopped the rover, if any, and flushes the buffer.
+     */
+    abstract void finish(Obstacle obstacle) throws IOException;
+
+    abstract void writeStep(int x, int y, char orientation) throws IOException;
+
+    private static final class NdjsonWriter extends PathTraceWriter {
+        private final OutputStream output;
+        private final StringBuilder line = new StringBuilder(64);
+
+        NdjsonWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        void writeStep(int x, int y, char orientation) throws IOException {
+            line.setLength(0);
+            line.append("{\"x\":").append(x).append(",\"y\":").append(y)
+                    .append(",\"orientation\":\"").append(orientation).append("\"}\n");
+            writeLine();
+        }
+
+        @Override
+        void finish(Obstacle obstacle) throws IOException {
+            if (obstacle != null) {
+                line.setLength(0);
+                line.append("{\"obstacle\":{\"x\":").append(obstacle.getX())
+                        .append(",\"y\":").append(obstacle.getY()).append("}}\n");
+                writeLine();
+            }
+            output.flush();
+        }
+
+        private void writeLine() throws IOException {
+            for (int i = 0; i < line.length(); i++) {
+                output.write(line.charAt(i));
+            }
+        }
+    }
+
+    private static final class BinaryWriter extends PathTraceWriter {
+        private final DataOutputStream output;
+
+        BinaryWriter(DataOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        void writeStep(int x, int y, char orientation) throws IOException {
+            output.writeByte('P');
+            output.writeInt(x);
+            output.writeInt(y);
+            output.writeByte(orientation);
+        }
+
+        @Override
+        void finish(Obstacle obstacle) throws IOException {
+            if (obstacle != null) {
+                output.writeByte('O');
+                output.writeInt(obstacle.getX());
+                output.writeInt(obstacle.getY());
+                output.writeByte(0);
+            }
+            output.flush();
+        }
+    }
+}
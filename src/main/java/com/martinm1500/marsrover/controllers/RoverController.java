@@ -1,27 +1,49 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.martinm1500.marsrover.dtos.BatchOutcomeDTO;
+import com.martinm1500.marsrover.dtos.MissionDTO;
 import com.martinm1500.marsrover.dtos.RoverDTO;
+import com.martinm1500.marsrover.dtos.WriteBehindStatsDTO;
 import com.martinm1500.marsrover.exceptions.*;
+import com.martinm1500.marsrover.models.CommandProgram;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
+import com.martinm1500.marsrover.services.RoverMailboxExecutor;
 import com.martinm1500.marsrover.services.RoverService;
+import com.martinm1500.marsrover.services.RoverStateStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/rovers")
 public class RoverController {
 
     private final RoverService roverService;
+    private final RoverMailboxExecutor mailboxExecutor;
+    private final RoverStateStore stateStore;
 
     @Autowired
-    public RoverController(RoverService roverService) {
+    public RoverController(RoverService roverService, RoverMailboxExecutor mailboxExecutor, RoverStateStore stateStore) {
         this.roverService = roverService;
+        this.mailboxExecutor = mailboxExecutor;
+        this.stateStore = stateStore;
     }
 
     @PostMapping("/create-on-map/{mapId}")
@@ -59,6 +81,8 @@ public class RoverController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (InvalidCoordinatesException | InvalidOrientationException e){
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         }
     }
 
@@ -74,32 +98,200 @@ public class RoverController {
     }
 
     @GetMapping("/by-map/{mapId}")
-    public ResponseEntity<?> getRoverByMapId(@PathVariable Long mapId) {
+    public ResponseEntity<?> getRoversByMapId(@PathVariable Long mapId) {
         try {
-            Rover obtainedRover = roverService.getRoverByMapId(mapId);
-            RoverDTO roverDTO = RoverDTO.convertToDTO(obtainedRover);
-            return ResponseEntity.ok(roverDTO);
+            List<Rover> obtainedRovers = roverService.getRoversByMapId(mapId);
+            List<RoverDTO> roverDTOs = obtainedRovers.stream()
+                    .map(RoverDTO::convertToDTO)
+                    .collect(Collectors.toList());
+            return ResponseEntity.ok(roverDTOs);
         } catch (MapNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         }
     }
 
+    @GetMapping("/write-behind")
+    public ResponseEntity<?> getWriteBehindStats() {
+        return ResponseEntity.ok(WriteBehindStatsDTO.convertToDTO(stateStore));
+    }
+
     @PostMapping("/execute-commands/{roverId}")
     public ResponseEntity<?> executeCommands(@PathVariable Long roverId, @RequestBody List<Character> commands) {
         try {
             Obstacle obstacle = roverService.executeCommands(roverId, commands);
-            if(obstacle!= null){
-                // Mission aborted due to an obstacle. Reporting and returning the obstacle.
-                String message = "Mission aborted due to obstacle at coordinates: " +
-                        "(" + obstacle.getX() + ", " + obstacle.getY() + ")";
-                return ResponseEntity.status(HttpStatus.CONFLICT).body(message);
+            return missionResponse(obstacle);
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/execute-commands/{roverId}", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> executeCommandString(@PathVariable Long roverId, @RequestBody String commands,
+                                                  @RequestParam(defaultValue = "1") int repeat) {
+        try {
+            CommandProgram program = CommandProgram.parse(commands).repeat(repeat);
+            Obstacle obstacle = roverService.executeProgram(roverId, program);
+            return missionResponse(obstacle);
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/execute-commands/{roverId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> executeCommandBytes(@PathVariable Long roverId, @RequestBody byte[] commands,
+                                                 @RequestParam(defaultValue = "1") int repeat) {
+        try {
+            CommandProgram program = CommandProgram.fromBytes(commands).repeat(repeat);
+            Obstacle obstacle = roverService.executeProgram(roverId, program);
+            return missionResponse(obstacle);
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/queue-commands/{roverId}", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<?>> queueCommandString(@PathVariable Long roverId, @RequestBody String commands,
+                                                                   @RequestParam(defaultValue = "1") int repeat) {
+        CommandProgram program;
+        try {
+            program = CommandProgram.parse(commands).repeat(repeat);
+        } catch (InvalidCommandException e){
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()));
+        }
+        return mailboxExecutor.submit(roverId, program).handle((obstacle, error) -> {
+            if(error == null){
+                return missionResponse(obstacle);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if(cause instanceof RoverNotFoundException){
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(cause.getMessage());
+            }
+            if(cause instanceof ConcurrentUpdateException){
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(cause.getMessage());
             }
-            return ResponseEntity.ok().build();
+            if(cause instanceof RejectedExecutionException){
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("The command queue is shutting down");
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    @PostMapping(value = "/execute-trace/{roverId}", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<?> traceCommandString(@PathVariable Long roverId, @RequestBody String commands,
+                                                @RequestParam(defaultValue = "1") int repeat) {
+        return trace(roverId, commands, repeat, MediaType.APPLICATION_NDJSON, PathTraceWriter::ndjson);
+    }
+
+    @PostMapping(value = "/execute-trace/{roverId}", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> traceCommandStringBinary(@PathVariable Long roverId, @RequestBody String commands,
+                                                      @RequestParam(defaultValue = "1") int repeat) {
+        return trace(roverId, commands, repeat, MediaType.APPLICATION_OCTET_STREAM, PathTraceWriter::binary);
+    }
+
+    @PostMapping(value = "/execute-stream/{roverId}", consumes = {MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> executeCommandStream(@PathVariable Long roverId, InputStream commands) {
+        try {
+            Rover rover = roverService.executeStream(roverId, commands);
+            return ResponseEntity.ok(MissionDTO.convertToDTO(rover));
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException | UncheckedIOException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (ConcurrentUpdateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/execute-batch")
+    public ResponseEntity<?> executeBatch(@RequestBody LinkedHashMap<Long, String> commandsByRover) {
+        LinkedHashMap<Long, CommandProgram> programs = new LinkedHashMap<>();
+        LinkedHashMap<Long, BatchOutcomeDTO> outcomes = new LinkedHashMap<>();
+        commandsByRover.forEach((roverId, commands) -> {
+            try {
+                programs.put(roverId, CommandProgram.parse(commands));
+                outcomes.put(roverId, null);
+            } catch (InvalidCommandException e) {
+                outcomes.put(roverId, BatchOutcomeDTO.failure(roverId, BatchOutcomeDTO.Status.INVALID_COMMANDS, e.getMessage()));
+            }
+        });
+        RoverService.BatchResult result = roverService.executeBatch(programs);
+        for (Rover rover : result.rovers()) {
+            outcomes.put(rover.getId(), BatchOutcomeDTO.convertToDTO(rover));
+        }
+        for (Long roverId : result.conflictingRoverIds()) {
+            outcomes.put(roverId, BatchOutcomeDTO.failure(roverId, BatchOutcomeDTO.Status.CONFLICT,
+                    "The rover with ID: " + roverId + " was updated concurrently; it was left out of the batch"));
+        }
+        outcomes.replaceAll((roverId, outcome) -> outcome != null ? outcome
+                : BatchOutcomeDTO.failure(roverId, BatchOutcomeDTO.Status.NOT_FOUND, "Could not find rover with ID: " + roverId));
+        return ResponseEntity.ok(new ArrayList<>(outcomes.values()));
+    }
+
+    @PostMapping("/simulate/{roverId}")
+    public ResponseEntity<?> simulateCommands(@PathVariable Long roverId, @RequestBody List<Character> commands) {
+        try {
+            Rover simulatedRover = roverService.simulateProgram(roverId, CommandProgram.of(commands));
+            return ResponseEntity.ok(MissionDTO.convertToDTO(simulatedRover));
         } catch (RoverNotFoundException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
         } catch (InvalidCommandException e){
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         }
     }
+
+    @PostMapping(value = "/simulate/{roverId}", consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> simulateCommandString(@PathVariable Long roverId, @RequestBody String commands,
+                                                   @RequestParam(defaultValue = "1") int repeat) {
+        try {
+            CommandProgram program = CommandProgram.parse(commands).repeat(repeat);
+            Rover simulatedRover = roverService.simulateProgram(roverId, program);
+            return ResponseEntity.ok(MissionDTO.convertToDTO(simulatedRover));
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> trace(Long roverId, String commands, int repeat, MediaType mediaType,
+                                    Function<OutputStream, PathTraceWriter> writerFactory) {
+        try {
+            CommandProgram program = CommandProgram.parse(commands).repeat(repeat);
+            // Checked before streaming starts, since the status cannot be changed once the path is being written.
+            roverService.getRover(roverId);
+            StreamingResponseBody body = output -> {
+                PathTraceWriter writer = writerFactory.apply(output);
+                Obstacle obstacle = roverService.executeTraced(roverId, program, writer);
+                writer.finish(obstacle);
+            };
+            return ResponseEntity.ok().contentType(mediaType).body(body);
+        } catch (RoverNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (InvalidCommandException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+    }
+
+    private ResponseEntity<?> missionResponse(Obstacle obstacle) {
+        if(obstacle!= null){
+            // Mission aborted due to an obstacle. Reporting and returning the obstacle.
+            String message = "Mission aborted due to obstacle at coordinates: " +
+                    "(" + obstacle.getX() + ", " + obstacle.getY() + ")";
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(message);
+        }
+        return ResponseEntity.ok().build();
+    }
 }
 
@@ -0,0 +1,32 @@
+package com.martinm1500.marsrover.dtos;
+
+import com.martinm1500.marsrover.models.Rover;
+import lombok.Data;
+
+@Data
+public class BatchOutcomeDTO {
+    private Long roverId;
+    private Status status;
+    private String message;
+    private MissionDTO mission;
+
+    public enum Status {
+        COMPLETED, ABORTED, NOT_FOUND, INVALID_COMMANDS, CONFLICT
+    }
+
+    public static BatchOutcomeDTO convertToDTO(Rover rover) {
+        BatchOutcomeDTO batchOutcomeDTO = new BatchOutcomeDTO();
+        batchOutcomeDTO.setRoverId(rover.getId());
+        batchOutcomeDTO.setStatus(rover.getReportedObstacle() == null ? Status.COMPLETED : Status.ABORTED);
+        batchOutcomeDTO.setMission(MissionDTO.convertToDTO(rover));
+        return batchOutcomeDTO;
+    }
+
+    public static BatchOutcomeDTO failure(Long roverId, Status status, String message) {
+        BatchOutcomeDTO batchOutcomeDTO = new BatchOutcomeDTO();
+        batchOutcomeDTO.setRoverId(roverId);
+        batchOutcomeDTO.setStatus(status);
+        batchOutcomeDTO.setMessage(message);
+        return batchOutcomeDTO;
+    }
+}
@@ -1,6 +1,7 @@
 package com.martinm1500.marsrover.dtos;
 
 import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.ObstacleIndexType;
 import lombok.Data;
 
 import java.util.List;
@@ -13,7 +14,8 @@ public class MapFullDTO {
     private int dimensionX;
     private int dimensionY;
     private List<ObstacleDTO> obstacles;
-    private RoverDTO rover;
+    private List<RoverDTO> rovers;
+    private ObstacleIndexType obstacleIndex;
 
     public static MapFullDTO convertToFullDTO(Map map) {
         MapFullDTO mapFullDTO = new MapFullDTO();
@@ -27,11 +29,13 @@ public class MapFullDTO {
                 .map(ObstacleDTO::convertToDTO)
                 .collect(Collectors.toList());
         mapFullDTO.setObstacles(obstacleDTOs);
+        mapFullDTO.setObstacleIndex(map.getObstacleIndexType());
 
-        // Convert Rover to DTO
-        if (map.getRover() != null) {
-            mapFullDTO.setRover(RoverDTO.convertToDTO(map.getRover()));
-        }
+        // Convert rovers to DTOs
+        List<RoverDTO> roverDTOs = map.getRovers().stream()
+                .map(RoverDTO::convertToDTO)
+                .collect(Collectors.toList());
+        mapFullDTO.setRovers(roverDTOs);
 
         return mapFullDTO;
     }
@@ -0,0 +1,27 @@
+package com.martinm1500.marsrover.dtos;
+
+import com.martinm1500.marsrover.models.Rover;
+import lombok.Data;
+
+@Data
+public class MissionDTO {
+    private Long roverId;
+    private int x;
+    private int y;
+    private char orientation;
+    private ObstacleDTO obstacle;
+    private long steps;
+
+    public static MissionDTO convertToDTO(Rover rover) {
+        MissionDTO missionDTO = new MissionDTO();
+        missionDTO.setRoverId(rover.getId());
+        missionDTO.setX(rover.getX());
+        missionDTO.setY(rover.getY());
+        missionDTO.setOrientation(rover.getOrientation());
+        missionDTO.setSteps(rover.getExecutedCommands());
+        if (rover.getReportedObstacle() != null) {
+            missionDTO.setObstacle(ObstacleDTO.convertToDTO(rover.getReportedObstacle()));
+        }
+        return missionDTO;
+    }
+}
@@ -0,0 +1,16 @@
+package com.martinm1500.marsrover.dtos;
+
+import lombok.Data;
+
+@Data
+public class ObstacleDeletionDTO {
+    private Long mapId;
+    private int deletedObstacles;
+
+    public static ObstacleDeletionDTO of(Long mapId, int deletedObstacles) {
+        ObstacleDeletionDTO deletionDTO = new ObstacleDeletionDTO();
+        deletionDTO.setMapId(mapId);
+        deletionDTO.setDeletedObstacles(deletedObstacles);
+        return deletionDTO;
+    }
+}
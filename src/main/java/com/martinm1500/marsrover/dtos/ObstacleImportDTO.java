@@ -0,0 +1,22 @@
+package com.martinm1500.marsrover.dtos;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+@Data
+public class ObstacleImportDTO {
+    private Long mapId;
+    private int importedObstacles;
+    private long elapsedMillis;
+    private long obstaclesPerSecond;
+
+    public static ObstacleImportDTO of(Long mapId, int importedObstacles, long elapsedNanos) {
+        ObstacleImportDTO importDTO = new ObstacleImportDTO();
+        importDTO.setMapId(mapId);
+        importDTO.setImportedObstacles(importedObstacles);
+        importDTO.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        importDTO.setObstaclesPerSecond(elapsedNanos > 0 ? importedObstacles * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0);
+        return importDTO;
+    }
+}
@@ -0,0 +1,22 @@
+package com.martinm1500.marsrover.dtos;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a listing ordered by ID. The next page is requested with {@code nextCursor}, which is null on the
+ * last page.
+ */
+@Data
+public class PageDTO<T> {
+    private List<T> items;
+    private String nextCursor;
+
+    public static <T> PageDTO<T> of(List<T> items, String nextCursor) {
+        PageDTO<T> pageDTO = new PageDTO<>();
+        pageDTO.setItems(items);
+        pageDTO.setNextCursor(nextCursor);
+        return pageDTO;
+    }
+}
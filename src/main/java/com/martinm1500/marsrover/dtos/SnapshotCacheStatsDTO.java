@@ -0,0 +1,25 @@
+package com.martinm1500.marsrover.dtos;
+
+import com.martinm1500.marsrover.services.MapSnapshotCache;
+import lombok.Data;
+
+@Data
+public class SnapshotCacheStatsDTO {
+    private int entries;
+    private long weightBytes;
+    private long maxWeightBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public static SnapshotCacheStatsDTO convertToDTO(MapSnapshotCache snapshotCache) {
+        SnapshotCacheStatsDTO statsDTO = new SnapshotCacheStatsDTO();
+        statsDTO.setEntries(snapshotCache.getSize());
+        statsDTO.setWeightBytes(snapshotCache.getWeight());
+        statsDTO.setMaxWeightBytes(snapshotCache.getMaxWeight());
+        statsDTO.setHits(snapshotCache.getHits());
+        statsDTO.setMisses(snapshotCache.getMisses());
+        statsDTO.setEvictions(snapshotCache.getEvictions());
+        return statsDTO;
+    }
+}
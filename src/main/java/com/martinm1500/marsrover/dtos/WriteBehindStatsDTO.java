@@ -0,0 +1,23 @@
+package com.martinm1500.marsrover.dtos;
+
+import com.martinm1500.marsrover.services.RoverStateStore;
+import lombok.Data;
+
+@Data
+public class WriteBehindStatsDTO {
+    private boolean enabled;
+    private int dirtyRovers;
+    private long durabilityLagMillis;
+    private long flushedUpdates;
+    private long droppedUpdates;
+
+    public static WriteBehindStatsDTO convertToDTO(RoverStateStore stateStore) {
+        WriteBehindStatsDTO statsDTO = new WriteBehindStatsDTO();
+        statsDTO.setEnabled(stateStore.isEnabled());
+        statsDTO.setDirtyRovers(stateStore.getDirtyCount());
+        statsDTO.setDurabilityLagMillis(stateStore.getDurabilityLagMillis());
+        statsDTO.setFlushedUpdates(stateStore.getFlushedUpdates());
+        statsDTO.setDroppedUpdates(stateStore.getDroppedUpdates());
+        return statsDTO;
+    }
+}
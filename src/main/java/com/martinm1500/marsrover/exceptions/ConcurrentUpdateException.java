@@ -0,0 +1,7 @@
+package com.martinm1500.marsrover.exceptions;
+
+public class ConcurrentUpdateException extends RuntimeException{
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.martinm1500.marsrover.exceptions;
+
+public class InvalidPageRequestException extends RuntimeException{
+    public InvalidPageRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,294 @@
+package com.martinm1500.marsrover.models;
+
+import com.martinm1500.marsrover.exceptions.InvalidCommandException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sequence of rover commands compiled into runs of one opcode byte and a repeat count.
+ * Consecutive identical commands are merged into a single run, and a command may be followed by an explicit
+ * repeat count ("f5000r2b300"), so long straight moves are executed as one jump instead of one step at a time.
+ * Programs are validated when they are built, so a rover can run them without checking or boxing each command.
+ * A program may also be repeated as a whole, like a patrol loop; see {@link #repeat(int)}.
+ */
+public final class CommandProgram {
+
+    public static final byte MOVE_FORWARD = 0;
+    public static final byte MOVE_BACKWARD = 1;
+    public static final byte TURN_LEFT = 2;
+    public static final byte TURN_RIGHT = 3;
+
+    static final byte INVALID = -1;
+    static final byte WHITESPACE = -2;
+    private static final byte[] OPCODES = new byte[128];
+
+    static {
+        Arrays.fill(OPCODES, INVALID);
+        OPCODES[Rover.MOVE_FORDWARD] = MOVE_FORWARD;
+        OPCODES[Rover.MOVE_BACKWARD] = MOVE_BACKWARD;
+        OPCODES[Rover.TURN_LEFT] = TURN_LEFT;
+        OPCODES[Rover.TURN_RIGHT] = TURN_RIGHT;
+        OPCODES[' '] = WHITESPACE;
+        OPCODES['\t'] = WHITESPACE;
+        OPCODES['\r'] = WHITESPACE;
+        OPCODES['\n'] = WHITESPACE;
+    }
+
+    private final byte[] opcodes;
+    private final int[] repeats;
+    private final long length;
+    private final int repetitions;
+
+    private CommandProgram(byte[] opcodes, int[] repeats, int runCount) {
+        this.opcodes = runCount == opcodes.length ? opcodes : Arrays.copyOf(opcodes, runCount);
+        this.repeats = runCount == repeats.length ? repeats : Arrays.copyOf(repeats, runCount);
+        long total = 0;
+        for (int i = 0; i < runCount; i++) {
+            total += repeats[i];
+        }
+        this.length = total;
+        this.repetitions = 1;
+    }
+
+    private CommandProgram(CommandProgram body, int repetitions) {
+        this.opcodes = body.opcodes;
+        this.repeats = body.repeats;
+        this.length = body.length;
+        this.repetitions = repetitions;
+    }
+
+    /**
+     * Compiles a list of commands such as 'f', 'b', 'l' and 'r', one command per element.
+     * Repeat counts are only accepted by {@link #parse(CharSequence)} and {@link #fromBytes(byte[])}, so a digit in
+     * the list is rejected like any other invalid command.
+     *
+     * @param commands The commands to compile.
+     * @return The compiled program.
+     * @throws InvalidCommandException If an element is not a command.
+     */
+    public static CommandProgram of(List<Character> commands) {
+        Builder builder = new Builder(Math.min(commands.size(), 1024));
+        for (Character command : commands) {
+            if (command == null) {
+                throw invalidCommand("null");
+            }
+            byte opcode = opcodeOf(command);
+            if (opcode < 0) {
+                throw invalidCommand(String.valueOf(command));
+            }
+            builder.append(opcode, 1);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Compiles a string of commands such as "ffrblb". A command may be followed by a repeat count, as in "f5000r2b300".
+     * Whitespace between commands is ignored.
+     *
+     * @param commands The commands to compile.
+     * @return The compiled program.
+     * @throws InvalidCommandException If a character is neither a command, a repeat count nor whitespace,
+     *                                 or if a repeat count is zero or too large.
+     */
+    public static CommandProgram parse(CharSequence commands) {
+        return compile(commands);
+    }
+
+    /**
+     * Compiles commands sent as raw bytes, one ASCII command letter per byte, with the same syntax as
+     * {@link #parse(CharSequence)}.
+     *
+     * @param commands The command bytes to compile.
+     * @return The compiled program.
+     * @throws InvalidCommandException If the bytes are not a valid command string.
+     */
+    public static CommandProgram fromBytes(byte[] commands) {
+        return parse(new String(commands, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Rebuilds a program from its runs, such as a program read back from a journal.
+     *
+     * @param opcodes     The opcode of each run.
+     * @param repeats     The repeat count of each run.
+     * @param repetitions How many times the runs are executed in a row.
+     * @return The program.
+     * @throws InvalidCommandException If an opcode is unknown or a count is not positive.
+     */
+    public static CommandProgram ofRuns(byte[] opcodes, int[] repeats, int repetitions) {
+        Builder builder = new Builder(opcodes.length);
+        for (int i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] < MOVE_FORWARD || opcodes[i] > TURN_RIGHT) {
+                throw new InvalidCommandException("Invalid opcode " + opcodes[i]);
+            }
+            if (repeats[i] < 1) {
+                throw new InvalidCommandException("Repeat counts must be positive");
+            }
+            builder.append(opcodes[i], repeats[i]);
+        }
+        return builder.build().repeat(repetitions);
+    }
+
+    /**
+     * Builds a program that runs the runs of this one the given number of times in a row,
+     * replacing any repetition set before.
+     * Rovers detect when a repetition starts from a state already seen and skip the loops that would follow.
+     *
+     * @param times How many times the commands are run, at least 1.
+     * @return The repeated program.
+     * @throws InvalidCommandException If times is not positive.
+     */
+    public CommandProgram repeat(int times) {
+        if (times < 1) {
+            throw new InvalidCommandException("The number of repetitions must be positive");
+        }
+        return times == repetitions ? this : new CommandProgram(this, times);
+    }
+
+    /**
+     * Gets the number of commands run by one repetition of the program, counting every repeat count.
+     *
+     * @return The number of commands.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Gets how many times the runs of the program are executed in a row.
+     *
+     * @return The number of repetitions, 1 unless the program was built by {@link #repeat(int)}.
+     */
+    public int repetitions() {
+        return repetitions;
+    }
+
+    /**
+     * Gets the number of runs of identical commands in the program.
+     *
+     * @return The number of runs.
+     */
+    public int runCount() {
+        return opcodes.length;
+    }
+
+    /**
+     * Gets the opcode of a run of the program.
+     *
+     * @param run The position of the run.
+     * @return One of MOVE_FORWARD, MOVE_BACKWARD, TURN_LEFT or TURN_RIGHT.
+     */
+    public byte opcodeOfRun(int run) {
+        return opcodes[run];
+    }
+
+    /**
+     * Gets how many times the command of a run is repeated.
+     *
+     * @param run The position of the run.
+     * @return The repeat count, at least 1.
+     */
+    public int repeatOfRun(int run) {
+        return repeats[run];
+    }
+
+    private static CommandProgram compile(CharSequence commands) {
+        Builder builder = new Builder(Math.min(commands.length(), 1024));
+        int i = 0;
+        int length = commands.length();
+        while (i < length) {
+            char command = commands.charAt(i++);
+            byte opcode = opcodeOf(command);
+            if (opcode == WHITESPACE) {
+                continue;
+            }
+            if (opcode < 0) {
+                throw invalidCommand(String.valueOf(command));
+            }
+            int start = i;
+            long repeat = 0;
+            while (i < length && commands.charAt(i) >= '0' && commands.charAt(i) <= '9') {
+                repeat = repeat * 10 + (commands.charAt(i++) - '0');
+                if (repeat > Integer.MAX_VALUE) {
+                    throw repeatTooLarge(command);
+                }
+            }
+            if (i == start) {
+                repeat = 1;
+            } else if (repeat == 0) {
+                throw repeatNotPositive(command);
+            }
+            builder.append(opcode, (int) repeat);
+        }
+        return builder.build();
+    }
+
+    static byte opcodeOf(int command) {
+        return command >= 0 && command < OPCODES.length ? OPCODES[command] : INVALID;
+    }
+
+    static InvalidCommandException repeatTooLarge(char command) {
+        return new InvalidCommandException("Repeat count of command '" + command + "' is too large. The maximum is " + Integer.MAX_VALUE);
+    }
+
+    static InvalidCommandException repeatNotPositive(char command) {
+        return new InvalidCommandException("Repeat count of command '" + command + "' must be positive");
+    }
+
+    static InvalidCommandException invalidCommand(String command) {
+        return new InvalidCommandException("Invalid command '" + command + "'. Accepted commands are: " + Rover.MOVE_FORDWARD
+                + ", " + Rover.MOVE_BACKWARD + ", " + Rover.TURN_RIGHT + ", or " + Rover.TURN_LEFT);
+    }
+
+    private static final class Builder {
+        private byte[] opcodes;
+        private int[] repeats;
+        private int runCount;
+
+        Builder(int capacity) {
+            opcodes = new byte[Math.max(capacity, 1)];
+            repeats = new int[opcodes.length];
+        }
+
+        void append(byte opcode, int repeat) {
+            if (runCount > 0 && opcodes[runCount - 1] == opcode && (long) repeats[runCount - 1] + repeat <= Integer.MAX_VALUE) {
+                repeats[runCount - 1] += repeat;
+                return;
+            }
+            if (runCount == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, runCount * 2);
+                repeats = Arrays.copyOf(repeats, runCount * 2);
+            }
+            opcodes[runCount] = opcode;
+            repeats[runCount] = repeat;
+            runCount++;
+        }
+
+        CommandProgram build() {
+            return new CommandProgram(opcodes, repeats, runCount);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CommandProgram that)) return false;
+        return repetitions == that.repetitions && Arrays.equals(opcodes, that.opcodes) && Arrays.equals(repeats, that.repeats);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(opcodes) + Arrays.hashCode(repeats)) + repetitions;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandProgram{" +
+                "runs=" + opcodes.length +
+                ", length=" + length +
+                ", repetitions=" + repetitions +
+                '}';
+    }
+}
@@ -0,0 +1,105 @@
+package com.martinm1500.marsrover.models;
+
+import com.martinm1500.marsrover.exceptions.InvalidCommandException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads run-length encoded commands ("f5000r2b300") from a stream one run at a time, through a fixed-size buffer.
+ * The syntax is the one of {@link CommandProgram#parse(CharSequence)}, but nothing is compiled ahead:
+ * a rover can execute each run as soon as it is read, and stop reading when it meets an obstacle.
+ */
+public final class CommandStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private byte opcode;
+    private int repeat;
+
+    public CommandStream(InputStream input) {
+        this.input = input;
+    }
+
+    /**
+     * Reads the next run of commands.
+     *
+     * @return true if a run was read, false at the end of the stream.
+     * @throws InvalidCommandException If the stream holds an invalid command or repeat count.
+     * @throws IOException             If the stream cannot be read.
+     */
+    public boolean next() throws IOException {
+        int command;
+        do {
+            command = read();
+            if (command < 0) {
+                return false;
+            }
+        } while (CommandProgram.opcodeOf(command) == CommandProgram.WHITESPACE);
+        byte nextOpcode = CommandProgram.opcodeOf(command);
+        if (nextOpcode < 0) {
+            throw CommandProgram.invalidCommand(String.valueOf((char) command));
+        }
+        long count = 0;
+        boolean hasCount = false;
+        int digit;
+        while ((digit = peek()) >= '0' && digit <= '9') {
+            position++;
+            hasCount = true;
+            count = count * 10 + (digit - '0');
+            if (count > Integer.MAX_VALUE) {
+                throw CommandProgram.repeatTooLarge((char) command);
+            }
+        }
+        if (!hasCount) {
+            count = 1;
+        } else if (count == 0) {
+            throw CommandProgram.repeatNotPositive((char) command);
+        }
+        opcode = nextOpcode;
+        repeat = (int) count;
+        return true;
+    }
+
+    /**
+     * Gets the opcode of the last run read.
+     *
+     * @return One of MOVE_FORWARD, MOVE_BACKWARD, TURN_LEFT or TURN_RIGHT of {@link CommandProgram}.
+     */
+    public byte opcode() {
+        return opcode;
+    }
+
+    /**
+     * Gets how many times the command of the last run read is repeated.
+     *
+     * @return The repeat count, at least 1.
+     */
+    public int repeat() {
+        return repeat;
+    }
+
+    private int read() throws IOException {
+        int value = peek();
+        if (value >= 0) {
+            position++;
+        }
+        return value;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = input.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xFF;
+    }
+}
@@ -0,0 +1,70 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Obstacle index backed by a bitset with one bit per cell of the map.
+ * The bitset answers occupancy checks in O(1); the obstacle itself is only looked up on a hit.
+ */
+final class DenseObstacleIndex implements ObstacleIndex {
+
+    private final int dimensionX;
+    private final int dimensionY;
+    private final long[] occupancy;
+    private final ObstacleTable obstacles;
+
+    DenseObstacleIndex(int dimensionX, int dimensionY, Iterable<Obstacle> obstacles, int expectedSize) {
+        this.dimensionX = dimensionX;
+        this.dimensionY = dimensionY;
+        long cells = (long) dimensionX * dimensionY;
+        this.occupancy = new long[(int) ((cells + 63) >>> 6)];
+        this.obstacles = new ObstacleTable(expectedSize);
+        for (Obstacle obstacle : obstacles) {
+            add(obstacle);
+        }
+    }
+
+    @Override
+    public boolean isOccupied(int x, int y) {
+        if (x < 1 || x > dimensionX || y < 1 || y > dimensionY) {
+            return false;
+        }
+        long bit = bit(x, y);
+        return (occupancy[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    @Override
+    public Obstacle getObstacle(int x, int y) {
+        return isOccupied(x, y) ? obstacles.get(ObstacleTable.key(x, y)) : null;
+    }
+
+    @Override
+    public void add(Obstacle obstacle) {
+        int x = obstacle.getX();
+        int y = obstacle.getY();
+        if (x < 1 || x > dimensionX || y < 1 || y > dimensionY) {
+            return;
+        }
+        if (obstacles.putIfAbsent(ObstacleTable.key(x, y), obstacle)) {
+            long bit = bit(x, y);
+            occupancy[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    @Override
+    public void remove(Obstacle obstacle) {
+        int x = obstacle.getX();
+        int y = obstacle.getY();
+        if (obstacles.remove(ObstacleTable.key(x, y), obstacle)) {
+            long bit = bit(x, y);
+            occupancy[(int) (bit >>> 6)] &= ~(1L << bit);
+        }
+    }
+
+    @Override
+    public ObstacleIndexType getType() {
+        return ObstacleIndexType.DENSE;
+    }
+
+    private long bit(int x, int y) {
+        return (long) (y - 1) * dimensionX + (x - 1);
+    }
+}
@@ -1,7 +1,10 @@
 package com.martinm1500.marsrover.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
+import com.martinm1500.marsrover.exceptions.InvalidOperationException;
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -14,10 +17,41 @@ import java.util.Objects;
 @Setter
 @Entity
 public class Map {
+    /**
+     * Maps up to this many cells always use a dense index; its bitset is at most 8 KB.
+     */
+    static final long SMALL_MAP_CELLS = 1L << 16;
+    /**
+     * Larger maps use a dense index while there is at least one obstacle per this many cells.
+     */
+    static final long DENSE_CELLS_PER_OBSTACLE = 1024;
+    /**
+     * Upper bound for a dense index, which corresponds to a 64 MB bitset.
+     */
+    static final long MAX_DENSE_CELLS = 1L << 29;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    /**
+     * Incremented whenever an obstacle or a rover of the map changes, so clients can tell whether the map they hold
+     * is up to date. Only written by {@code MapRepository.incrementRevision}, so a loaded map never writes back a
+     * revision that is out of date.
+     */
+    @JsonIgnore
+    @Column(nullable = false, updatable = false)
+    private long revision;
+
+    /**
+     * Incremented whenever an obstacle of the map is created or deleted. The memory-mapped grid of the map is stamped
+     * with it, so a grid file is only reused if it holds every committed change. Only written by
+     * {@code MapRepository.incrementObstacleGeneration}.
+     */
+    @JsonIgnore
+    @Column(nullable = false, updatable = false)
+    private long obstacleGeneration;
+
     @NotNull
     private String name;
     @NotNull
@@ -28,8 +62,44 @@ public class Map {
     @OneToMany(mappedBy = "map", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Obstacle> obstacles = new ArrayList<>();
 
-    @OneToOne(mappedBy = "map", cascade = CascadeType.ALL, orphanRemoval = true)
-    private Rover rover;
+    @OneToMany(mappedBy = "map", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<Rover> rovers = new ArrayList<>();
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ObstacleIndex obstacleIndex;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ObstacleTiles obstacleTiles;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private MovementKernel movementKernel;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private ObstacleLines obstacleLines;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private RoverPositions roverPositions;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean readOnly;
 
     public Map(int dimensionX, int dimensionY, String name) {
         this.dimensionX = dimensionX;
@@ -39,14 +109,93 @@ public class Map {
 
     public Map(){}
 
+    public void setDimensionX(int dimensionX) {
+        checkWritable();
+        this.dimensionX = dimensionX;
+        this.obstacleIndex = null;
+        this.obstacleLines = null;
+        this.movementKernel = null;
+    }
+
+    public void setDimensionY(int dimensionY) {
+        checkWritable();
+        this.dimensionY = dimensionY;
+        this.obstacleIndex = null;
+        this.obstacleLines = null;
+        this.movementKernel = null;
+    }
+
+    public void setObstacles(List<Obstacle> obstacles) {
+        checkWritable();
+        this.obstacles = obstacles;
+        this.obstacleIndex = null;
+        this.obstacleTiles = null;
+        this.obstacleLines = null;
+    }
+
+    public void setRovers(List<Rover> rovers) {
+        checkWritable();
+        this.rovers = rovers;
+        this.roverPositions = null;
+    }
+
+    public void addRover(Rover rover){
+        checkWritable();
+        rover.setMap(this);
+        rovers.add(rover);
+        if(roverPositions != null){
+            roverPositions.add(rover);
+        }
+    }
+
+    public void removeRover(Rover rover){
+        checkWritable();
+        if(rovers.remove(rover) && roverPositions != null){
+            roverPositions.remove(rover);
+        }
+        rover.setMap(null);
+    }
+
     public void removeObstacle(Obstacle obstacle) {
-        obstacles.remove(obstacle);
+        checkWritable();
+        boolean removed = obstacles.remove(obstacle);
+        if(removed){
+            obstacleLines = null;
+        }
+        if(removed && obstacleTiles != null){
+            obstacleTiles.remove(obstacle);
+        }
+        // A memory-mapped grid is shared by every copy of the map, so it is only changed once the change is committed.
+        if(removed && obstacleIndex != null && obstacleIndex.getType() != ObstacleIndexType.MAPPED){
+            obstacleIndex.remove(obstacle);
+            // Another obstacle may share the cell; it becomes the one reported for it.
+            for(Obstacle remaining : obstacles){
+                if(remaining.isAt(obstacle.getX(), obstacle.getY())){
+                    obstacleIndex.add(remaining);
+                    break;
+                }
+            }
+        }
         obstacle.setMap(null);
     }
     public void addObstacle(Obstacle obstacle){
+        checkWritable();
         if(validPositionOfObstacle(obstacle)){
             obstacle.setMap(this);
             obstacles.add(obstacle);
+            obstacleLines = null;
+            if(obstacleTiles != null){
+                obstacleTiles.add(obstacle);
+            }
+            // A memory-mapped grid is shared by every copy of the map, so it is only changed once the change is committed.
+            if(obstacleIndex != null && obstacleIndex.getType() != ObstacleIndexType.MAPPED){
+                if(obstacleIndex.getType() != selectIndexType(dimensionX, dimensionY, obstacles.size())){
+                    // The map outgrew its backend; it is rebuilt with the right one on the next query.
+                    obstacleIndex = null;
+                }else{
+                    obstacleIndex.add(obstacle);
+                }
+            }
         }else {
             throw new InvalidCoordinatesException("The obstacle's coordinates do not represent a valid position on the map");
         }
@@ -56,26 +205,207 @@ public class Map {
         return dimensionX > 0 && dimensionY > 0 && dimensionX % 2 == 0 && dimensionY % 2 == 0;
     }
     public boolean isPositionOccupied(int x, int y){
-        boolean occupied = false;
-        for (Obstacle obstacle : obstacles){
-            occupied = occupied || obstacle.isAt(x,y);
-        }
-        return occupied;
+        return obstacleIndex().isOccupied(x,y);
     }
 
     public boolean validPositionOfObstacle(Obstacle obstacle){
-        int x = obstacle.getX();
-        int y = obstacle.getY();
+        return isValidPosition(obstacle.getX(), obstacle.getY());
+    }
+
+    public boolean isValidPosition(int x, int y){
         return x>=1 && x <= dimensionX && y >=1 && y <=dimensionY;
     }
 
     public Obstacle getObstacle(int x, int y){
-        for(Obstacle obstacle: obstacles){
-            if(obstacle.isAt(x,y)){
-                return obstacle;
+        return obstacleIndex().getObstacle(x,y);
+    }
+
+    /**
+     * Gets the obstacles located inside a rectangle of the map, bounds included.
+     * Uses a tile-partitioned index, built on first use, so only the tiles overlapping the region are visited.
+     *
+     * @param x1 The lowest x coordinate of the region.
+     * @param y1 The lowest y coordinate of the region.
+     * @param x2 The highest x coordinate of the region.
+     * @param y2 The highest y coordinate of the region.
+     * @return The obstacles inside the region.
+     */
+    public List<Obstacle> getObstaclesInRegion(int x1, int y1, int x2, int y2){
+        if(obstacleTiles == null){
+            obstacleTiles = new ObstacleTiles(obstacles);
+        }
+        return obstacleTiles.findInRegion(x1, y1, x2, y2);
+    }
+
+    /**
+     * Gets the backend used by the obstacle index of this map.
+     *
+     * @return DENSE for a bitset over all cells, SPARSE for a hash set of the occupied cells,
+     * MAPPED for a grid attached from the occupancy store.
+     */
+    public ObstacleIndexType getObstacleIndexType(){
+        return obstacleIndex().getType();
+    }
+
+    /**
+     * Replaces the obstacle index of this map with an externally managed one, such as a memory-mapped grid.
+     * The index must already contain the obstacles of the map; later additions and removals are forwarded to it.
+     *
+     * @param obstacleIndex The index to use for this map.
+     */
+    public void attachObstacleIndex(ObstacleIndex obstacleIndex){
+        checkWritable();
+        this.obstacleIndex = obstacleIndex;
+    }
+
+    /**
+     * Builds a detached, read-only copy of this map holding the given obstacles, with all of its indexes built up front.
+     * The copy never changes afterwards, so it can be shared between threads; changing its obstacles or dimensions
+     * throws InvalidOperationException. The copy keeps the obstacle generation of this map, so the obstacles it holds
+     * are at least as recent as that generation when they are read after this map.
+     *
+     * @param obstacles The obstacles of the map.
+     * @return The read-only copy.
+     */
+    public Map snapshot(List<Obstacle> obstacles){
+        Map snapshot = new Map(dimensionX, dimensionY, name);
+        snapshot.id = id;
+        snapshot.obstacleGeneration = obstacleGeneration;
+        snapshot.obstacles = List.copyOf(obstacles);
+        snapshot.rovers = List.of();
+        snapshot.obstacleIndex();
+        snapshot.obstacleTiles = new ObstacleTiles(snapshot.obstacles);
+        snapshot.getObstacleLines();
+        snapshot.getMovementKernel();
+        snapshot.readOnly = true;
+        return snapshot;
+    }
+
+    /**
+     * Builds a detached, read-only copy of this map answering occupancy from an externally managed index, such as
+     * a memory-mapped grid, without holding any obstacle. Its obstacle list is empty, so obstacles in a region must
+     * be queried from the obstacle table.
+     *
+     * @param obstacleIndex The index holding the obstacles of the map.
+     * @return The read-only copy.
+     */
+    public Map snapshot(ObstacleIndex obstacleIndex){
+        Map snapshot = new Map(dimensionX, dimensionY, name);
+        snapshot.id = id;
+        snapshot.obstacles = List.of();
+        snapshot.rovers = List.of();
+        snapshot.obstacleIndex = obstacleIndex;
+        snapshot.getMovementKernel();
+        snapshot.readOnly = true;
+        return snapshot;
+    }
+
+    /**
+     * Builds a read-only copy of this map holding the given rovers and revision, sharing the obstacles and indexes of
+     * this map, to answer a read of the whole map. Must be called on a snapshot or on a map with an attached grid,
+     * whose indexes never change through the copy.
+     *
+     * @param rovers   The rovers of the map, with their latest state.
+     * @param revision The revision of the map read with the rovers.
+     * @return The read-only copy.
+     */
+    public Map withRovers(List<Rover> rovers, long revision){
+        Map copy = new Map(dimensionX, dimensionY, name);
+        copy.id = id;
+        copy.revision = revision;
+        copy.obstacleGeneration = obstacleGeneration;
+        copy.obstacles = obstacles;
+        copy.rovers = List.copyOf(rovers);
+        copy.obstacleIndex = obstacleIndex;
+        copy.obstacleTiles = obstacleTiles;
+        copy.obstacleLines = obstacleLines;
+        copy.movementKernel = movementKernel;
+        copy.readOnly = true;
+        return copy;
+    }
+
+    /**
+     * Tells whether this map is a snapshot built by {@link #snapshot(List)} or {@link #snapshot(ObstacleIndex)}.
+     *
+     * @return true if the obstacles and dimensions of the map cannot be changed.
+     */
+    public boolean isReadOnly(){
+        return readOnly;
+    }
+
+    /**
+     * Returns the cells occupied by the rovers of the map, indexing them on first use.
+     * Returns null for a snapshot: its rovers are not part of it, so the rovers executing against a snapshot
+     * are given their own positions.
+     */
+    RoverPositions getRoverPositions(){
+        if(readOnly){
+            return null;
+        }
+        if(roverPositions == null){
+            roverPositions = new RoverPositions(rovers);
+        }
+        return roverPositions;
+    }
+
+    /**
+     * Returns the movement rules for the dimensions of this map, computing them on first use.
+     */
+    MovementKernel getMovementKernel(){
+        if(movementKernel == null){
+            movementKernel = new MovementKernel(dimensionX, dimensionY);
+        }
+        return movementKernel;
+    }
+
+    /**
+     * Returns the obstacles of the map grouped by row and column, building them on first use.
+     * Returns null when the occupancy comes from an attached grid, whose obstacles are not loaded in memory.
+     */
+    ObstacleLines getObstacleLines(){
+        if(obstacleIndex().getType() == ObstacleIndexType.MAPPED){
+            return null;
+        }
+        if(obstacleLines == null){
+            obstacleLines = new ObstacleLines(obstacles, dimensionX, dimensionY);
+        }
+        return obstacleLines;
+    }
+
+    /**
+     * Chooses the obstacle index backend for a map of the given size holding the given number of obstacles.
+     */
+    public static ObstacleIndexType selectIndexType(int dimensionX, int dimensionY, int obstacleCount){
+        long cells = (long) dimensionX * dimensionY;
+        if(cells <= SMALL_MAP_CELLS){
+            return ObstacleIndexType.DENSE;
+        }
+        if(cells <= MAX_DENSE_CELLS && cells <= obstacleCount * DENSE_CELLS_PER_OBSTACLE){
+            return ObstacleIndexType.DENSE;
+        }
+        return ObstacleIndexType.SPARSE;
+    }
+
+    /**
+     * Returns the occupancy index of the map, building it from the obstacle list on first use.
+     * Entities loaded by JPA start without an index, so the obstacles are only fetched when the map is queried.
+     */
+    private ObstacleIndex obstacleIndex(){
+        if(obstacleIndex == null){
+            int obstacleCount = obstacles.size();
+            if(selectIndexType(dimensionX, dimensionY, obstacleCount) == ObstacleIndexType.DENSE){
+                obstacleIndex = new DenseObstacleIndex(dimensionX, dimensionY, obstacles, obstacleCount);
+            }else{
+                obstacleIndex = new SparseObstacleIndex(obstacles, obstacleCount);
             }
         }
-        return null;
+        return obstacleIndex;
+    }
+
+    private void checkWritable(){
+        if(readOnly){
+            throw new InvalidOperationException("The map snapshot with ID: " + id + " is read-only");
+        }
     }
 
     @Override
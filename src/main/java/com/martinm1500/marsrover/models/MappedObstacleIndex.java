@@ -0,0 +1,216 @@
+package com.martinm1500.marsrover.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Obstacle index that keeps one bit per cell in a memory-mapped file.
+ * The grid lives outside the heap and survives restarts, so it does not have to be rebuilt from the obstacle table.
+ * Only coordinates are stored: obstacles returned by {@link #getObstacle(int, int)} carry no ID and no map.
+ * The file is stamped with the obstacle generation of the map it was last brought up to date with.
+ */
+public final class MappedObstacleIndex implements ObstacleIndex, Closeable {
+
+    private static final int MAGIC = 0x4D524F43;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int COUNT_OFFSET = 16;
+    private static final int GENERATION_OFFSET = 24;
+    private static final long NO_GENERATION = -1L;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private final int dimensionX;
+    private final int dimensionY;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final boolean created;
+    private long obstacleCount;
+    private long generation;
+
+    private MappedObstacleIndex(int dimensionX, int dimensionY, FileChannel channel, boolean created) throws IOException {
+        this.dimensionX = dimensionX;
+        this.dimensionY = dimensionY;
+        this.channel = channel;
+        this.created = created;
+        long gridBytes = gridBytes(dimensionX, dimensionY);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        for (long position = 0; position < gridBytes; position += SEGMENT_BYTES) {
+            long length = Math.min(SEGMENT_BYTES, gridBytes - position);
+            mapped.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + position, length));
+        }
+        this.segments = mapped.toArray(new MappedByteBuffer[0]);
+        if (created) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, FORMAT_VERSION);
+            header.putInt(8, dimensionX);
+            header.putInt(12, dimensionY);
+            header.putLong(COUNT_OFFSET, 0L);
+            header.putLong(GENERATION_OFFSET, NO_GENERATION);
+        }
+        this.obstacleCount = header.getLong(COUNT_OFFSET);
+        this.generation = header.getLong(GENERATION_OFFSET);
+    }
+
+    /**
+     * Opens the grid stored in a file. The file is reused if it was written for the same dimensions and is stamped
+     * with the expected obstacle generation; otherwise it is recreated empty and unstamped.
+     *
+     * @param file               The file holding the grid.
+     * @param dimensionX         The horizontal dimension of the map.
+     * @param dimensionY         The vertical dimension of the map.
+     * @param expectedGeneration The obstacle generation the file should be stamped with to be reused.
+     * @return The opened index.
+     */
+    public static MappedObstacleIndex open(Path file, int dimensionX, int dimensionY, long expectedGeneration) {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            boolean reusable = Files.exists(file) && hasHeader(file, dimensionX, dimensionY, expectedGeneration);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!reusable) {
+                channel.truncate(0);
+                channel.write(ByteBuffer.allocate(1), HEADER_BYTES + gridBytes(dimensionX, dimensionY) - 1);
+            }
+            return new MappedObstacleIndex(dimensionX, dimensionY, channel, !reusable);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open occupancy file " + file, e);
+        }
+    }
+
+    private static boolean hasHeader(Path file, int dimensionX, int dimensionY, long generation) throws IOException {
+        if (Files.size(file) != HEADER_BYTES + gridBytes(dimensionX, dimensionY)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(buffer, 0);
+            return buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION
+                    && buffer.getInt(8) == dimensionX && buffer.getInt(12) == dimensionY
+                    && buffer.getLong(GENERATION_OFFSET) == generation;
+        }
+    }
+
+    private static long gridBytes(int dimensionX, int dimensionY) {
+        return ((long) dimensionX * dimensionY + 7) >>> 3;
+    }
+
+    /**
+     * Tells whether the file was (re)created by {@link #open(Path, int, int, long)} and therefore still has to be filled.
+     *
+     * @return true if the grid started empty.
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    /**
+     * Gets the obstacle generation the file is stamped with.
+     *
+     * @return The generation, or -1 while a created file has not been filled and stamped yet.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stamps the file with the obstacle generation its grid is now up to date with.
+     * The stamp is written to the file with the grid on the next {@link #force()}.
+     *
+     * @param generation The obstacle generation of the map.
+     */
+    public synchronized void setGeneration(long generation) {
+        this.generation = generation;
+        header.putLong(GENERATION_OFFSET, generation);
+    }
+
+    /**
+     * Gets the number of occupied cells recorded in the file.
+     *
+     * @return The number of occupied cells.
+     */
+    public long getObstacleCount() {
+        return obstacleCount;
+    }
+
+    @Override
+    public boolean isOccupied(int x, int y) {
+        if (x < 1 || x > dimensionX || y < 1 || y > dimensionY) {
+            return false;
+        }
+        long bit = bit(x, y);
+        long byteIndex = bit >>> 3;
+        byte value = segments[(int) (byteIndex >>> SEGMENT_SHIFT)].get((int) (byteIndex & (SEGMENT_BYTES - 1)));
+        return (value & (1 << (bit & 7))) != 0;
+    }
+
+    @Override
+    public Obstacle getObstacle(int x, int y) {
+        return isOccupied(x, y) ? new Obstacle(x, y) : null;
+    }
+
+    @Override
+    public synchronized void add(Obstacle obstacle) {
+        set(obstacle.getX(), obstacle.getY(), true);
+    }
+
+    @Override
+    public synchronized void remove(Obstacle obstacle) {
+        set(obstacle.getX(), obstacle.getY(), false);
+    }
+
+    @Override
+    public ObstacleIndexType getType() {
+        return ObstacleIndexType.MAPPED;
+    }
+
+    /**
+     * Flushes pending changes of the grid to the file.
+     */
+    public synchronized void force() {
+        // The grid goes first, so a crash never leaves a file stamped with a generation its grid does not have.
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void set(int x, int y, boolean occupied) {
+        if (x < 1 || x > dimensionX || y < 1 || y > dimensionY) {
+            return;
+        }
+        long bit = bit(x, y);
+        long byteIndex = bit >>> 3;
+        MappedByteBuffer segment = segments[(int) (byteIndex >>> SEGMENT_SHIFT)];
+        int offset = (int) (byteIndex & (SEGMENT_BYTES - 1));
+        int mask = 1 << (bit & 7);
+        byte value = segment.get(offset);
+        boolean wasOccupied = (value & mask) != 0;
+        if (wasOccupied == occupied) {
+            return;
+        }
+        segment.put(offset, (byte) (occupied ? value | mask : value & ~mask));
+        obstacleCount += occupied ? 1 : -1;
+        header.putLong(COUNT_OFFSET, obstacleCount);
+    }
+
+    private long bit(int x, int y) {
+        return (long) (y - 1) * dimensionX + (x - 1);
+    }
+}
@@ -0,0 +1,115 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Branch-light movement rules for one map size.
+ * Headings are encoded as 0..3 (N, E, S, W) so turning and reversing are plain arithmetic, and the values derived
+ * from the map dimensions are computed once per map instead of on every step.
+ * The rules match {@link Rover#onNorthPole()}, {@link Rover#onSouthPole()} and the meridian checks of {@link Rover}.
+ */
+final class MovementKernel {
+
+    static final int NORTH = 0;
+    static final int EAST = 1;
+    static final int SOUTH = 2;
+    static final int WEST = 3;
+
+    /**
+     * Returned by {@link #move(int, int, int, boolean)} when the rover cannot cross a pole from its column.
+     */
+    static final long NO_MOVE = -1L;
+
+    private static final char[] ORIENTATIONS = {Rover.NORTH, Rover.EAST, Rover.SOUTH, Rover.WEST};
+
+    private final int dimensionX;
+    private final int dimensionY;
+    private final int poleShift;
+    private final int meridian;
+
+    MovementKernel(int dimensionX, int dimensionY) {
+        this.dimensionX = dimensionX;
+        this.dimensionY = dimensionY;
+        this.poleShift = dimensionX / 2;
+        this.meridian = dimensionY / 2;
+    }
+
+    /**
+     * Computes the state reached by one step, without checking obstacles.
+     *
+     * @param x       The current x coordinate.
+     * @param y       The current y coordinate.
+     * @param heading The current heading (0..3).
+     * @param forward true to move forward, false to move backward.
+     * @return The packed next state, or NO_MOVE if the step does nothing.
+     */
+    long move(int x, int y, int heading, boolean forward) {
+        int direction = forward ? heading : heading ^ 2;
+        if ((direction & 1) != 0) {
+            if (direction == EAST) {
+                return state(x == dimensionX ? 1 : x + 1, y, heading);
+            }
+            return state(x == 1 ? dimensionX : x - 1, y, heading);
+        }
+        boolean atPole = direction == NORTH ? y == 1 : y == dimensionY;
+        if (!atPole) {
+            return state(x, direction == NORTH ? y - 1 : y + 1, heading);
+        }
+        // Crossing a pole moves the rover to the opposite column and reverses its heading.
+        if (x >= 1 && x <= meridian) {
+            return state(x + poleShift, y, heading ^ 2);
+        }
+        if (x > meridian && x <= dimensionY) {
+            return state(x - poleShift, y, heading ^ 2);
+        }
+        return NO_MOVE;
+    }
+
+    int dimensionX() {
+        return dimensionX;
+    }
+
+    int dimensionY() {
+        return dimensionY;
+    }
+
+    boolean isInside(int x, int y) {
+        return x >= 1 && x <= dimensionX && y >= 1 && y <= dimensionY;
+    }
+
+    static int turnLeft(int heading, int times) {
+        return (heading - times) & 3;
+    }
+
+    static int turnRight(int heading, int times) {
+        return (heading + times) & 3;
+    }
+
+    static int headingOf(char orientation) {
+        return switch (orientation) {
+            case Rover.NORTH -> NORTH;
+            case Rover.EAST -> EAST;
+            case Rover.SOUTH -> SOUTH;
+            case Rover.WEST -> WEST;
+            default -> -1;
+        };
+    }
+
+    static char orientationOf(int heading) {
+        return ORIENTATIONS[heading];
+    }
+
+    static long state(int x, int y, int heading) {
+        return ((long) x << 32) | ((long) y << 2) | heading;
+    }
+
+    static int x(long state) {
+        return (int) (state >> 32);
+    }
+
+    static int y(long state) {
+        return (int) ((state & 0xFFFFFFFFL) >>> 2);
+    }
+
+    static int heading(long state) {
+        return (int) (state & 3);
+    }
+}
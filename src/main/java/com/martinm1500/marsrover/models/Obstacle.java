@@ -11,9 +11,20 @@ import java.util.Objects;
 @Getter
 @Setter
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_obstacle_map_cell", columnNames = {"map_id", "x", "y"}),
+        // Serves the obstacles of a map in ID order, for keyset pagination.
+        indexes = @Index(name = "idx_obstacle_map_id", columnList = "map_id, id"))
 public class Obstacle {
+
+    /**
+     * IDs reserved from the sequence at a time. Unlike IDENTITY, a sequence lets Hibernate know the IDs before the
+     * inserts run, so the inserts of a transaction are sent in JDBC batches.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "obstacle_seq")
+    @SequenceGenerator(name = "obstacle_seq", sequenceName = "obstacle_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @JsonIgnore
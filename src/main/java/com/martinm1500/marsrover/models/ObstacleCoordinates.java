@@ -0,0 +1,144 @@
+package com.martinm1500.marsrover.models;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The coordinates of obstacles to import, stored as pairs in one growing int array: 8 bytes per obstacle,
+ * with no object per obstacle.
+ * Readers parse the supported import formats in one pass, without holding the whole body in memory.
+ */
+public final class ObstacleCoordinates {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private int[] pairs = new int[256];
+    private int size;
+
+    public void add(int x, int y) {
+        if (size * 2 == pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[size * 2] = x;
+        pairs[size * 2 + 1] = y;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int index) {
+        return pairs[index * 2];
+    }
+
+    public int getY(int index) {
+        return pairs[index * 2 + 1];
+    }
+
+    /**
+     * Reads one "x,y" pair per line. Blank lines and a first line "x,y" naming the columns are skipped.
+     *
+     * @throws InvalidCoordinatesException If a line is not a pair of integers.
+     */
+    public static ObstacleCoordinates readCsv(InputStream input) throws IOException {
+        ObstacleCoordinates coordinates = new ObstacleCoordinates();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII), BUFFER_SIZE);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || (lineNumber == 1 && line.replace(" ", "").equalsIgnoreCase("x,y"))) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            try {
+                if (comma < 0) {
+                    throw new NumberFormatException();
+                }
+                coordinates.add(Integer.parseInt(line.substring(0, comma).trim()),
+                        Integer.parseInt(line.substring(comma + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new InvalidCoordinatesException("Line " + lineNumber + " is not a pair of coordinates: " + line);
+            }
+        }
+        return coordinates;
+    }
+
+    /**
+     * Reads a JSON array of objects holding the integer fields "x" and "y", like the obstacles listed by the API.
+     * The array is parsed token by token, so no object is built per obstacle.
+     *
+     * @throws InvalidCoordinatesException If the body is not such an array.
+     */
+    public static ObstacleCoordinates readJson(InputStream input) throws IOException {
+        ObstacleCoordinates coordinates = new ObstacleCoordinates();
+        try (JsonParser parser = JSON_FACTORY.createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new InvalidCoordinatesException("The obstacles must be a JSON array");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Integer x = null;
+                Integer y = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (value != JsonToken.VALUE_NUMBER_INT) {
+                        parser.skipChildren();
+                    } else if (field.equals("x")) {
+                        x = parser.getIntValue();
+                    } else if (field.equals("y")) {
+                        y = parser.getIntValue();
+                    }
+                }
+                if (x == null || y == null) {
+                    throw new InvalidCoordinatesException("Obstacle " + (coordinates.size() + 1)
+                            + " does not have integer coordinates x and y");
+                }
+                coordinates.add(x, y);
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new InvalidCoordinatesException("The obstacles must be a JSON array of objects");
+            }
+        } catch (JsonParseException e) {
+            throw new InvalidCoordinatesException("The obstacles are not valid JSON: " + e.getOriginalMessage());
+        }
+        return coordinates;
+    }
+
+    /**
+     * Reads 8-byte records: x then y, as big-endian ints.
+     *
+     * @throws InvalidCoordinatesException If the stream ends in the middle of a record.
+     */
+    public static ObstacleCoordinates readBinary(InputStream input) throws IOException {
+        ObstacleCoordinates coordinates = new ObstacleCoordinates();
+        DataInputStream data = new DataInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+        int first;
+        while ((first = data.read()) >= 0) {
+            // The first byte is read on its own to tell the end of the stream apart from a partial record.
+            try {
+                int x = (first << 24) | (data.readUnsignedByte() << 16) | (data.readUnsignedShort());
+                coordinates.add(x, data.readInt());
+            } catch (EOFException e) {
+                throw new InvalidCoordinatesException("The stream ends in the middle of obstacle " + (coordinates.size() + 1));
+            }
+        }
+        return coordinates;
+    }
+}
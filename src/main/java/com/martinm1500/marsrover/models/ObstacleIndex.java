@@ -0,0 +1,47 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Lookup structure answering "is there an obstacle at (x, y)?" without scanning the obstacle list.
+ * Implementations are kept in sync by {@link Map#addObstacle(Obstacle)} and {@link Map#removeObstacle(Obstacle)}.
+ */
+public interface ObstacleIndex {
+
+    /**
+     * Checks if a cell of the map is occupied by an obstacle.
+     *
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return true if there is an obstacle at the cell, otherwise false.
+     */
+    boolean isOccupied(int x, int y);
+
+    /**
+     * Gets the obstacle located at a cell of the map.
+     *
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     * @return The obstacle at the cell, or null if the cell is free.
+     */
+    Obstacle getObstacle(int x, int y);
+
+    /**
+     * Registers an obstacle in the index. If the cell is already occupied, the existing obstacle is kept.
+     *
+     * @param obstacle The obstacle to register.
+     */
+    void add(Obstacle obstacle);
+
+    /**
+     * Removes an obstacle from the index. Nothing happens if a different obstacle is registered at its cell.
+     *
+     * @param obstacle The obstacle to remove.
+     */
+    void remove(Obstacle obstacle);
+
+    /**
+     * Gets the storage backend of the index.
+     *
+     * @return The type of the index.
+     */
+    ObstacleIndexType getType();
+}
@@ -0,0 +1,19 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Storage backends available for the obstacle index of a map.
+ */
+public enum ObstacleIndexType {
+    /**
+     * One bit per cell of the map. Used when obstacles are dense enough for the bitset to pay off.
+     */
+    DENSE,
+    /**
+     * Hash set of packed obstacle coordinates. Used for large maps with few obstacles.
+     */
+    SPARSE,
+    /**
+     * One bit per cell in a memory-mapped file outside the heap. Attached to very large maps by the occupancy store.
+     */
+    MAPPED
+}
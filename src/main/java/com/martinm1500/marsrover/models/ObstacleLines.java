@@ -0,0 +1,120 @@
+package com.martinm1500.marsrover.models;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Obstacle coordinates grouped by row and by column, each line kept as a sorted array.
+ * Finding the first obstacle ahead of the rover on a row or a column is a binary search,
+ * so a long straight move costs O(log n) instead of one occupancy check per cell.
+ * Only obstacles inside the map are kept, like in the dense occupancy index.
+ */
+final class ObstacleLines {
+
+    /**
+     * Returned by the searches when there is no obstacle on that side of the line. Coordinates start at 1.
+     */
+    static final int NONE = 0;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final HashMap<Integer, int[]> rows;
+    private final HashMap<Integer, int[]> columns;
+
+    ObstacleLines(Iterable<Obstacle> obstacles, int dimensionX, int dimensionY) {
+        long[] rowKeys = new long[16];
+        long[] columnKeys = new long[16];
+        int count = 0;
+        for (Obstacle obstacle : obstacles) {
+            int x = obstacle.getX();
+            int y = obstacle.getY();
+            if (x < 1 || x > dimensionX || y < 1 || y > dimensionY) {
+                continue;
+            }
+            if (count == rowKeys.length) {
+                rowKeys = Arrays.copyOf(rowKeys, count * 2);
+                columnKeys = Arrays.copyOf(columnKeys, count * 2);
+            }
+            rowKeys[count] = ((long) y << 32) | x;
+            columnKeys[count] = ((long) x << 32) | y;
+            count++;
+        }
+        this.rows = group(rowKeys, count);
+        this.columns = group(columnKeys, count);
+    }
+
+    /**
+     * Sorts packed (line, position) keys and splits them into one sorted position array per line.
+     */
+    private static HashMap<Integer, int[]> group(long[] keys, int count) {
+        Arrays.sort(keys, 0, count);
+        HashMap<Integer, int[]> lines = new HashMap<>();
+        int start = 0;
+        while (start < count) {
+            int line = (int) (keys[start] >>> 32);
+            int end = start + 1;
+            while (end < count && (int) (keys[end] >>> 32) == line) {
+                end++;
+            }
+            int[] positions = new int[end - start];
+            for (int i = start; i < end; i++) {
+                positions[i - start] = (int) keys[i];
+            }
+            lines.put(line, positions);
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the sorted x coordinates of the obstacles on a row.
+     */
+    int[] row(int y) {
+        return rows.getOrDefault(y, EMPTY);
+    }
+
+    /**
+     * Gets the sorted y coordinates of the obstacles on a column.
+     */
+    int[] column(int x) {
+        return columns.getOrDefault(x, EMPTY);
+    }
+
+    /**
+     * Finds the smallest coordinate of a line greater than a value.
+     *
+     * @return The coordinate, or NONE if there is none.
+     */
+    static int nextAbove(int[] line, int value) {
+        int low = 0;
+        int high = line.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (line[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < line.length ? line[low] : NONE;
+    }
+
+    /**
+     * Finds the greatest coordinate of a line smaller than a value.
+     *
+     * @return The coordinate, or NONE if there is none.
+     */
+    static int nextBelow(int[] line, int value) {
+        int low = 0;
+        int high = line.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (line[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low > 0 ? line[low - 1] : NONE;
+    }
+}
@@ -0,0 +1,126 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Open-addressing hash table from a packed cell key to the obstacle placed on that cell.
+ * Keys are stored in a primitive array, so lookups do not box coordinates.
+ */
+final class ObstacleTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Obstacle[] values;
+    private int size;
+    private int mask;
+
+    ObstacleTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Obstacle[capacity];
+        mask = capacity - 1;
+    }
+
+    static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Obstacle get(long key) {
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Stores the obstacle under the key unless the key is already present.
+     *
+     * @return true if the obstacle was stored.
+     */
+    boolean putIfAbsent(long key, Obstacle obstacle) {
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = obstacle;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry for the key if it currently maps to the given obstacle.
+     *
+     * @return true if the entry was removed.
+     */
+    boolean remove(long key, Obstacle obstacle) {
+        int slot = slot(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                if (values[slot] != obstacle) {
+                    return false;
+                }
+                deleteSlot(slot);
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private void deleteSlot(int slot) {
+        // Backward-shift deletion keeps probe chains intact without tombstones.
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = 0L;
+        values[gap] = null;
+        size--;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Obstacle[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new Obstacle[oldValues.length << 1];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                putIfAbsent(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,86 @@
+package com.martinm1500.marsrover.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Spatial index that partitions the obstacles of a map into square tiles.
+ * A region query only visits the tiles overlapping the region, so its cost depends on the size of the region
+ * and the number of matches instead of on the total number of obstacles.
+ */
+final class ObstacleTiles {
+
+    static final int TILE_SHIFT = 6;
+
+    private final HashMap<Long, List<Obstacle>> tiles = new HashMap<>();
+
+    ObstacleTiles(Iterable<Obstacle> obstacles) {
+        for (Obstacle obstacle : obstacles) {
+            add(obstacle);
+        }
+    }
+
+    void add(Obstacle obstacle) {
+        tiles.computeIfAbsent(tileOf(obstacle), key -> new ArrayList<>()).add(obstacle);
+    }
+
+    void remove(Obstacle obstacle) {
+        long key = tileOf(obstacle);
+        List<Obstacle> tile = tiles.get(key);
+        if (tile == null) {
+            return;
+        }
+        for (int i = 0; i < tile.size(); i++) {
+            if (tile.get(i) == obstacle) {
+                tile.remove(i);
+                break;
+            }
+        }
+        if (tile.isEmpty()) {
+            tiles.remove(key);
+        }
+    }
+
+    /**
+     * Collects the obstacles inside a rectangle, bounds included.
+     */
+    List<Obstacle> findInRegion(int x1, int y1, int x2, int y2) {
+        List<Obstacle> found = new ArrayList<>();
+        int tileX1 = (x1 - 1) >> TILE_SHIFT;
+        int tileY1 = (y1 - 1) >> TILE_SHIFT;
+        int tileX2 = (x2 - 1) >> TILE_SHIFT;
+        int tileY2 = (y2 - 1) >> TILE_SHIFT;
+        long regionTiles = ((long) tileX2 - tileX1 + 1) * ((long) tileY2 - tileY1 + 1);
+        if (regionTiles > tiles.size()) {
+            // The region spans more tiles than there are occupied ones: walk the occupied tiles instead.
+            for (List<Obstacle> tile : tiles.values()) {
+                collect(tile, x1, y1, x2, y2, found);
+            }
+            return found;
+        }
+        for (int tileY = tileY1; tileY <= tileY2; tileY++) {
+            for (int tileX = tileX1; tileX <= tileX2; tileX++) {
+                List<Obstacle> tile = tiles.get(ObstacleTable.key(tileX, tileY));
+                if (tile != null) {
+                    collect(tile, x1, y1, x2, y2, found);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void collect(List<Obstacle> tile, int x1, int y1, int x2, int y2, List<Obstacle> found) {
+        for (Obstacle obstacle : tile) {
+            int x = obstacle.getX();
+            int y = obstacle.getY();
+            if (x >= x1 && x <= x2 && y >= y1 && y <= y2) {
+                found.add(obstacle);
+            }
+        }
+    }
+
+    private static long tileOf(Obstacle obstacle) {
+        return ObstacleTable.key((obstacle.getX() - 1) >> TILE_SHIFT, (obstacle.getY() - 1) >> TILE_SHIFT);
+    }
+}
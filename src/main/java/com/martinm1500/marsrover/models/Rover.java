@@ -2,12 +2,14 @@ package com.martinm1500.marsrover.models;
 
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.martinm1500.marsrover.exceptions.InvalidCommandException;
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -19,14 +21,43 @@ public class Rover extends RoverControl implements Geolocation{
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    /**
+     * Incremented on every update, so that concurrent updates of the same rover are detected instead of lost.
+     */
     @JsonIgnore
-    @OneToOne
+    @Version
+    private long version;
+
+    @JsonIgnore
+    @ManyToOne
     @JoinColumn(name = "map_id")
     private Map map;
 
     @Transient
     private Obstacle reportedObstacle;
 
+    @Transient
+    private long executedCommands;
+
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private long unexecutedMoves;
+
+    @JsonIgnore
+    @Transient
+    private StepListener stepListener;
+
+    /**
+     * The positions of the rovers sharing the map, for a rover executing against a snapshot.
+     * Other rovers use the positions of their map.
+     */
+    @JsonIgnore
+    @Transient
+    @Getter(AccessLevel.NONE)
+    private RoverPositions roverPositions;
+
     @NotNull
     private int x;
     @NotNull
@@ -44,6 +75,11 @@ public class Rover extends RoverControl implements Geolocation{
     public static final char TURN_LEFT = 'l';
     public static final char TURN_RIGHT = 'r';
 
+    /**
+     * Move runs up to this length are stepped cell by cell; longer ones jump along rows and columns.
+     */
+    static final int STEPPED_RUN_LENGTH = 8;
+
     public Rover(int x, int y, char orientation) {
         this.x = x;
         this.y = y;
@@ -54,172 +90,309 @@ public class Rover extends RoverControl implements Geolocation{
 
     @Override
     public Obstacle executeCommands(List<Character> commands){
-        for(Character command : commands){
-            if(!isValidCommand(command)){
-                throw new InvalidCommandException("Invalid command: " + command);
-            }
-            switch (command){
-                case MOVE_FORDWARD -> moveForward();
-                case MOVE_BACKWARD -> moveBackward();
-                case TURN_RIGHT -> turnRight();
-                case TURN_LEFT -> turnLeft();
+        return executeProgram(CommandProgram.of(commands));
+    }
+
+    @Override
+    public Obstacle executeProgram(CommandProgram program){
+        reportedObstacle = null;
+        executedCommands = 0;
+        int heading = MovementKernel.headingOf(orientation);
+        if(heading < 0){
+            // Rovers with an unknown orientation cannot move or turn.
+            return null;
+        }
+        MovementKernel kernel = map.getMovementKernel();
+        long start = MovementKernel.state(x, y, heading);
+        notifyStep(start);
+        long state = runOnce(kernel, program, start);
+        long remaining = program.repetitions() - 1L;
+        // Brent's cycle detection over the states at the start of each repetition: once a state comes back,
+        // every following repetition repeats the same loop, so whole loops are skipped. Obstacles cannot appear
+        // during a run, so the loop found is free of obstacles and skipping it is exact.
+        // A traced rover has to report every step, so it runs all repetitions.
+        long tortoise = start;
+        long power = 1;
+        long loopLength = 1;
+        boolean loopFound = stepListener != null;
+        while(remaining > 0 && reportedObstacle == null){
+            if(!loopFound){
+                if(state == tortoise){
+                    loopFound = true;
+                    executedCommands += (remaining - remaining % loopLength) * program.length();
+                    remaining %= loopLength;
+                    continue;
+                }
+                if(power == loopLength){
+                    tortoise = state;
+                    power <<= 1;
+                    loopLength = 0;
+                }
+                loopLength++;
             }
+            state = runOnce(kernel, program, state);
+            remaining--;
         }
+        moveTo(state);
         return reportedObstacle;
     }
 
     @Override
-    protected void moveForward() {
-        int mapDimensionX = map.getDimensionX();
-        switch (orientation) {
-            case NORTH -> {
-                if (onNorthPole()) {
-                    if (onMeridianLeftSide()) {
-                        if(reportObstacle(x + mapDimensionX/2,y)){
-                            break;
-                        }
-                        x += mapDimensionX / 2;
-                        orientation = SOUTH;
-                    } else if (onMeridianRightSide()) {
-                        if(reportObstacle(x - mapDimensionX/2,y)){
-                            break;
-                        }
-                        x -= mapDimensionX / 2;
-                        orientation = SOUTH;
-                    }
-                } else {
-                    if(reportObstacle(x,y-1)){
-                        break;
-                    }
-                    y--;
-                }
-            }
-            case SOUTH -> {
-                if (onSouthPole()) {
-                    if (onMeridianLeftSide()) {
-                        if(reportObstacle(x + mapDimensionX/2,y)){
-                            break;
-                        }
-                        x += mapDimensionX / 2;
-                        orientation = NORTH;
-                    } else if (onMeridianRightSide()) {
-                        if(reportObstacle(x - mapDimensionX/2,y)){
-                            break;
-                        }
-                        x -= mapDimensionX / 2;
-                        orientation = NORTH;
-                    }
-                } else {
-                    if(reportObstacle(x,y+1)){
+    public Obstacle executeStream(CommandStream commands) throws IOException{
+        reportedObstacle = null;
+        executedCommands = 0;
+        int heading = MovementKernel.headingOf(orientation);
+        if(heading < 0){
+            return null;
+        }
+        MovementKernel kernel = map.getMovementKernel();
+        long state = MovementKernel.state(x, y, heading);
+        notifyStep(state);
+        // The position is only written back once the whole stream is valid, like for a compiled program.
+        while(reportedObstacle == null && commands.next()){
+            state = executeRun(kernel, state, commands.opcode(), commands.repeat());
+        }
+        moveTo(state);
+        return reportedObstacle;
+    }
+
+    /**
+     * Writes a packed state back to the rover and updates the cell it occupies among the rovers of the map.
+     */
+    private void moveTo(long state){
+        placeAt(MovementKernel.x(state), MovementKernel.y(state), MovementKernel.orientationOf(MovementKernel.heading(state)));
+    }
+
+    /**
+     * Places the rover on a cell of its map, keeping the positions of the rovers of the map up to date.
+     *
+     * @param x           The new x coordinate.
+     * @param y           The new y coordinate.
+     * @param orientation The new orientation.
+     */
+    public void placeAt(int x, int y, char orientation){
+        int previousX = this.x;
+        int previousY = this.y;
+        this.x = x;
+        this.y = y;
+        this.orientation = orientation;
+        RoverPositions positions = roverPositions();
+        if(positions != null && (x != previousX || y != previousY)){
+            positions.move(this, previousX, previousY);
+        }
+    }
+
+    private RoverPositions roverPositions(){
+        return roverPositions != null ? roverPositions : map.getRoverPositions();
+    }
+
+    /**
+     * Runs the runs of a program once from a packed state. Stops at the first obstacle, which is reported,
+     * and returns the packed state reached.
+     */
+    private long runOnce(MovementKernel kernel, CommandProgram program, long state){
+        for(int run = 0; run < program.runCount() && reportedObstacle == null; run++){
+            state = executeRun(kernel, state, program.opcodeOfRun(run), program.repeatOfRun(run));
+        }
+        return state;
+    }
+
+    /**
+     * Executes one run of identical commands from a packed state and counts the commands executed.
+     * A move blocked by an obstacle and the moves after it in the run are not counted.
+     */
+    private long executeRun(MovementKernel kernel, long state, byte opcode, int repeat){
+        if(stepListener != null){
+            return traceRun(kernel, state, opcode, repeat);
+        }
+        if(opcode == CommandProgram.TURN_LEFT){
+            state = MovementKernel.state(MovementKernel.x(state), MovementKernel.y(state),
+                    MovementKernel.turnLeft(MovementKernel.heading(state), repeat));
+        }else if(opcode == CommandProgram.TURN_RIGHT){
+            state = MovementKernel.state(MovementKernel.x(state), MovementKernel.y(state),
+                    MovementKernel.turnRight(MovementKernel.heading(state), repeat));
+        }else{
+            boolean forward = opcode == CommandProgram.MOVE_FORWARD;
+            unexecutedMoves = 0;
+            state = repeat <= STEPPED_RUN_LENGTH
+                    ? stepRun(kernel, state, forward, repeat)
+                    : jumpRun(kernel, jumpLines(), state, forward, repeat);
+            executedCommands -= unexecutedMoves;
+        }
+        executedCommands += repeat;
+        return state;
+    }
+
+    /**
+     * Returns the row and column index used to jump, or null to step. The index only holds obstacles,
+     * so a rover sharing its map with other rovers steps and checks every cell for them.
+     */
+    private ObstacleLines jumpLines(){
+        RoverPositions positions = roverPositions();
+        return positions != null && positions.hasOtherThan(this) ? null : map.getObstacleLines();
+    }
+
+    /**
+     * Executes one run of identical commands one command at a time, reporting the state reached after each of them
+     * to the step listener. A move blocked by an obstacle is not reported.
+     */
+    private long traceRun(MovementKernel kernel, long state, byte opcode, int repeat){
+        for(int i = 0; i < repeat; i++){
+            int heading = MovementKernel.heading(state);
+            if(opcode == CommandProgram.TURN_LEFT){
+                state = MovementKernel.state(MovementKernel.x(state), MovementKernel.y(state), MovementKernel.turnLeft(heading, 1));
+            }else if(opcode == CommandProgram.TURN_RIGHT){
+                state = MovementKernel.state(MovementKernel.x(state), MovementKernel.y(state), MovementKernel.turnRight(heading, 1));
+            }else{
+                long next = kernel.move(MovementKernel.x(state), MovementKernel.y(state), heading, opcode == CommandProgram.MOVE_FORWARD);
+                if(next != MovementKernel.NO_MOVE){
+                    if(reportObstacle(MovementKernel.x(next), MovementKernel.y(next))){
                         break;
                     }
-                    y++;
+                    state = next;
                 }
             }
-            case EAST -> {
-                if (x == map.getDimensionX()) {
-                    if(reportObstacle(1,y)){
-                        break;
-                    }
-                    x = 1;
-                } else {
-                    if(reportObstacle(x+1,y)){
-                        break;
-                    }
-                    x++;
-                }
+            executedCommands++;
+            notifyStep(state);
+        }
+        return state;
+    }
+
+    private void notifyStep(long state){
+        if(stepListener != null){
+            stepListener.onStep(MovementKernel.x(state), MovementKernel.y(state),
+                    MovementKernel.orientationOf(MovementKernel.heading(state)));
+        }
+    }
+
+    /**
+     * Moves the rover one cell at a time, checking the occupancy index on every step.
+     * Stops in front of the first obstacle, which is reported, and returns the packed state reached.
+     */
+    private long stepRun(MovementKernel kernel, long state, boolean forward, long steps){
+        for(; steps > 0; steps--){
+            long next = kernel.move(MovementKernel.x(state), MovementKernel.y(state), MovementKernel.heading(state), forward);
+            if(next == MovementKernel.NO_MOVE){
+                // A rover stuck at a pole stays there for the rest of the run.
+                break;
             }
-            case WEST -> {
-                if (x == 1) {
-                    if(reportObstacle(mapDimensionX,y)){
-                        break;
-                    }
-                    x = mapDimensionX;
-                } else {
-                    if(reportObstacle(x - 1,y)){
-                        break;
-                    }
-                    x--;
-                }
+            if(reportObstacle(MovementKernel.x(next), MovementKernel.y(next))){
+                unexecutedMoves = steps;
+                break;
             }
+            state = next;
         }
+        return state;
     }
 
-    @Override
-    protected void moveBackward() {
-        int mapDimensionX = map.getDimensionX();
-        switch (orientation) {
-            case NORTH -> {
-                if (onSouthPole()) {
-                    if (onMeridianLeftSide()) {
-                        if(reportObstacle(x + mapDimensionX/2,y)){
-                            break;
-                        }
-                        x += mapDimensionX / 2;
-                        orientation = SOUTH;
-                    } else if (onMeridianRightSide()) {
-                        if(reportObstacle(x - mapDimensionX/2,y)){
-                            break;
-                        }
-                        x -= mapDimensionX / 2;
-                        orientation = SOUTH;
-                    }
-                } else {
-                    if(reportObstacle(x,y+1)){
-                        break;
-                    }
-                    y++;
-                }
+    /**
+     * Moves the rover the given number of cells by jumping along rows and columns in closed form.
+     * Each straight segment looks up the first obstacle ahead in the row or column index; only pole crossings are
+     * taken one at a time. Crossings already made during the run reveal a loop free of obstacles, which is skipped.
+     * Falls back to stepping when the map has no row and column index or the rover is outside the map.
+     */
+    private long jumpRun(MovementKernel kernel, ObstacleLines lines, long state, boolean forward, long steps){
+        HashMap<Long, Long> crossings = null;
+        while(steps > 0){
+            int x = MovementKernel.x(state);
+            int y = MovementKernel.y(state);
+            int heading = MovementKernel.heading(state);
+            if(lines == null || !kernel.isInside(x, y)){
+                return stepRun(kernel, state, forward, steps);
             }
-            case SOUTH -> {
-                if (onNorthPole()) {
-                    if (onMeridianLeftSide()) {
-                        if(reportObstacle(x + mapDimensionX/2,y)){
-                            break;
-                        }
-                        x += mapDimensionX / 2;
-                        orientation = NORTH;
-                    } else if (onMeridianRightSide()) {
-                        if(reportObstacle(x - mapDimensionX/2,y)){
-                            break;
-                        }
-                        x -= mapDimensionX / 2;
-                        orientation = NORTH;
-                    }
-                } else {
-                    if(reportObstacle(x,y - 1)){
-                        break;
-                    }
-                    y--;
-                }
+            int direction = forward ? heading : heading ^ 2;
+            if(direction == MovementKernel.EAST || direction == MovementKernel.WEST){
+                return jumpAlongRow(kernel, lines.row(y), x, y, heading, direction, steps);
             }
-            case EAST -> {
-                if (x == 1) {
-                    if(reportObstacle(mapDimensionX,y)){
-                        break;
-                    }
-                    x = mapDimensionX;
-                } else {
-                    if(reportObstacle(x - 1,y)){
-                        break;
-                    }
-                    x--;
-                }
+            int toPole = direction == MovementKernel.NORTH ? y - 1 : kernel.dimensionY() - y;
+            int segment = (int) Math.min(toPole, steps);
+            int[] column = lines.column(x);
+            int blocked = direction == MovementKernel.NORTH ? ObstacleLines.nextBelow(column, y) : ObstacleLines.nextAbove(column, y);
+            if(blocked != ObstacleLines.NONE && Math.abs(blocked - y) <= segment){
+                reportObstacle(x, blocked);
+                unexecutedMoves = steps - (Math.abs(blocked - y) - 1);
+                return MovementKernel.state(x, direction == MovementKernel.NORTH ? blocked + 1 : blocked - 1, heading);
             }
-            case WEST -> {
-                if (x == mapDimensionX) {
-                    if(reportObstacle(1,y)){
-                        break;
-                    }
-                    x = 1;
-                } else {
-                    if(reportObstacle(x+1,y)){
-                        break;
-                    }
-                    x++;
+            y += direction == MovementKernel.NORTH ? -segment : segment;
+            steps -= segment;
+            state = MovementKernel.state(x, y, heading);
+            if(steps == 0){
+                break;
+            }
+            long next = kernel.move(x, y, heading, forward);
+            if(next == MovementKernel.NO_MOVE){
+                break;
+            }
+            if(reportObstacle(MovementKernel.x(next), MovementKernel.y(next))){
+                unexecutedMoves = steps;
+                break;
+            }
+            state = next;
+            steps--;
+            if(crossings == null){
+                crossings = new HashMap<>();
+            }
+            Long stepsLeft = crossings.put(state, steps);
+            if(stepsLeft != null){
+                steps %= stepsLeft - steps;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Moves the rover along a row, which wraps around the map, up to the cell in front of the first obstacle.
+     */
+    private long jumpAlongRow(MovementKernel kernel, int[] row, int x, int y, int heading, int direction, long steps){
+        int dimensionX = kernel.dimensionX();
+        long moved = steps;
+        if(row.length > 0){
+            int blocked;
+            long distance;
+            if(direction == MovementKernel.EAST){
+                blocked = ObstacleLines.nextAbove(row, x);
+                if(blocked == ObstacleLines.NONE){
+                    blocked = row[0];
                 }
+                distance = blocked > x ? blocked - x : blocked + dimensionX - x;
+            }else{
+                blocked = ObstacleLines.nextBelow(row, x);
+                if(blocked == ObstacleLines.NONE){
+                    blocked = row[row.length - 1];
+                }
+                distance = blocked < x ? x - blocked : x + dimensionX - blocked;
+            }
+            if(distance <= steps){
+                reportObstacle(blocked, y);
+                moved = distance - 1;
+                unexecutedMoves = steps - moved;
             }
         }
+        long offset = direction == MovementKernel.EAST ? moved : -moved;
+        int nextX = (int) Math.floorMod(x - 1 + offset, (long) dimensionX) + 1;
+        return MovementKernel.state(nextX, y, heading);
+    }
+
+    @Override
+    protected void moveForward() {
+        move(true);
+    }
+
+    @Override
+    protected void moveBackward() {
+        move(false);
+    }
+
+    private void move(boolean forward) {
+        int heading = MovementKernel.headingOf(orientation);
+        if(heading < 0){
+            return;
+        }
+        long next = map.getMovementKernel().move(x, y, heading, forward);
+        if(next == MovementKernel.NO_MOVE || reportObstacle(MovementKernel.x(next), MovementKernel.y(next))){
+            return;
+        }
+        moveTo(next);
     }
 
     @Override
@@ -282,6 +455,13 @@ public class Rover extends RoverControl implements Geolocation{
             reportedObstacle = map.getObstacle(x,y);
             return true;
         }
+        RoverPositions positions = roverPositions();
+        Rover rover = positions == null ? null : positions.getRover(x, y);
+        if(rover != null && rover != this){
+            // Another rover blocks the cell; it is reported as an obstacle holding only its coordinates.
+            reportedObstacle = new Obstacle(x, y);
+            return true;
+        }
         return false;
     }
 
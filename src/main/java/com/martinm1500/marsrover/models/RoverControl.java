@@ -1,5 +1,6 @@
 package com.martinm1500.marsrover.models;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -38,6 +39,25 @@ public abstract class RoverControl {
      */
     public abstract Obstacle executeCommands(List<Character> commands);
 
+    /**
+     * Executes a compiled program. Commands are already validated, so the rover only dispatches on their opcodes.
+     * Execution halts at the first obstacle, which is returned.
+     *
+     * @param program The program to be executed.
+     * @return The encountered obstacle, or null if the program completes successfully.
+     */
+    public abstract Obstacle executeProgram(CommandProgram program);
+
+    /**
+     * Executes commands as they are read from a stream, keeping only one run of commands in memory.
+     * Reading stops at the first obstacle, which is returned.
+     *
+     * @param commands The stream of commands to be executed.
+     * @return The encountered obstacle, or null if the stream ends without meeting one.
+     * @throws IOException If the stream cannot be read.
+     */
+    public abstract Obstacle executeStream(CommandStream commands) throws IOException;
+
 }
 
 
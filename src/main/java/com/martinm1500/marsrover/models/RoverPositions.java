@@ -0,0 +1,63 @@
+package com.martinm1500.marsrover.models;
+
+import java.util.HashMap;
+
+/**
+ * Index of the cells occupied by the rovers of a map, keyed by packed coordinates like the obstacle indexes.
+ * A rover checks it next to the obstacle index on every move, so meeting another rover costs one lookup.
+ * Rovers update their cell here once an execution ends; other rovers do not move meanwhile.
+ */
+public final class RoverPositions {
+
+    private final HashMap<Long, Rover> rovers = new HashMap<>();
+
+    public RoverPositions(Iterable<Rover> rovers) {
+        for (Rover rover : rovers) {
+            add(rover);
+        }
+    }
+
+    /**
+     * Gets the rover standing on a cell.
+     *
+     * @return The rover, or null if the cell is free.
+     */
+    public Rover getRover(int x, int y) {
+        return rovers.get(ObstacleTable.key(x, y));
+    }
+
+    /**
+     * Tells whether a rover other than the given one is indexed.
+     */
+    public boolean hasOtherThan(Rover rover) {
+        return rovers.size() > 1 || (rovers.size() == 1 && getRover(rover.getX(), rover.getY()) != rover);
+    }
+
+    public void add(Rover rover) {
+        rovers.putIfAbsent(ObstacleTable.key(rover.getX(), rover.getY()), rover);
+    }
+
+    public void remove(Rover rover) {
+        rovers.remove(ObstacleTable.key(rover.getX(), rover.getY()), rover);
+    }
+
+    /**
+     * Puts a rover in place of another one on the cell of the latter, such as a working copy in place of its entity.
+     */
+    public void replace(Rover previous, Rover next) {
+        rovers.replace(ObstacleTable.key(previous.getX(), previous.getY()), previous, next);
+    }
+
+    /**
+     * Moves a rover from the cell it occupied to its current one. A rover that is not indexed stays so.
+     *
+     * @param rover The rover, already at its new position.
+     * @param x     The previous x coordinate of the rover.
+     * @param y     The previous y coordinate of the rover.
+     */
+    public void move(Rover rover, int x, int y) {
+        if (rovers.remove(ObstacleTable.key(x, y), rover)) {
+            add(rover);
+        }
+    }
+}
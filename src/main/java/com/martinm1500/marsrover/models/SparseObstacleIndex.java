@@ -0,0 +1,42 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Obstacle index that only stores the occupied cells, keyed by their packed coordinates.
+ * Memory grows with the number of obstacles instead of with the size of the map.
+ */
+final class SparseObstacleIndex implements ObstacleIndex {
+
+    private final ObstacleTable obstacles;
+
+    SparseObstacleIndex(Iterable<Obstacle> obstacles, int expectedSize) {
+        this.obstacles = new ObstacleTable(expectedSize);
+        for (Obstacle obstacle : obstacles) {
+            add(obstacle);
+        }
+    }
+
+    @Override
+    public boolean isOccupied(int x, int y) {
+        return obstacles.contains(ObstacleTable.key(x, y));
+    }
+
+    @Override
+    public Obstacle getObstacle(int x, int y) {
+        return obstacles.get(ObstacleTable.key(x, y));
+    }
+
+    @Override
+    public void add(Obstacle obstacle) {
+        obstacles.putIfAbsent(ObstacleTable.key(obstacle.getX(), obstacle.getY()), obstacle);
+    }
+
+    @Override
+    public void remove(Obstacle obstacle) {
+        obstacles.remove(ObstacleTable.key(obstacle.getX(), obstacle.getY()), obstacle);
+    }
+
+    @Override
+    public ObstacleIndexType getType() {
+        return ObstacleIndexType.SPARSE;
+    }
+}
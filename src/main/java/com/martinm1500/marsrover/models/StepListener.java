@@ -0,0 +1,19 @@
+package com.martinm1500.marsrover.models;
+
+/**
+ * Receives the states a rover goes through while it executes commands, in order.
+ * A rover with a listener executes its commands one at a time instead of jumping over runs and loops,
+ * so every visited state is reported.
+ */
+@FunctionalInterface
+public interface StepListener {
+
+    /**
+     * Called with the initial state of the rover, then with its state after each executed command.
+     *
+     * @param x           The x coordinate of the rover.
+     * @param y           The y coordinate of the rover.
+     * @param orientation The orientation of the rover.
+     */
+    void onStep(int x, int y, char orientation);
+}
@@ -1,7 +1,44 @@
 package com.martinm1500.marsrover.repositories;
 
 import com.martinm1500.marsrover.models.Map;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface MapRepository extends JpaRepository<Map,Long> {
+
+    List<Map> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    // A fetch size of Integer.MIN_VALUE makes the MySQL driver stream the rows instead of reading them all at once.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    Stream<Map> streamAllByOrderByIdAsc();
+
+    @Query("select m.revision from Map m where m.id = :id")
+    Optional<Long> findRevisionById(@Param("id") Long id);
+
+    @Modifying
+    @Query(value = "UPDATE map SET revision = revision + 1 WHERE id = :id", nativeQuery = true)
+    void incrementRevision(@Param("id") Long id);
+
+    @Query("select m.obstacleGeneration from Map m where m.id = :id")
+    Optional<Long> findObstacleGenerationById(@Param("id") Long id);
+
+    // Obstacle changes also change the map, so its revision is incremented with its obstacle generation.
+    @Modifying
+    @Query(value = "UPDATE map SET revision = revision + 1, obstacle_generation = obstacle_generation + 1 WHERE id = :id", nativeQuery = true)
+    void incrementObstacleGeneration(@Param("id") Long id);
+
+    @Modifying
+    @Query(value = "UPDATE map SET revision = revision + 1 WHERE id IN (:ids)", nativeQuery = true)
+    void incrementRevisions(@Param("ids") Collection<Long> ids);
 }
@@ -1,10 +1,46 @@
 package com.martinm1500.marsrover.repositories;
 
 import com.martinm1500.marsrover.models.Obstacle;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ObstacleRepository extends JpaRepository<Obstacle,Long> {
     List<Obstacle> findByMapId(Long mapId);
+
+    List<Obstacle> findByMapIdIn(Collection<Long> mapIds);
+
+    List<Obstacle> findByMapIdAndIdGreaterThanOrderByIdAsc(Long mapId, Long id, Pageable pageable);
+
+    // A fetch size of Integer.MIN_VALUE makes the MySQL driver stream the rows instead of reading them all at once.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    Stream<Obstacle> streamByMapIdOrderByIdAsc(Long mapId);
+
+    long countByMapId(Long mapId);
+
+    boolean existsByMapIdAndXAndY(Long mapId, int x, int y);
+
+    Optional<Obstacle> findByMapIdAndXAndY(Long mapId, int x, int y);
+
+    List<Obstacle> findByMapIdAndXBetweenAndYBetween(Long mapId, int x1, int x2, int y1, int y2);
+
+    // Bulk deletes bypass the session, so pending changes are flushed first and loaded obstacles are dropped after.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Obstacle o WHERE o.map.id = :mapId AND o.x BETWEEN :x1 AND :x2 AND o.y BETWEEN :y1 AND :y2")
+    int deleteByMapIdInRegion(@Param("mapId") Long mapId, @Param("x1") int x1, @Param("x2") int x2,
+                              @Param("y1") int y1, @Param("y2") int y2);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Obstacle o WHERE o.map.id = :mapId")
+    int deleteAllByMapId(@Param("mapId") Long mapId);
 }
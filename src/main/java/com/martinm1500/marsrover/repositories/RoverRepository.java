@@ -2,6 +2,21 @@ package com.martinm1500.marsrover.repositories;
 
 import com.martinm1500.marsrover.models.Rover;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface RoverRepository extends JpaRepository<Rover,Long> {
+
+    @Query("select r from Rover r join fetch r.map where r.id in :ids")
+    List<Rover> findAllWithMapByIdIn(@Param("ids") Collection<Long> ids);
+
+    List<Rover> findByMapIdIn(Collection<Long> mapIds);
+
+    boolean existsByMapIdAndXAndY(Long mapId, int x, int y);
+
+    Optional<Rover> findByMapIdAndXAndY(Long mapId, int x, int y);
 }
@@ -0,0 +1,507 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Rover;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only binary journal of the command batches executed on rovers, used when {@code rover.journal.enabled}
+ * is set. Each record holds the programs of one execution and the state the rover ended in, so the latest state of
+ * every rover can be recovered, and its history audited, from the files alone, without the database.
+ * <p>
+ * Records are appended with one write to a segment file. Every {@code snapshot-every} records, the latest state of
+ * every journaled rover is written to a snapshot and a new segment starts, so recovery reads the newest valid
+ * snapshot and only replays the segments written after it. Older segments are kept for audits and can be archived
+ * or deleted once a newer snapshot exists.
+ * <p>
+ * A record carries the version of the rover row it was written for, and recovery keeps the record with the
+ * highest version of each rover, so records appended out of order by concurrent transactions resolve like the
+ * database did. A record cut short by a crash is detected by its checksum and dropped.
+ * <p>
+ * Deleting a rover appends a tombstone, with a version above the last one of the rover, so the rover is no longer
+ * recovered. Tombstones are kept in memory and written to every snapshot like any other state, so a record of the
+ * rover with a lower version appended late, after a snapshot, never brings it back.
+ */
+@Component
+public class CommandJournal {
+
+    /**
+     * Records hold their payload length and a CRC32C of the payload, followed by the payload:
+     * roverId (8), version (8), timestamp (8), x (4), y (4), orientation (1), program count (4) and, for each
+     * program, its repetitions (4), its run count (4) and its runs as opcode (1) and repeat count (4).
+     * A tombstone has an orientation of 0 and no program.
+     */
+    static final int RECORD_HEADER_BYTES = 8;
+    static final int MIN_PAYLOAD_BYTES = 37;
+    private static final int SNAPSHOT_MAGIC = 0x52564A53;
+    private static final int SNAPSHOT_ENTRY_BYTES = 25;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int snapshotEvery;
+    private final boolean fsync;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final HashMap<Long, RoverState> states = new HashMap<>();
+    private final CRC32C checksum = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private FileChannel channel;
+    private long segment;
+    private long recordsInSegment;
+
+    @Autowired
+    public CommandJournal(@Value("${rover.journal.enabled:false}") boolean enabled,
+                          @Value("${rover.journal.dir:data/journal}") String directory,
+                          @Value("${rover.journal.snapshot-every:100000}") int snapshotEvery,
+                          @Value("${rover.journal.fsync:false}") boolean fsync) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+        this.fsync = fsync;
+        if (enabled) {
+            open();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the record of an execution, or of any other change of the state of a rover.
+     *
+     * @param rover    The rover, in the state the programs left it, with the version it is written with.
+     * @param programs The programs executed, in order; empty for a change that did not execute commands.
+     * @throws UncheckedIOException If the record cannot be written.
+     */
+    public void append(Rover rover, List<CommandProgram> programs) {
+        if (!enabled) {
+            return;
+        }
+        write(rover.getId(), new RoverState(rover.getX(), rover.getY(), rover.getOrientation(), rover.getVersion()), programs);
+    }
+
+    /**
+     * Appends the tombstone of a deleted rover.
+     *
+     * @param roverId The ID of the deleted rover.
+     * @param version The version the rover had when it was deleted.
+     * @throws UncheckedIOException If the record cannot be written.
+     */
+    public void appendDeletion(Long roverId, long version) {
+        if (!enabled) {
+            return;
+        }
+        write(roverId, RoverState.deleted(version + 1), List.of());
+    }
+
+    /**
+     * Appends the record of a change once the current transaction commits, so only changes that reached the database
+     * are recorded, with the version they got. Outside a transaction the record is appended at once.
+     *
+     * @param append Appends the record.
+     */
+    public void appendAfterCommit(Runnable append) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    append.run();
+                }
+            });
+        } else {
+            append.run();
+        }
+    }
+
+    private void write(Long roverId, RoverState state, List<CommandProgram> programs) {
+        lock.lock();
+        try {
+            encode(roverId, state, System.currentTimeMillis(), programs);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+            apply(states, roverId, state);
+            if (++recordsInSegment >= snapshotEvery) {
+                roll();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to the command journal in " + directory, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the latest journaled state of a rover.
+     *
+     * @param roverId The ID of the rover.
+     * @return The state, or null if the rover was never journaled or was deleted.
+     */
+    public RoverState getState(Long roverId) {
+        lock.lock();
+        try {
+            RoverState state = states.get(roverId);
+            return state == null || state.isDeleted() ? null : state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of rovers with a journaled state, leaving out the deleted ones.
+     */
+    public int getJournaledRovers() {
+        lock.lock();
+        try {
+            int rovers = 0;
+            for (RoverState state : states.values()) {
+                if (!state.isDeleted()) {
+                    rovers++;
+                }
+            }
+            return rovers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.force(true);
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Recovers the latest state of every rover from the files of a journal: the newest valid snapshot, then the
+     * segments written after it.
+     *
+     * @param directory The directory of the journal.
+     * @return The state of each journaled rover not deleted since, by rover ID.
+     * @throws UncheckedIOException If the files cannot be read.
+     */
+    public static Map<Long, RoverState> recover(Path directory) {
+        HashMap<Long, RoverState> states = new Recovery(directory).states;
+        states.values().removeIf(RoverState::isDeleted);
+        return states;
+    }
+
+    /**
+     * Reads every record of the segments of a journal, oldest first, for an audit.
+     *
+     * @param directory The directory of the journal.
+     * @param consumer  The consumer of the records.
+     * @throws UncheckedIOException If the files cannot be read.
+     */
+    public static void read(Path directory, Consumer<JournalRecord> consumer) {
+        try {
+            for (Path file : files(directory, "segment-", ".journal").values()) {
+                readSegment(file, consumer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the command journal in " + directory, e);
+        }
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(directory);
+            Recovery recovery = new Recovery(directory);
+            states.putAll(recovery.states);
+            segment = recovery.lastSegment;
+            recordsInSegment = recovery.recordsInLastSegment;
+            Path file = segmentFile(directory, segment);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drops a record cut short by a crash, so new records follow the last complete one.
+            channel.truncate(recovery.validBytesInLastSegment);
+            channel.position(recovery.validBytesInLastSegment);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the command journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the states, tombstones included, which covers every segment written so far, and starts
+     * a new segment.
+     */
+    private void roll() throws IOException {
+        long nextSegment = segment + 1;
+        writeSnapshot(nextSegment);
+        channel.force(true);
+        channel.close();
+        channel = FileChannel.open(segmentFile(directory, nextSegment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segment = nextSegment;
+        recordsInSegment = 0;
+        for (Map.Entry<Long, Path> snapshot : files(directory, "snapshot-", ".snapshot").entrySet()) {
+            if (snapshot.getKey() < nextSegment) {
+                Files.deleteIfExists(snapshot.getValue());
+            }
+        }
+    }
+
+    private void writeSnapshot(long nextSegment) throws IOException {
+        ByteBuffer snapshot = ByteBuffer.allocate(16 + states.size() * SNAPSHOT_ENTRY_BYTES + 4);
+        snapshot.putInt(SNAPSHOT_MAGIC).putLong(nextSegment).putInt(states.size());
+        for (Map.Entry<Long, RoverState> entry : states.entrySet()) {
+            RoverState state = entry.getValue();
+            snapshot.putLong(entry.getKey()).putInt(state.x()).putInt(state.y())
+                    .put((byte) state.orientation()).putLong(state.version());
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot.array(), 0, snapshot.position());
+        snapshot.putInt((int) crc.getValue());
+        snapshot.flip();
+        Path file = snapshotFile(directory, nextSegment);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel snapshotChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                snapshotChannel.write(snapshot);
+            }
+            snapshotChannel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void encode(Long roverId, RoverState state, long timestamp, List<CommandProgram> programs) {
+        int payload = MIN_PAYLOAD_BYTES;
+        for (CommandProgram program : programs) {
+            payload += 8 + program.runCount() * 5;
+        }
+        if (buffer.capacity() < RECORD_HEADER_BYTES + payload) {
+            buffer = ByteBuffer.allocate(Math.max(RECORD_HEADER_BYTES + payload, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        buffer.putInt(payload).putInt(0);
+        buffer.putLong(roverId).putLong(state.version()).putLong(timestamp)
+                .putInt(state.x()).putInt(state.y()).put((byte) state.orientation()).putInt(programs.size());
+        for (CommandProgram program : programs) {
+            buffer.putInt(program.repetitions()).putInt(program.runCount());
+            for (int run = 0; run < program.runCount(); run++) {
+                buffer.put(program.opcodeOfRun(run)).putInt(program.repeatOfRun(run));
+            }
+        }
+        checksum.reset();
+        checksum.update(buffer.array(), RECORD_HEADER_BYTES, payload);
+        buffer.putInt(4, (int) checksum.getValue());
+        buffer.flip();
+    }
+
+    private static JournalRecord decode(ByteBuffer payload) {
+        long roverId = payload.getLong();
+        long version = payload.getLong();
+        long timestamp = payload.getLong();
+        int x = payload.getInt();
+        int y = payload.getInt();
+        char orientation = (char) payload.get();
+        int programCount = payload.getInt();
+        List<CommandProgram> programs = new ArrayList<>(programCount);
+        for (int i = 0; i < programCount; i++) {
+            int repetitions = payload.getInt();
+            int runCount = payload.getInt();
+            byte[] opcodes = new byte[runCount];
+            int[] repeats = new int[runCount];
+            for (int run = 0; run < runCount; run++) {
+                opcodes[run] = payload.get();
+                repeats[run] = payload.getInt();
+            }
+            programs.add(CommandProgram.ofRuns(opcodes, repeats, repetitions));
+        }
+        return new JournalRecord(roverId, timestamp, programs, new RoverState(x, y, orientation, version));
+    }
+
+    /**
+     * Reads the complete records of a segment, stopping at the first one cut short or corrupted.
+     *
+     * @return The number of bytes of the complete records and their count.
+     */
+    private static long[] readSegment(Path file, Consumer<JournalRecord> consumer) throws IOException {
+        long validBytes = 0;
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            byte[] payload = new byte[256];
+            CRC32C crc = new CRC32C();
+            while (true) {
+                int length;
+                int expectedChecksum;
+                try {
+                    length = in.readInt();
+                    expectedChecksum = in.readInt();
+                    if (length < MIN_PAYLOAD_BYTES) {
+                        break;
+                    }
+                    if (payload.length < length) {
+                        payload = new byte[Math.max(length, payload.length * 2)];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedChecksum) {
+                    break;
+                }
+                consumer.accept(decode(ByteBuffer.wrap(payload, 0, length)));
+                validBytes += RECORD_HEADER_BYTES + length;
+                records++;
+            }
+        }
+        return new long[]{validBytes, records};
+    }
+
+    private static Map<Long, RoverState> readSnapshot(Path file, long segment) throws IOException {
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (snapshot.remaining() < 20 || snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getLong() != segment) {
+            return null;
+        }
+        int count = snapshot.getInt();
+        if (count < 0 || snapshot.capacity() != 16 + (long) count * SNAPSHOT_ENTRY_BYTES + 4) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot.array(), 0, snapshot.capacity() - 4);
+        if ((int) crc.getValue() != snapshot.getInt(snapshot.capacity() - 4)) {
+            return null;
+        }
+        HashMap<Long, RoverState> states = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            long roverId = snapshot.getLong();
+            states.put(roverId, new RoverState(snapshot.getInt(), snapshot.getInt(), (char) snapshot.get(), snapshot.getLong()));
+        }
+        return states;
+    }
+
+    private static void apply(Map<Long, RoverState> states, Long roverId, RoverState state) {
+        RoverState previous = states.get(roverId);
+        if (previous == null || state.version() >= previous.version()) {
+            states.put(roverId, state);
+        }
+    }
+
+    private static TreeMap<Long, Path> files(Path directory, String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+                    } catch (NumberFormatException e) {
+                        // Not a file of the journal.
+                    }
+                }
+            });
+        }
+        return files;
+    }
+
+    private static Path segmentFile(Path directory, long segment) {
+        return directory.resolve(String.format("segment-%010d.journal", segment));
+    }
+
+    private static Path snapshotFile(Path directory, long segment) {
+        return directory.resolve(String.format("snapshot-%010d.snapshot", segment));
+    }
+
+    /**
+     * The state of a rover after an execution, with the version of its row, or the tombstone of a deleted rover.
+     */
+    public record RoverState(int x, int y, char orientation, long version) {
+
+        private static final char DELETED = 0;
+
+        static RoverState deleted(long version) {
+            return new RoverState(0, 0, DELETED, version);
+        }
+
+        public boolean isDeleted() {
+            return orientation == DELETED;
+        }
+    }
+
+    /**
+     * A record of the journal: the programs executed on a rover at a time and the state they left it in.
+     */
+    public record JournalRecord(long roverId, long timestamp, List<CommandProgram> programs, RoverState state) {
+    }
+
+    /**
+     * The states recovered from the files of a journal and the position where appending resumes.
+     */
+    private static final class Recovery {
+        private final HashMap<Long, RoverState> states = new HashMap<>();
+        private long lastSegment;
+        private long validBytesInLastSegment;
+        private long recordsInLastSegment;
+
+        private Recovery(Path directory) {
+            try {
+                TreeMap<Long, Path> snapshots = files(directory, "snapshot-", ".snapshot");
+                long firstSegment = 0;
+                for (Long snapshotSegment : snapshots.descendingKeySet()) {
+                    Map<Long, RoverState> snapshot = readSnapshot(snapshots.get(snapshotSegment), snapshotSegment);
+                    if (snapshot != null) {
+                        states.putAll(snapshot);
+                        firstSegment = snapshotSegment;
+                        break;
+                    }
+                }
+                lastSegment = firstSegment;
+                for (Map.Entry<Long, Path> segment : files(directory, "segment-", ".journal")
+                        .tailMap(firstSegment, true).entrySet()) {
+                    long[] read = readSegment(segment.getValue(), record -> apply(states, record.roverId(), record.state()));
+                    lastSegment = segment.getKey();
+                    validBytesInLastSegment = read[0];
+                    recordsInLastSegment = read[1];
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not recover the command journal in " + directory, e);
+            }
+        }
+    }
+}
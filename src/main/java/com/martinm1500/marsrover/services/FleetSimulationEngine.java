@@ -0,0 +1,77 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Rover;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Executes the programs of many rovers in parallel.
+ * Rovers are partitioned by map ID: the rovers of one map run one after the other on the same worker, and the
+ * partitions run on a ForkJoinPool. The rovers must run against read-only map snapshots, which are safe to share.
+ */
+@Component
+public class FleetSimulationEngine {
+
+    private final ForkJoinPool pool;
+
+    @Autowired
+    public FleetSimulationEngine(@Value("${rover.fleet.parallelism:0}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Executes one program on each rover and waits for all of them. Each rover keeps its final state,
+     * the obstacle it reported and the number of commands it executed.
+     *
+     * @param rovers   The rovers, each on a map snapshot.
+     * @param programs The program of each rover, in the order of the rovers.
+     */
+    public void execute(List<Rover> rovers, List<CommandProgram> programs) {
+        LinkedHashMap<Long, List<Integer>> partitions = new LinkedHashMap<>();
+        for (int i = 0; i < rovers.size(); i++) {
+            partitions.computeIfAbsent(rovers.get(i).getMap().getId(), mapId -> new ArrayList<>()).add(i);
+        }
+        if (partitions.size() <= 1) {
+            for (List<Integer> partition : partitions.values()) {
+                execute(rovers, programs, partition);
+            }
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(partitions.size());
+        for (List<Integer> partition : partitions.values()) {
+            tasks.add(pool.submit(() -> execute(rovers, programs, partition)));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Gets the number of worker threads of the engine.
+     *
+     * @return The parallelism of the pool.
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static void execute(List<Rover> rovers, List<CommandProgram> programs, List<Integer> partition) {
+        for (int index : partition) {
+            rovers.get(index).executeProgram(programs.get(index));
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.InvalidMapDimensionsException;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service interface for managing maps.
@@ -29,18 +30,54 @@ public interface MapService {
     void deleteMap(Long id) throws MapNotFoundException;
 
     /**
-     * Retrieves a map with the specified ID.
+     * Retrieves a map with the specified ID, with its obstacles taken from the cached snapshot of the map.
      *
      * @param id The ID of the map to be retrieved.
-     * @return The retrieved map.
+     * @return A read-only copy of the map holding its obstacles, its rovers with their latest positions, and its revision.
      * @throws MapNotFoundException If the provided ID does not match any existing map.
      */
     Map getMap(Long id) throws MapNotFoundException;
 
+    /**
+     * Retrieves the revision of a map, which changes whenever one of its obstacles or rovers changes,
+     * without loading the map.
+     *
+     * @param id The ID of the map.
+     * @return The current revision of the map.
+     * @throws MapNotFoundException If the provided ID does not match any existing map.
+     */
+    long getMapRevision(Long id) throws MapNotFoundException;
+
+    /**
+     * Retrieves a tag of the rover positions of a map changed in memory by write-behind, which changes before the
+     * positions are written and the revision of the map incremented.
+     *
+     * @param id The ID of the map.
+     * @return The tag, or null when write-behind is disabled.
+     */
+    String getRoverChangeTag(Long id);
+
     /**
      * Retrieves all existing maps.
      *
      * @return List of all maps.
      */
     List<Map> getAllMaps();
+
+    /**
+     * Retrieves a page of the maps, ordered by ID.
+     *
+     * @param afterId The ID the page starts after; 0 for the first page.
+     * @param size    The most maps to return.
+     * @return The maps with an ID greater than afterId, at most size of them.
+     */
+    List<Map> getMapsAfter(long afterId, int size);
+
+    /**
+     * Passes every map, ordered by ID, to an action while they are read from the database.
+     * Each map is detached once the action returns, so memory use does not grow with the number of maps.
+     *
+     * @param action The action run on each map.
+     */
+    void streamAllMaps(Consumer<Map> action);
 }
@@ -3,22 +3,38 @@ package com.martinm1500.marsrover.services;
 import com.martinm1500.marsrover.exceptions.InvalidMapDimensionsException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Rover;
 import com.martinm1500.marsrover.repositories.MapRepository;
+import jakarta.persistence.EntityManager;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class MapServiceImpl implements MapService{
 
     private final MapRepository mapRepository;
+    private final MappedOccupancyStore occupancyStore;
+    private final MapSnapshotCache snapshotCache;
+    private final RoverStateStore stateStore;
+    private final CommandJournal journal;
+    private final EntityManager entityManager;
 
     @Autowired
-    public MapServiceImpl(MapRepository mapRepository) {
+    public MapServiceImpl(MapRepository mapRepository, MappedOccupancyStore occupancyStore, MapSnapshotCache snapshotCache,
+                          RoverStateStore stateStore, CommandJournal journal, EntityManager entityManager) {
         this.mapRepository = mapRepository;
+        this.occupancyStore = occupancyStore;
+        this.snapshotCache = snapshotCache;
+        this.stateStore = stateStore;
+        this.journal = journal;
+        this.entityManager = entityManager;
     }
 
     @Transactional
@@ -36,8 +52,18 @@ public class MapServiceImpl implements MapService{
     @Transactional
     @Override
     public void deleteMap(Long id){
-        if(mapRepository.existsById(id)){
+        Optional<Map> optionalMap = mapRepository.findById(id);
+        if(optionalMap.isPresent()){
+            // The rovers of the map are deleted with it, so each of them gets a tombstone in the journal.
+            List<Rover> rovers = List.copyOf(optionalMap.get().getRovers());
             mapRepository.deleteById(id);
+            occupancyStore.delete(id);
+            snapshotCache.invalidate(id);
+            journal.appendAfterCommit(() -> {
+                for(Rover rover : rovers){
+                    journal.appendDeletion(rover.getId(), rover.getVersion());
+                }
+            });
         }else{
             throw new MapNotFoundException("Could not find map with ID: " + id);
         }
@@ -47,14 +73,53 @@ public class MapServiceImpl implements MapService{
     public Map getMap(Long id){
         Optional<Map> optionalMap = mapRepository.findById(id);
         if(optionalMap.isPresent()){
-            return optionalMap.get();
+            Map map = optionalMap.get();
+            // With write-behind, the latest positions of the rovers may not be written yet.
+            List<Rover> rovers = stateStore.views(map.getRovers());
+            if(occupancyStore.isMapped(map)){
+                // The obstacles of a mapped map are never cached; they are read from the table when serialized.
+                occupancyStore.attach(map);
+                return map.withRovers(rovers, map.getRevision());
+            }
+            return snapshotCache.get(map).withRovers(rovers, map.getRevision());
         }else{
             throw new MapNotFoundException("Could not find map with ID: " + id);
         }
     }
 
+    @Override
+    public long getMapRevision(Long id){
+        Optional<Long> optionalRevision = mapRepository.findRevisionById(id);
+        if(optionalRevision.isPresent()){
+            return optionalRevision.get();
+        }else{
+            throw new MapNotFoundException("Could not find map with ID: " + id);
+        }
+    }
+
+    @Override
+    public String getRoverChangeTag(Long id){
+        return stateStore.getChangeTag(id);
+    }
+
     @Override
     public List<Map> getAllMaps() {
         return mapRepository.findAll();
     }
+
+    @Override
+    public List<Map> getMapsAfter(long afterId, int size) {
+        return mapRepository.findByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, size));
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void streamAllMaps(Consumer<Map> action) {
+        try (Stream<Map> maps = mapRepository.streamAllByOrderByIdAsc()) {
+            maps.forEach(map -> {
+                action.accept(map);
+                entityManager.detach(map);
+            });
+        }
+    }
 }
@@ -0,0 +1,292 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleIndexType;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps read-only snapshots of maps and their obstacles, with every index already built.
+ * Snapshots are shared by all requests that only read a map, so those requests do not load the obstacles again.
+ * Services that change the obstacles of a map must call {@link #invalidate(Long)}.
+ * <p>
+ * The cache is bounded by {@code max-entries} snapshots and by {@code max-bytes}, an estimate of the memory held by
+ * the obstacles and indexes of the snapshots; the least recently used snapshots are evicted first. A snapshot
+ * heavier than the whole budget is returned without being kept.
+ * <p>
+ * The obstacles of a snapshot are loaded in a transaction of their own, reading the latest committed data, so a
+ * snapshot never depends on the read view of the transaction of the caller, which may predate the last change.
+ * <p>
+ * Maps large enough to have a memory-mapped grid are never loaded nor cached: their snapshots answer occupancy from
+ * the grid of the {@link MappedOccupancyStore}.
+ */
+@Component
+public class MapSnapshotCache {
+
+    /**
+     * Estimated bytes held by a snapshot besides its obstacles: the map, its movement rules and empty indexes.
+     */
+    static final long BASE_WEIGHT = 512;
+
+    /**
+     * Estimated bytes held by each obstacle of a snapshot: the entity, its entry in the index and in the tiles,
+     * and its place in the row and column lines.
+     */
+    static final long OBSTACLE_WEIGHT = 96;
+
+    private final ObstacleRepository obstacleRepository;
+    private final MappedOccupancyStore occupancyStore;
+    private final TransactionTemplate loadTransactionTemplate;
+    private final long maxWeight;
+    private final int maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    // In access order, so the first entry is the least recently used one.
+    private final LinkedHashMap<Long, Entry> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    // Number of invalidations of any map; a snapshot loaded while it moved may miss a change, so it is not kept.
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public MapSnapshotCache(ObstacleRepository obstacleRepository, MappedOccupancyStore occupancyStore,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${rover.snapshot-cache.max-bytes:268435456}") long maxWeight,
+                            @Value("${rover.snapshot-cache.max-entries:10000}") int maxEntries) {
+        this.obstacleRepository = obstacleRepository;
+        this.occupancyStore = occupancyStore;
+        this.loadTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.loadTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.loadTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.loadTransactionTemplate.setReadOnly(true);
+        this.maxWeight = maxWeight;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Gets the snapshot of a map, building it from the obstacle table when it is not cached or when the cached one
+     * predates the obstacle generation of the given map, such as between a commit and its invalidation.
+     * A map with a memory-mapped grid gets an uncached snapshot over its grid instead.
+     *
+     * @param map The persisted map.
+     * @return The read-only snapshot of the map.
+     */
+    public Map get(Map map) {
+        if (occupancyStore.isMapped(map)) {
+            return occupancyStore.snapshot(map);
+        }
+        Map snapshot = lookup(map);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        long stamp = invalidations.get();
+        List<Obstacle> obstacles = loadTransactionTemplate.execute(status -> obstacleRepository.findByMapId(map.getId()));
+        return store(map.snapshot(obstacles), stamp);
+    }
+
+    /**
+     * Gets the snapshots of several maps. The obstacles of all the maps without a snapshot are loaded in one query,
+     * leaving out the maps with a memory-mapped grid.
+     *
+     * @param maps The persisted maps.
+     * @return The read-only snapshots, in the order of the maps.
+     */
+    public List<Map> getAll(List<Map> maps) {
+        HashMap<Long, Map> found = new HashMap<>();
+        Set<Long> missing = new LinkedHashSet<>();
+        for (Map map : maps) {
+            if (!found.containsKey(map.getId()) && !missing.contains(map.getId())) {
+                Map snapshot = occupancyStore.isMapped(map) ? occupancyStore.snapshot(map) : lookup(map);
+                if (snapshot != null) {
+                    found.put(map.getId(), snapshot);
+                } else {
+                    missing.add(map.getId());
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = invalidations.get();
+            HashMap<Long, List<Obstacle>> obstaclesByMap = new HashMap<>();
+            for (Obstacle obstacle : loadTransactionTemplate.execute(status -> obstacleRepository.findByMapIdIn(missing))) {
+                obstaclesByMap.computeIfAbsent(obstacle.getMap().getId(), mapId -> new ArrayList<>()).add(obstacle);
+            }
+            for (Map map : maps) {
+                if (missing.remove(map.getId())) {
+                    found.put(map.getId(), store(map.snapshot(obstaclesByMap.getOrDefault(map.getId(), List.of())), stamp));
+                }
+            }
+        }
+        List<Map> snapshots = new ArrayList<>(maps.size());
+        for (Map map : maps) {
+            snapshots.add(found.get(map.getId()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Drops the snapshot of a map. Inside a transaction the snapshot is dropped again once the transaction ends,
+     * and snapshots built from data read before that are not kept.
+     *
+     * @param mapId The ID of the changed map.
+     */
+    public void invalidate(Long mapId) {
+        remove(mapId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(mapId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Estimates the bytes held by a snapshot.
+     *
+     * @param snapshot The snapshot of a map.
+     * @return The estimated weight of the snapshot in bytes.
+     */
+    static long weigh(Map snapshot) {
+        long weight = BASE_WEIGHT + OBSTACLE_WEIGHT * snapshot.getObstacles().size();
+        if (snapshot.getObstacleIndexType() == ObstacleIndexType.DENSE) {
+            // One bit per cell.
+            weight += ((long) snapshot.getDimensionX() * snapshot.getDimensionY() + 7) / 8;
+        }
+        return weight;
+    }
+
+    /**
+     * Gets the number of requests answered with a cached snapshot.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of requests that had to build a snapshot from the obstacle table.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of snapshots evicted to stay within the bounds of the cache.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of cached snapshots.
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return snapshots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the estimated bytes held by the cached snapshots.
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    private Map lookup(Map map) {
+        lock.lock();
+        try {
+            Entry entry = snapshots.get(map.getId());
+            if (entry != null && entry.snapshot().getObstacleGeneration() >= map.getObstacleGeneration()) {
+                hits.incrementAndGet();
+                return entry.snapshot();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Keeps a snapshot loaded after reading the invalidation count, unless a map was invalidated in between.
+     *
+     * @return The cached snapshot of the map, which is the given one unless another request cached one first.
+     */
+    private Map store(Map snapshot, long stamp) {
+        long snapshotWeight = weigh(snapshot);
+        lock.lock();
+        try {
+            Entry existing = snapshots.get(snapshot.getId());
+            if (existing != null && existing.snapshot().getObstacleGeneration() >= snapshot.getObstacleGeneration()) {
+                return existing.snapshot();
+            }
+            if (existing != null) {
+                snapshots.remove(snapshot.getId());
+                weight -= existing.weight();
+            }
+            if (stamp != invalidations.get() || snapshotWeight > maxWeight) {
+                return snapshot;
+            }
+            snapshots.put(snapshot.getId(), new Entry(snapshot, snapshotWeight));
+            weight += snapshotWeight;
+            Iterator<Entry> leastRecentlyUsed = snapshots.values().iterator();
+            while (weight > maxWeight || snapshots.size() > maxEntries) {
+                Entry evicted = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                weight -= evicted.weight();
+                evictions.incrementAndGet();
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Long mapId) {
+        lock.lock();
+        try {
+            invalidations.incrementAndGet();
+            Entry removed = snapshots.remove(mapId);
+            if (removed != null) {
+                weight -= removed.weight();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry(Map snapshot, long weight) {
+    }
+}
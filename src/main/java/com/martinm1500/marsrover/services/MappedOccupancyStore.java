@@ -0,0 +1,253 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.MappedObstacleIndex;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
+import com.martinm1500.marsrover.repositories.MapRepository;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the occupancy grid of very large maps in memory-mapped files under a data directory.
+ * Attached maps answer obstacle checks from the file instead of loading their obstacles through JPA.
+ * A grid is shared by every copy of its map, so it is only changed once the transaction changing the obstacles
+ * commits, and its file is stamped with the obstacle generation of the map it is up to date with.
+ * A grid is built in a transaction of its own reading the latest committed data, never in the read view of the
+ * transaction of the caller, which may predate the last change.
+ */
+@Component
+public class MappedOccupancyStore {
+
+    private final MapRepository mapRepository;
+    private final ObstacleRepository obstacleRepository;
+    private final TransactionTemplate rebuildTransactionTemplate;
+    private final boolean enabled;
+    private final Path dataDirectory;
+    private final long minCells;
+    private final ConcurrentHashMap<Long, MappedObstacleIndex> openIndexes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MappedOccupancyStore(MapRepository mapRepository, ObstacleRepository obstacleRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${rover.occupancy.mapped.enabled:true}") boolean enabled,
+                                @Value("${rover.occupancy.mapped.data-dir:data/occupancy}") String dataDirectory,
+                                @Value("${rover.occupancy.mapped.min-cells:1000000000}") long minCells) {
+        this.mapRepository = mapRepository;
+        this.obstacleRepository = obstacleRepository;
+        this.rebuildTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.rebuildTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.rebuildTransactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        this.rebuildTransactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.dataDirectory = Paths.get(dataDirectory);
+        this.minCells = minCells;
+    }
+
+    /**
+     * Attaches the memory-mapped grid to a map if the map is large enough to need one.
+     * The grid is filled from the obstacle table only when its file is new or stamped with another obstacle generation.
+     *
+     * @param map The persisted map to attach the grid to.
+     */
+    public void attach(Map map) {
+        if (!isMapped(map)) {
+            return;
+        }
+        MappedObstacleIndex index = openIndexes.computeIfAbsent(map.getId(), mapId -> open(mapId, map));
+        map.attachObstacleIndex(index);
+    }
+
+    /**
+     * Builds a read-only snapshot of a map answering occupancy from its memory-mapped grid, so the obstacles of
+     * the map are never loaded on the heap. The grid is shared by all the snapshots of the map.
+     *
+     * @param map The persisted map, which must be large enough to need a grid.
+     * @return The read-only snapshot of the map.
+     */
+    public Map snapshot(Map map) {
+        return map.snapshot(openIndexes.computeIfAbsent(map.getId(), mapId -> open(mapId, map)));
+    }
+
+    /**
+     * Tells whether a map is large enough to have its occupancy answered from a memory-mapped grid.
+     *
+     * @param map The persisted map.
+     * @return true if {@link #attach(Map)} attaches a grid to the map and {@link #snapshot(Map)} can be used.
+     */
+    public boolean isMapped(Map map) {
+        return enabled && map != null && map.getId() != null
+                && (long) map.getDimensionX() * map.getDimensionY() >= minCells;
+    }
+
+    /**
+     * Marks a created obstacle in the grid of a map once the current transaction commits, so a rollback never
+     * leaves it in the grid. Must be called after the obstacle generation of the map was incremented.
+     * Does nothing if the map has no grid.
+     *
+     * @param map      The persisted map.
+     * @param obstacle The created obstacle.
+     */
+    public void addAfterCommit(Map map, Obstacle obstacle) {
+        afterCommit(map, index -> index.add(obstacle));
+    }
+
+    /**
+     * Clears a deleted obstacle from the grid of a map once the current transaction commits, so a rollback never
+     * loses it from the grid. Must be called after the obstacle generation of the map was incremented.
+     * Does nothing if the map has no grid.
+     *
+     * @param map      The persisted map.
+     * @param obstacle The deleted obstacle.
+     */
+    public void removeAfterCommit(Map map, Obstacle obstacle) {
+        afterCommit(map, index -> index.remove(obstacle));
+    }
+
+    /**
+     * Marks imported obstacles in the grid of a map once the current transaction commits, so a rollback never
+     * leaves them in the grid. Must be called after the obstacle generation of the map was incremented.
+     * Does nothing if the map has no grid.
+     *
+     * @param map         The persisted map.
+     * @param coordinates The coordinates of the imported obstacles.
+     */
+    public void addAllAfterCommit(Map map, ObstacleCoordinates coordinates) {
+        afterCommit(map, index -> {
+            for (int i = 0; i < coordinates.size(); i++) {
+                index.add(new Obstacle(coordinates.getX(i), coordinates.getY(i)));
+            }
+        });
+    }
+
+    /**
+     * Closes and deletes the grid of a map, if there is one.
+     *
+     * @param mapId The ID of the deleted map.
+     */
+    public void delete(Long mapId) {
+        discard(mapId, openIndexes.remove(mapId));
+    }
+
+    /**
+     * Drops the grid of a map whose obstacles were changed without going through the map, such as by a bulk
+     * delete, so the next {@link #attach(Map)} rebuilds it from the obstacle table. Inside a transaction the grid
+     * is dropped again once the transaction ends, so a grid rebuilt from data read before the commit is not kept.
+     *
+     * @param mapId The ID of the changed map.
+     */
+    public void invalidate(Long mapId) {
+        delete(mapId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    delete(mapId);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        for (MappedObstacleIndex index : openIndexes.values()) {
+            index.close();
+        }
+        openIndexes.clear();
+    }
+
+    private MappedObstacleIndex open(Long mapId, Map map) {
+        return rebuildTransactionTemplate.execute(status -> {
+            // Read before the obstacles: a change committed in between is in the grid and is applied again, which is harmless.
+            long generation = mapRepository.findObstacleGenerationById(mapId).orElse(0L);
+            MappedObstacleIndex index = MappedObstacleIndex.open(file(mapId), map.getDimensionX(), map.getDimensionY(), generation);
+            if (index.isCreated()) {
+                for (Obstacle obstacle : obstacleRepository.findByMapId(mapId)) {
+                    index.add(obstacle);
+                }
+                index.setGeneration(generation);
+                index.force();
+            }
+            return index;
+        });
+    }
+
+    private void afterCommit(Map map, Consumer<MappedObstacleIndex> change) {
+        if (!isMapped(map)) {
+            return;
+        }
+        Long mapId = map.getId();
+        // The row of the map stays locked until the commit, so this is the generation written by this transaction.
+        Optional<Long> generation = mapRepository.findObstacleGenerationById(mapId);
+        if (generation.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(mapId, generation.get(), change);
+                }
+            });
+        } else {
+            apply(mapId, generation.get(), change);
+        }
+    }
+
+    /**
+     * Applies a committed change to the open grid of a map if the grid is at the generation right before it.
+     * A grid that missed a change, such as one applied out of order, is dropped and rebuilt on next use.
+     */
+    private void apply(Long mapId, long generation, Consumer<MappedObstacleIndex> change) {
+        openIndexes.computeIfPresent(mapId, (id, index) -> {
+            if (index.getGeneration() >= generation) {
+                // Opened after the commit, so the change was read from the obstacle table.
+                return index;
+            }
+            if (index.getGeneration() == generation - 1) {
+                try {
+                    change.accept(index);
+                    index.setGeneration(generation);
+                    index.force();
+                    return index;
+                } catch (RuntimeException e) {
+                    // A grid left half changed is dropped like one that missed a change.
+                }
+            }
+            discard(id, index);
+            return null;
+        });
+    }
+
+    private void discard(Long mapId, MappedObstacleIndex index) {
+        try {
+            if (index != null) {
+                index.close();
+            }
+            Files.deleteIfExists(file(mapId));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete occupancy file of map " + mapId, e);
+        }
+    }
+
+    private Path file(Long mapId) {
+        return dataDirectory.resolve("map-" + mapId + ".occupancy");
+    }
+}
@@ -0,0 +1,34 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Obstacle;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the obstacle ID sequence past the IDs already in the obstacle table.
+ * Obstacles created before the sequence existed got their IDs from AUTO_INCREMENT, which the sequence does not know
+ * about. MySQL has no sequences, so Hibernate keeps the next value in the obstacle_seq table.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class ObstacleSequenceAligner {
+
+    static final String ALIGN_SQL = "UPDATE obstacle_seq SET next_val = "
+            + "GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) FROM obstacle) + ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public ObstacleSequenceAligner(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void align() {
+        // The pooled optimizer hands out the block below the value it reads, so a whole block is skipped.
+        jdbcTemplate.update(ALIGN_SQL, Obstacle.ID_ALLOCATION_SIZE + 1);
+    }
+}
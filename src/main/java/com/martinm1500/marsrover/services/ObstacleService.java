@@ -1,10 +1,13 @@
 package com.martinm1500.marsrover.services;
 
 import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.ObstacleNotFoundException;
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service interface for managing obstacles on a map.
@@ -19,9 +22,23 @@ public interface ObstacleService {
      * @return The added obstacle.
      * @throws MapNotFoundException         If the map is not found.
      * @throws InvalidCoordinatesException      If the coordinates of the obstacle do not represent a valid position on the map.
+     * @throws InvalidCoordinatesException      If the map already has an obstacle at the same coordinates.
      */
     Obstacle createObstacle(Obstacle obstacle, Long mapId) throws MapNotFoundException, InvalidCoordinatesException;
 
+    /**
+     * Creates many obstacles on a map at once. All the coordinates are validated before any obstacle is inserted,
+     * and the obstacles are inserted in JDBC batches.
+     *
+     * @param mapId       The ID of the map to which the obstacles should be created.
+     * @param coordinates The coordinates of the obstacles.
+     * @return The number of created obstacles.
+     * @throws MapNotFoundException        If the map is not found.
+     * @throws InvalidCoordinatesException If any coordinates are outside the map, already occupied or repeated.
+     * @throws ConcurrentUpdateException   If another obstacle was created on one of the positions during the import.
+     */
+    int importObstacles(Long mapId, ObstacleCoordinates coordinates) throws MapNotFoundException, InvalidCoordinatesException, ConcurrentUpdateException;
+
     /**
      * Deletes an obstacle with the specified ID.
      *
@@ -30,6 +47,29 @@ public interface ObstacleService {
      */
     void deleteObstacle(Long obstacleId) throws ObstacleNotFoundException;
 
+    /**
+     * Deletes the obstacles of a map located inside a rectangle, bounds included, with one DELETE statement.
+     *
+     * @param mapId The ID of the map.
+     * @param x1    The lowest x coordinate of the region.
+     * @param y1    The lowest y coordinate of the region.
+     * @param x2    The highest x coordinate of the region.
+     * @param y2    The highest y coordinate of the region.
+     * @return The number of deleted obstacles.
+     * @throws MapNotFoundException        If the map does not exist.
+     * @throws InvalidCoordinatesException If x1 is greater than x2 or y1 is greater than y2.
+     */
+    int deleteInRegion(Long mapId, int x1, int y1, int x2, int y2) throws MapNotFoundException, InvalidCoordinatesException;
+
+    /**
+     * Deletes all obstacles of a map with one DELETE statement.
+     *
+     * @param mapId The ID of the map.
+     * @return The number of deleted obstacles.
+     * @throws MapNotFoundException If the map does not exist.
+     */
+    int deleteAllFromMap(Long mapId) throws MapNotFoundException;
+
     /**
      * Gets an obstacle with the specified ID.
      *
@@ -47,5 +87,50 @@ public interface ObstacleService {
      * @throws MapNotFoundException If the map does not exist.
      */
     List<Obstacle> getAllFromMap(Long mapId) throws MapNotFoundException;
+
+    /**
+     * Returns a page of the obstacles of a map, ordered by ID.
+     *
+     * @param mapId   The ID of the map.
+     * @param afterId The ID the page starts after; 0 for the first page.
+     * @param size    The most obstacles to return.
+     * @return The obstacles of the map with an ID greater than afterId, at most size of them.
+     * @throws MapNotFoundException If the map does not exist.
+     */
+    List<Obstacle> getFromMapAfter(Long mapId, long afterId, int size) throws MapNotFoundException;
+
+    /**
+     * Counts the obstacles of a map.
+     *
+     * @param mapId The ID of the map.
+     * @return The number of obstacles on the map.
+     * @throws MapNotFoundException If the map does not exist.
+     */
+    long countAllFromMap(Long mapId) throws MapNotFoundException;
+
+    /**
+     * Passes every obstacle of a map, ordered by ID, to an action while they are read from the database.
+     * Each obstacle is detached once the action returns, so memory use does not grow with the number of obstacles.
+     *
+     * @param mapId  The ID of the map.
+     * @param action The action run on each obstacle.
+     * @throws MapNotFoundException If the map does not exist.
+     */
+    void streamAllFromMap(Long mapId, Consumer<Obstacle> action) throws MapNotFoundException;
+
+    /**
+     * Returns the obstacles of a map located inside a rectangle, bounds included. They are taken from the tiles of
+     * the cached snapshot of the map, or queried from the database for maps with a memory-mapped grid.
+     *
+     * @param mapId The ID of the map.
+     * @param x1    The lowest x coordinate of the region.
+     * @param y1    The lowest y coordinate of the region.
+     * @param x2    The highest x coordinate of the region.
+     * @param y2    The highest y coordinate of the region.
+     * @return List of obstacles inside the region.
+     * @throws MapNotFoundException        If the map does not exist.
+     * @throws InvalidCoordinatesException If x1 is greater than x2 or y1 is greater than y2.
+     */
+    List<Obstacle> getAllInRegion(Long mapId, int x1, int y1, int x2, int y2) throws MapNotFoundException, InvalidCoordinatesException;
 }
 
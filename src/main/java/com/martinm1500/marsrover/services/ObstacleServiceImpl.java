@@ -1,30 +1,52 @@
 package com.martinm1500.marsrover.services;
 
 
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.ObstacleNotFoundException;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
 import com.martinm1500.marsrover.repositories.MapRepository;
 import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 public class ObstacleServiceImpl implements ObstacleService{
 
+    /**
+     * Obstacles persisted by an import between two flushes. Each flush sends them in JDBC batches and clears the
+     * session, so an import does not keep every obstacle it inserted in memory.
+     */
+    static final int IMPORT_FLUSH_SIZE = 1000;
+
     private final MapRepository mapRepository;
     private final ObstacleRepository obstacleRepository;
+    private final MappedOccupancyStore occupancyStore;
+    private final MapSnapshotCache snapshotCache;
+    private final EntityManager entityManager;
 
     @Autowired
-    public ObstacleServiceImpl(MapRepository mapRepository, ObstacleRepository obstacleRepository) {
+    public ObstacleServiceImpl(MapRepository mapRepository, ObstacleRepository obstacleRepository,
+                               MappedOccupancyStore occupancyStore, MapSnapshotCache snapshotCache,
+                               EntityManager entityManager) {
         this.mapRepository = mapRepository;
         this.obstacleRepository = obstacleRepository;
+        this.occupancyStore = occupancyStore;
+        this.snapshotCache = snapshotCache;
+        this.entityManager = entityManager;
     }
 
     @Transactional
@@ -34,10 +56,19 @@ public class ObstacleServiceImpl implements ObstacleService{
         if(optionalMap.isPresent()){
             Map map = optionalMap.get();
             if(map.validPositionOfObstacle(obstacle)){
+                Optional<Obstacle> existingObstacle = obstacleRepository.findByMapIdAndXAndY(mapId, obstacle.getX(), obstacle.getY());
+                if(existingObstacle.isPresent()){
+                    throw new InvalidCoordinatesException("position ( " + obstacle.getX() + " , " + obstacle.getY() +
+                            " ) is already occupied by the obstacle with ID: " + existingObstacle.get().getId());
+                }
                 map.addObstacle(obstacle);
                 obstacle.setMap(map);
                 mapRepository.save(map);
-                return obstacleRepository.save(obstacle);
+                snapshotCache.invalidate(mapId);
+                Obstacle createdObstacle = obstacleRepository.save(obstacle);
+                mapRepository.incrementObstacleGeneration(mapId);
+                occupancyStore.addAfterCommit(map, obstacle);
+                return createdObstacle;
             }else{
                 throw new InvalidCoordinatesException("The obstacle does not have a valid position on the map. Coordinates: (" + obstacle.getX() + ", " + obstacle.getY() + ")");
             }
@@ -46,6 +77,62 @@ public class ObstacleServiceImpl implements ObstacleService{
         }
     }
 
+    @Transactional
+    @Override
+    public int importObstacles(Long mapId, ObstacleCoordinates coordinates) {
+        Map map = mapRepository.findById(mapId)
+                .orElseThrow(() -> new MapNotFoundException("Could not find map with ID: " + mapId));
+        // Maps with a memory-mapped grid get a snapshot answering from the grid, so their obstacles are never loaded.
+        validateImport(snapshotCache.get(map), coordinates);
+
+        Map mapReference = map;
+        try {
+            for (int i = 0; i < coordinates.size(); i++) {
+                Obstacle obstacle = new Obstacle(coordinates.getX(i), coordinates.getY(i));
+                obstacle.setMap(mapReference);
+                entityManager.persist(obstacle);
+                if ((i + 1) % IMPORT_FLUSH_SIZE == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                    mapReference = entityManager.getReference(Map.class, mapId);
+                }
+            }
+            entityManager.flush();
+        } catch (ConstraintViolationException e) {
+            // The entity manager does not translate exceptions: another request created an obstacle on one of the
+            // positions after they were validated, and uk_obstacle_map_cell rejected the insert.
+            throw new ConcurrentUpdateException("An obstacle was created on one of the imported positions during the import");
+        }
+        snapshotCache.invalidate(mapId);
+        mapRepository.incrementObstacleGeneration(mapId);
+        occupancyStore.addAllAfterCommit(map, coordinates);
+        return coordinates.size();
+    }
+
+    /**
+     * Checks in one pass that every obstacle to import is inside the map, on a free cell and not repeated.
+     */
+    private static void validateImport(Map occupancy, ObstacleCoordinates coordinates) {
+        long[] cells = new long[coordinates.size()];
+        for (int i = 0; i < coordinates.size(); i++) {
+            int x = coordinates.getX(i);
+            int y = coordinates.getY(i);
+            if (!occupancy.isValidPosition(x, y)) {
+                throw new InvalidCoordinatesException("Obstacle " + (i + 1) + " does not have a valid position on the map. Coordinates: (" + x + ", " + y + ")");
+            }
+            if (occupancy.isPositionOccupied(x, y)) {
+                throw new InvalidCoordinatesException("Obstacle " + (i + 1) + " is on an occupied position. Coordinates: (" + x + ", " + y + ")");
+            }
+            cells[i] = ((long) x << 32) | y;
+        }
+        Arrays.sort(cells);
+        for (int i = 1; i < cells.length; i++) {
+            if (cells[i] == cells[i - 1]) {
+                throw new InvalidCoordinatesException("Position ( " + (cells[i] >> 32) + " , " + (int) cells[i] + " ) appears more than once in the import");
+            }
+        }
+    }
+
     @Transactional
     @Override
     public void deleteObstacle(Long obstacleId) {
@@ -55,16 +142,54 @@ public class ObstacleServiceImpl implements ObstacleService{
             Map map = obstacle.getMap();
 
             if (map != null) {
-                map.getObstacles().remove(obstacle);
+                map.removeObstacle(obstacle);
                 mapRepository.save(map);
+                snapshotCache.invalidate(map.getId());
             }
             obstacle.setMap(null);
             obstacleRepository.delete(obstacle);
+            if (map != null) {
+                mapRepository.incrementObstacleGeneration(map.getId());
+                occupancyStore.removeAfterCommit(map, obstacle);
+            }
         } else {
             throw new ObstacleNotFoundException("Could not find obstacle with ID: " + obstacleId);
         }
     }
 
+    @Transactional
+    @Override
+    public int deleteInRegion(Long mapId, int x1, int y1, int x2, int y2) {
+        if(x1 > x2 || y1 > y2){
+            throw new InvalidCoordinatesException("Invalid region: (" + x1 + ", " + y1 + ") must not be greater than (" + x2 + ", " + y2 + ")");
+        }
+        if(!mapRepository.existsById(mapId)){
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+        return afterBulkDelete(mapId, obstacleRepository.deleteByMapIdInRegion(mapId, x1, x2, y1, y2));
+    }
+
+    @Transactional
+    @Override
+    public int deleteAllFromMap(Long mapId) {
+        if(!mapRepository.existsById(mapId)){
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+        return afterBulkDelete(mapId, obstacleRepository.deleteAllByMapId(mapId));
+    }
+
+    /**
+     * Drops the in-memory occupancy of a map after a bulk delete, which removes the rows without the map knowing.
+     */
+    private int afterBulkDelete(Long mapId, int deleted) {
+        if(deleted > 0){
+            occupancyStore.invalidate(mapId);
+            snapshotCache.invalidate(mapId);
+            mapRepository.incrementObstacleGeneration(mapId);
+        }
+        return deleted;
+    }
+
     @Override
     public Obstacle getObstacle(Long obstacleId)  {
         Optional<Obstacle> optionalObstacle = obstacleRepository.findById(obstacleId);
@@ -83,4 +208,55 @@ public class ObstacleServiceImpl implements ObstacleService{
             throw new MapNotFoundException("Could not find map with ID: " + mapId);
         }
     }
+
+    @Override
+    public List<Obstacle> getFromMapAfter(Long mapId, long afterId, int size) {
+        if(mapRepository.existsById(mapId)){
+            return obstacleRepository.findByMapIdAndIdGreaterThanOrderByIdAsc(mapId, afterId, PageRequest.of(0, size));
+        }else{
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+    }
+
+    @Override
+    public long countAllFromMap(Long mapId) {
+        if(mapRepository.existsById(mapId)){
+            return obstacleRepository.countByMapId(mapId);
+        }else{
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void streamAllFromMap(Long mapId, Consumer<Obstacle> action) {
+        // Loaded first, so the map of each obstacle is found in the session instead of being queried while the
+        // driver is still streaming the obstacles.
+        if(mapRepository.findById(mapId).isEmpty()){
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+        try (Stream<Obstacle> obstacles = obstacleRepository.streamByMapIdOrderByIdAsc(mapId)) {
+            obstacles.forEach(obstacle -> {
+                action.accept(obstacle);
+                entityManager.detach(obstacle);
+            });
+        }
+    }
+
+    @Override
+    public List<Obstacle> getAllInRegion(Long mapId, int x1, int y1, int x2, int y2) {
+        if(x1 > x2 || y1 > y2){
+            throw new InvalidCoordinatesException("Invalid region: (" + x1 + ", " + y1 + ") must not be greater than (" + x2 + ", " + y2 + ")");
+        }
+        Optional<Map> optionalMap = mapRepository.findById(mapId);
+        if(optionalMap.isEmpty()){
+            throw new MapNotFoundException("Could not find map with ID: " + mapId);
+        }
+        Map map = optionalMap.get();
+        if(occupancyStore.isMapped(map)){
+            // The snapshot of a map with a memory-mapped grid holds no obstacles, so the (map_id, x, y) index is used.
+            return obstacleRepository.findByMapIdAndXBetweenAndYBetween(mapId, x1, x2, y1, y2);
+        }
+        return snapshotCache.get(map).getObstaclesInRegion(x1, y1, x2, y2);
+    }
 }
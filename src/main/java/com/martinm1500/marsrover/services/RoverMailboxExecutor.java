@@ -0,0 +1,124 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Obstacle;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes the commands sent to a rover one batch at a time, so the requests commanding the same rover do not
+ * compete for its row in the database.
+ * Each rover with pending commands has a mailbox drained by one virtual thread. The programs that arrive while
+ * the rover is executing wait in the mailbox, and are then executed together on the rover, in order of arrival,
+ * with a single write. Mailboxes are removed as soon as they are empty.
+ */
+@Component
+public class RoverMailboxExecutor {
+
+    private final RoverService roverService;
+    private final int maxBatchSize;
+    private final ConcurrentHashMap<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rover-mailbox-", 0).factory());
+
+    @Autowired
+    public RoverMailboxExecutor(RoverService roverService, @Value("${rover.mailbox.max-batch:64}") int maxBatchSize) {
+        this.roverService = roverService;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Queues a program for a rover.
+     *
+     * @param roverId The ID of the rover on which the program will be executed.
+     * @param program The program to be executed.
+     * @return A future completed with the obstacle encountered, or null if the program completes successfully.
+     * It completes exceptionally with the exceptions of {@link RoverService#executePrograms(Long, List)},
+     * which fail every program of the same batch, or with a RejectedExecutionException once the executor is closed.
+     */
+    public CompletableFuture<Obstacle> submit(Long roverId, CommandProgram program) {
+        Envelope envelope = new Envelope(program, new CompletableFuture<>());
+        mailboxes.compute(roverId, (id, mailbox) -> {
+            if (mailbox == null) {
+                try {
+                    executor.execute(() -> drain(id));
+                } catch (RejectedExecutionException e) {
+                    // Closed: no drainer would ever take the program, so no mailbox is left behind.
+                    envelope.result.completeExceptionally(e);
+                    return null;
+                }
+                mailbox = new Mailbox();
+            }
+            mailbox.pending.add(envelope);
+            return mailbox;
+        });
+        return envelope.result;
+    }
+
+    /**
+     * Gets the number of rovers with commands waiting or executing.
+     *
+     * @return The number of mailboxes.
+     */
+    public int getActiveMailboxes() {
+        return mailboxes.size();
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void drain(Long roverId) {
+        while (true) {
+            List<Envelope> batch = new ArrayList<>();
+            // The mailbox is only changed under the lock of its entry, so it is removed exactly when the last
+            // pending program has been taken, and a later program starts a new drainer.
+            mailboxes.computeIfPresent(roverId, (id, mailbox) -> {
+                while (batch.size() < maxBatchSize && !mailbox.pending.isEmpty()) {
+                    batch.add(mailbox.pending.poll());
+                }
+                return batch.isEmpty() ? null : mailbox;
+            });
+            if (batch.isEmpty()) {
+                return;
+            }
+            execute(roverId, batch);
+        }
+    }
+
+    private void execute(Long roverId, List<Envelope> batch) {
+        List<CommandProgram> programs = new ArrayList<>(batch.size());
+        for (Envelope envelope : batch) {
+            programs.add(envelope.program);
+        }
+        try {
+            List<Obstacle> obstacles = roverService.executePrograms(roverId, programs);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(obstacles.get(i));
+            }
+        } catch (Throwable e) {
+            for (Envelope envelope : batch) {
+                envelope.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class Mailbox {
+        private final ArrayDeque<Envelope> pending = new ArrayDeque<>();
+    }
+
+    private record Envelope(CommandProgram program, CompletableFuture<Obstacle> result) {
+    }
+}
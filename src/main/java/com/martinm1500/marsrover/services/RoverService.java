@@ -1,16 +1,21 @@
 package com.martinm1500.marsrover.services;
 
 
+import com.martinm1500.marsrover.models.CommandProgram;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
+import com.martinm1500.marsrover.models.StepListener;
 import com.martinm1500.marsrover.exceptions.RoverNotFoundException;
 import com.martinm1500.marsrover.exceptions.InvalidCommandException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
 import com.martinm1500.marsrover.exceptions.InvalidOrientationException;
-import com.martinm1500.marsrover.exceptions.InvalidOperationException;
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Service interface for managing rovers on a map.
@@ -24,9 +29,8 @@ public interface RoverService {
      * @param mapId  The ID of the map on which the rover should be created.
      * @return The created rover.
      * @throws MapNotFoundException         If the map with the specified ID is not found.
-     * @throws InvalidOperationException    If the map already has a rover
      * @throws InvalidCoordinatesException  If the coordinates of the rover do not represent a valid position on the map.
-     * @throws InvalidCoordinatesException  If the coordinates coincide with the position of an obstacle.
+     * @throws InvalidCoordinatesException  If the coordinates coincide with the position of an obstacle or of another rover.
      * @throws InvalidOrientationException     if the orientation of the rover do not represent a valid orientation
      */
     Rover createRover(Rover rover, Long mapId) throws MapNotFoundException, InvalidCoordinatesException, InvalidOrientationException;
@@ -45,10 +49,11 @@ public interface RoverService {
      * @param rover The rover with the updated position and orientation.
      * @throws RoverNotFoundException     If the rover is not found.
      * @throws InvalidCoordinatesException  If the coordinates of the rover do not represent a valid position on the map.
-     * @throws InvalidCoordinatesException  If the coordinates coincide with the position of an obstacle.
+     * @throws InvalidCoordinatesException  If the coordinates coincide with the position of an obstacle or of another rover.
      * @throws InvalidOrientationException if the orientation of rover do not represent a valid orientation
+     * @throws ConcurrentUpdateException If the rover keeps being updated concurrently after a few attempts.
      */
-    Rover updateRover(Rover rover) throws RoverNotFoundException, InvalidCoordinatesException, InvalidOrientationException;
+    Rover updateRover(Rover rover) throws RoverNotFoundException, InvalidCoordinatesException, InvalidOrientationException, ConcurrentUpdateException;
 
     /**
      * Gets a rover with the specified ID.
@@ -60,13 +65,13 @@ public interface RoverService {
     Rover getRover(Long roverId) throws RoverNotFoundException;
 
     /**
-     * Gets a rover associated with a specific map.
+     * Gets the rovers placed on a specific map.
      *
      * @param mapId The ID of the map.
-     * @return The rover associated with the map.
-     * @throws MapNotFoundException If the map with the provided ID does not exist or if there is no rover associated with the map.
+     * @return The rovers on the map, empty if there is none.
+     * @throws MapNotFoundException If the map with the provided ID does not exist.
      */
-    Rover getRoverByMapId(Long mapId) throws MapNotFoundException;
+    List<Rover> getRoversByMapId(Long mapId) throws MapNotFoundException;
 
     /**
      * Executes the commands provided on a rover with the specified ID.
@@ -76,6 +81,92 @@ public interface RoverService {
      * @return The obstacle encountered, or null if the sequence completes successfully.
      * @throws RoverNotFoundException  If the provided ID does not belong to any existing rover.
      * @throws InvalidCommandException If any command in the list is other than: 'r', 'b', 'f', 'l'.
+     * @throws ConcurrentUpdateException If the rover keeps being updated concurrently after a few attempts.
      */
-    Obstacle executeCommands(Long roverId, List<Character> commands) throws RoverNotFoundException, InvalidCommandException;
+    Obstacle executeCommands(Long roverId, List<Character> commands) throws RoverNotFoundException, InvalidCommandException, ConcurrentUpdateException;
+
+    /**
+     * Executes an already compiled program on a rover with the specified ID.
+     *
+     * @param roverId The ID of the rover on which the program will be executed.
+     * @param program The program to be executed.
+     * @return The obstacle encountered, or null if the program completes successfully.
+     * @throws RoverNotFoundException If the provided ID does not belong to any existing rover.
+     * @throws ConcurrentUpdateException If the rover keeps being updated concurrently after a few attempts.
+     */
+    Obstacle executeProgram(Long roverId, CommandProgram program) throws RoverNotFoundException, ConcurrentUpdateException;
+
+    /**
+     * Executes several programs one after the other on a rover with the specified ID, in one transaction and with
+     * a single write. Each program starts where the previous one left the rover, even if it stopped at an obstacle.
+     *
+     * @param roverId  The ID of the rover on which the programs will be executed.
+     * @param programs The programs to be executed, in order.
+     * @return The obstacle encountered by each program, or null for the programs that complete successfully.
+     * @throws RoverNotFoundException If the provided ID does not belong to any existing rover.
+     * @throws ConcurrentUpdateException If the rover keeps being updated concurrently after a few attempts.
+     */
+    List<Obstacle> executePrograms(Long roverId, List<CommandProgram> programs) throws RoverNotFoundException, ConcurrentUpdateException;
+
+    /**
+     * Runs a program on a detached copy of a rover against a read-only snapshot of its map, as a preview.
+     * Neither the rover nor the map is written back.
+     *
+     * @param roverId The ID of the rover whose mission is simulated.
+     * @param program The program to be simulated.
+     * @return The copy of the rover in its final state, carrying the obstacle that stopped it, if any.
+     * @throws RoverNotFoundException If the provided ID does not belong to any existing rover.
+     */
+    Rover simulateProgram(Long roverId, CommandProgram program) throws RoverNotFoundException;
+
+    /**
+     * Executes a program on a rover with the specified ID, reporting every state the rover goes through to a listener
+     * while it moves. If the listener fails, the rover is not saved.
+     * No transaction is held while the listener is called: the rover is saved afterwards, unless it changed meanwhile.
+     *
+     * @param roverId  The ID of the rover on which the program will be executed.
+     * @param program  The program to be executed.
+     * @param listener The listener receiving the initial state and the state after each executed command.
+     * @return The obstacle encountered, or null if the program completes successfully.
+     * @throws RoverNotFoundException If the provided ID does not belong to any existing rover.
+     * @throws ConcurrentUpdateException If the rover was updated concurrently; the execution is not retried.
+     */
+    Obstacle executeTraced(Long roverId, CommandProgram program, StepListener listener) throws RoverNotFoundException;
+
+    /**
+     * Executes commands on a rover with the specified ID as they are read from a stream, with constant memory.
+     * Reading stops at the first obstacle. The rover is only saved if the commands read are all valid.
+     * No transaction is held while the stream is read: the rover is saved afterwards, unless it changed meanwhile.
+     *
+     * @param roverId  The ID of the rover on which commands will be executed.
+     * @param commands The stream of run-length encoded commands, such as "f5000r2b300".
+     * @return The rover in its final state, carrying the obstacle encountered and the number of commands executed.
+     * @throws RoverNotFoundException  If the provided ID does not belong to any existing rover.
+     * @throws InvalidCommandException If the stream holds an invalid command.
+     * @throws UncheckedIOException    If the stream cannot be read.
+     * @throws ConcurrentUpdateException If the rover was updated while the stream was read; the stream cannot be
+     * read again, so the execution is not retried.
+     */
+    Rover executeStream(Long roverId, InputStream commands) throws RoverNotFoundException, InvalidCommandException;
+
+    /**
+     * Executes a program on each of several rovers in one transaction. The rovers, their maps and the obstacles of the
+     * maps are loaded with a few set-based queries, and the new positions are written with batched updates.
+     * A batch failing because some of its rovers were updated concurrently is retried; after a few attempts, the
+     * rovers still being updated are given up on and the rest of the batch runs without them.
+     *
+     * @param programs The program to execute on each rover, by rover ID.
+     * @return The rovers executed and the IDs of the rovers given up on.
+     */
+    BatchResult executeBatch(java.util.Map<Long, CommandProgram> programs);
+
+    /**
+     * The outcome of {@link #executeBatch(java.util.Map)}.
+     *
+     * @param rovers              The rovers found, in their final state, each carrying the obstacle encountered and the
+     *                            number of commands executed. Rovers that do not exist are left out.
+     * @param conflictingRoverIds The IDs of the rovers that kept being updated concurrently, which were not executed.
+     */
+    record BatchResult(List<Rover> rovers, Set<Long> conflictingRoverIds) {
+    }
 }
@@ -1,28 +1,73 @@
 package com.martinm1500.marsrover.services;
 
 import com.martinm1500.marsrover.exceptions.*;
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.CommandStream;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
+import com.martinm1500.marsrover.models.RoverPositions;
+import com.martinm1500.marsrover.models.StepListener;
 import com.martinm1500.marsrover.repositories.MapRepository;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
 import com.martinm1500.marsrover.repositories.RoverRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class RoverServiceImpl implements RoverService{
 
     private final RoverRepository roverRepository;
     private final MapRepository mapRepository;
+    private final ObstacleRepository obstacleRepository;
+    private final MappedOccupancyStore occupancyStore;
+    private final MapSnapshotCache snapshotCache;
+    private final FleetSimulationEngine simulationEngine;
+    private final RoverStateStore stateStore;
+    private final CommandJournal journal;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    /**
+     * Number of times an update of rovers is attempted before a concurrent update of the same rovers is reported.
+     */
+    static final int MAX_UPDATE_ATTEMPTS = 3;
 
     @Autowired
-    public RoverServiceImpl(RoverRepository roverRepository, MapRepository mapRepository) {
+    public RoverServiceImpl(RoverRepository roverRepository, MapRepository mapRepository, ObstacleRepository obstacleRepository,
+                            MappedOccupancyStore occupancyStore, MapSnapshotCache snapshotCache,
+                            FleetSimulationEngine simulationEngine, RoverStateStore stateStore,
+                            CommandJournal journal, PlatformTransactionManager transactionManager) {
         this.roverRepository = roverRepository;
         this.mapRepository = mapRepository;
+        this.obstacleRepository = obstacleRepository;
+        this.occupancyStore = occupancyStore;
+        this.snapshotCache = snapshotCache;
+        this.simulationEngine = simulationEngine;
+        this.stateStore = stateStore;
+        this.journal = journal;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
     }
 
     @Transactional
@@ -34,10 +79,7 @@ public class RoverServiceImpl implements RoverService{
             int x = rover.getX();
             int y = rover.getY();
 
-            if(map.getRover() != null){
-                throw new InvalidOperationException("The map already has a rover" + map.getRover());
-            }
-            if(map.isPositionOccupied(x,y)){
+            if(obstacleRepository.existsByMapIdAndXAndY(mapId,x,y)){
                 throw new InvalidCoordinatesException("position ( "+ x +" , " + y +" ) is occupied by an obstacle");
             }
             if(!Rover.isValidPosition(x,y,map)){
@@ -47,10 +89,15 @@ public class RoverServiceImpl implements RoverService{
                 throw new InvalidOrientationException("Invalid rover orientation. Accepted values are: " +
                         Rover.NORTH + ", " + Rover.SOUTH + ", " + Rover.EAST + ", or " + Rover.WEST);
             }
-            map.setRover(rover);
-            rover.setMap(map);
+            if(roverRepository.existsByMapIdAndXAndY(mapId,x,y)){
+                throw new InvalidCoordinatesException("position ( "+ x +" , " + y +" ) is occupied by a rover");
+            }
+            map.addRover(rover);
             mapRepository.save(map);
-            return roverRepository.save(rover);
+            Rover createdRover = roverRepository.save(rover);
+            mapRepository.incrementRevision(mapId);
+            journal.appendAfterCommit(() -> journal.append(createdRover, List.of()));
+            return createdRover;
         }else{
             throw new MapNotFoundException("Could not find map with ID: " + mapId);
         }
@@ -59,11 +106,16 @@ public class RoverServiceImpl implements RoverService{
     @Transactional
     @Override
     public void deleteRover(Long roverId){
+        stateStore.release(Collections.singleton(roverId));
         Optional<Rover> optionalRover = roverRepository.findById(roverId);
         if(optionalRover.isPresent()){
-            Map map = optionalRover.get().getMap();
-            map.setRover(null);
+            Rover rover = optionalRover.get();
+            Map map = rover.getMap();
+            map.removeRover(rover);
             roverRepository.deleteById(roverId);
+            incrementRevision(map);
+            long version = rover.getVersion();
+            journal.appendAfterCommit(() -> journal.appendDeletion(roverId, version));
         }else{
             throw new RoverNotFoundException("Could not find rover with ID: " + roverId);
         }
@@ -72,31 +124,43 @@ public class RoverServiceImpl implements RoverService{
     @Override
     public Rover updateRover(Rover rover){
         Long roverId = rover.getId();
-        Optional<Rover> optionalRover = roverRepository.findById(roverId);
-        if(optionalRover.isPresent()){
-            Map map = optionalRover.get().getMap();
+        stateStore.release(Collections.singleton(roverId));
+        Rover updatedRover = retryOnConflict(roverId, MAX_UPDATE_ATTEMPTS, () -> {
+            Optional<Rover> optionalRover = roverRepository.findById(roverId);
+            if(optionalRover.isPresent()){
+                Rover currentRover = optionalRover.get();
+                Map map = currentRover.getMap();
 
-            int x = rover.getX();
-            int y = rover.getY();
-            char orientation = rover.getOrientation();
+                int x = rover.getX();
+                int y = rover.getY();
+                char orientation = rover.getOrientation();
 
-            if(!Rover.isValidPosition(x,y,map)){
-                throw new InvalidCoordinatesException("The rover's coordinates do not represent a valid position on the map");
-            }
-            if(map.isPositionOccupied(x,y)){
-                throw new InvalidCoordinatesException("position ( "+ x +" , " + y +" ) is occupied by an obstacle");
-            }
-            if(!Rover.isValidOrientation(orientation)){
-                throw new InvalidOrientationException("Invalid rover orientation. Accepted values are: " +
-                        Rover.NORTH + ", " + Rover.SOUTH + ", " + Rover.EAST + ", or " + Rover.WEST);
-            }
-            map.setRover(rover);
-            rover.setMap(map);
-            return roverRepository.save(rover);
+                if(!Rover.isValidPosition(x,y,map)){
+                    throw new InvalidCoordinatesException("The rover's coordinates do not represent a valid position on the map");
+                }
+                if(obstacleRepository.existsByMapIdAndXAndY(map.getId(),x,y)){
+                    throw new InvalidCoordinatesException("position ( "+ x +" , " + y +" ) is occupied by an obstacle");
+                }
+                if(!Rover.isValidOrientation(orientation)){
+                    throw new InvalidOrientationException("Invalid rover orientation. Accepted values are: " +
+                            Rover.NORTH + ", " + Rover.SOUTH + ", " + Rover.EAST + ", or " + Rover.WEST);
+                }
+                Optional<Rover> roverOnCell = roverRepository.findByMapIdAndXAndY(map.getId(),x,y);
+                if(roverOnCell.isPresent() && !roverOnCell.get().getId().equals(roverId)){
+                    throw new InvalidCoordinatesException("position ( "+ x +" , " + y +" ) is occupied by a rover");
+                }
+                // The changes go to the loaded entity, whose version detects a concurrent update.
+                currentRover.placeAt(x, y, orientation);
+                roverRepository.save(currentRover);
+                incrementRevision(map);
+                return currentRover;
 
-        }else{
-            throw new RoverNotFoundException("Could not find rover with ID: " + roverId);
-        }
+            }else{
+                throw new RoverNotFoundException("Could not find rover with ID: " + roverId);
+            }
+        });
+        journal.append(updatedRover, List.of());
+        return updatedRover;
     }
 
 
@@ -104,33 +168,312 @@ public class RoverServiceImpl implements RoverService{
     public Rover getRover(Long roverId){
         Optional<Rover> optionalRover = roverRepository.findById(roverId);
         if(optionalRover.isPresent()){
-            return optionalRover.get();
+            return stateStore.view(optionalRover.get());
         }else {
             throw new RoverNotFoundException("Could not find rover with ID: " + roverId);
         }
     }
 
     @Override
-    public Rover getRoverByMapId(Long mapId){
+    public List<Rover> getRoversByMapId(Long mapId){
         Optional<Map> optionalMap = mapRepository.findById(mapId);
         if(optionalMap.isPresent()){
-            return optionalMap.get().getRover();
+            return stateStore.views(optionalMap.get().getRovers());
         }else{
             throw new MapNotFoundException("No rover found for map with ID: " + mapId);
         }
     }
 
-    @Transactional
     @Override
     public Obstacle executeCommands(Long roverId, List<Character> commands){
+        return executeOnRover(roverId, () -> List.of(CommandProgram.of(commands))).get(0);
+    }
+
+    @Override
+    public Obstacle executeProgram(Long roverId, CommandProgram program){
+        return executeOnRover(roverId, () -> List.of(program)).get(0);
+    }
+
+    @Override
+    public List<Obstacle> executePrograms(Long roverId, List<CommandProgram> programs){
+        return executeOnRover(roverId, () -> programs);
+    }
+
+    @Override
+    public BatchResult executeBatch(java.util.Map<Long, CommandProgram> programs){
+        if(programs.isEmpty()){
+            return new BatchResult(List.of(), Set.of());
+        }
+        stateStore.release(programs.keySet());
+        java.util.Map<Long, CommandProgram> pendingPrograms = new LinkedHashMap<>(programs);
+        Set<Long> conflictingRoverIds = new LinkedHashSet<>();
+        for(int attempt = 1; ; attempt++){
+            java.util.Map<Long, Long> readVersions = new HashMap<>();
+            try {
+                List<Rover> rovers = transactionTemplate.execute(status -> runBatch(pendingPrograms, readVersions));
+                for(Rover rover : rovers){
+                    journal.append(rover, List.of(pendingPrograms.get(rover.getId())));
+                }
+                return new BatchResult(rovers, conflictingRoverIds);
+            } catch (OptimisticLockingFailureException e) {
+                if(attempt >= MAX_UPDATE_ATTEMPTS){
+                    // Only the rovers changed since they were read give up; the rest of the batch runs again.
+                    Set<Long> changedRoverIds = changedRovers(readVersions);
+                    conflictingRoverIds.addAll(changedRoverIds);
+                    pendingPrograms.keySet().removeAll(changedRoverIds);
+                    if(pendingPrograms.isEmpty()){
+                        return new BatchResult(List.of(), conflictingRoverIds);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the rovers of a failed batch whose version moved on since the batch read them. Rovers deleted meanwhile
+     * are left out, as the next attempt no longer finds them; if no rover can be told apart, all of them are returned.
+     */
+    private Set<Long> changedRovers(java.util.Map<Long, Long> readVersions){
+        Set<Long> changedRoverIds = new LinkedHashSet<>();
+        List<Rover> currentRovers = readOnlyTransactionTemplate.execute(status -> roverRepository.findAllById(readVersions.keySet()));
+        for(Rover rover : currentRovers){
+            if(rover.getVersion() != readVersions.get(rover.getId())){
+                changedRoverIds.add(rover.getId());
+            }
+        }
+        if(changedRoverIds.isEmpty() && currentRovers.size() == readVersions.size()){
+            changedRoverIds.addAll(readVersions.keySet());
+        }
+        return changedRoverIds;
+    }
+
+    /**
+     * Runs one attempt of a batch, recording the version of each rover it reads.
+     */
+    private List<Rover> runBatch(java.util.Map<Long, CommandProgram> programs, java.util.Map<Long, Long> readVersions){
+        List<Rover> rovers = roverRepository.findAllWithMapByIdIn(programs.keySet());
+        for(Rover rover : rovers){
+            readVersions.put(rover.getId(), rover.getVersion());
+        }
+        List<Map> maps = new ArrayList<>(rovers.size());
+        for(Rover rover : rovers){
+            maps.add(rover.getMap());
+        }
+        List<Map> snapshots = snapshotCache.getAll(maps);
+        // The positions of all rovers of the maps involved, loaded with one query. Rovers of the same map share
+        // their positions and run one after the other, as the engine keeps each map on a single worker.
+        java.util.Map<Long, RoverPositions> positionsByMap = new HashMap<>();
+        for(Map map : maps){
+            positionsByMap.put(map.getId(), new RoverPositions(List.of()));
+        }
+        for(Rover roverOnMap : roverRepository.findByMapIdIn(positionsByMap.keySet())){
+            positionsByMap.get(roverOnMap.getMap().getId()).add(roverOnMap);
+        }
+        // Each program runs on a working copy against the shared snapshot of its map, so rovers on different maps
+        // can run in parallel; only the final state is copied to the entities.
+        List<Rover> workingRovers = new ArrayList<>(rovers.size());
+        List<CommandProgram> roverPrograms = new ArrayList<>(rovers.size());
+        for(int i = 0; i < rovers.size(); i++){
+            Rover rover = rovers.get(i);
+            Rover workingRover = new Rover(rover.getX(), rover.getY(), rover.getOrientation());
+            workingRover.setMap(snapshots.get(i));
+            RoverPositions positions = positionsByMap.get(rover.getMap().getId());
+            positions.replace(rover, workingRover);
+            workingRover.setRoverPositions(positions);
+            workingRovers.add(workingRover);
+            roverPrograms.add(programs.get(rover.getId()));
+        }
+        simulationEngine.execute(workingRovers, roverPrograms);
+        for(int i = 0; i < rovers.size(); i++){
+            copyState(workingRovers.get(i), rovers.get(i));
+        }
+        roverRepository.saveAll(rovers);
+        if(!positionsByMap.isEmpty()){
+            mapRepository.incrementRevisions(positionsByMap.keySet());
+        }
+        return rovers;
+    }
+
+    @Override
+    public Obstacle executeTraced(Long roverId, CommandProgram program, StepListener listener){
+        Rover savedRover = executeDetached(roverId, List.of(program), workingRover -> {
+            workingRover.setStepListener(listener);
+            workingRover.executeProgram(program);
+        });
+        return savedRover.getReportedObstacle();
+    }
+
+    @Override
+    public Rover executeStream(Long roverId, InputStream commands){
+        // The commands of a stream are not kept, so only the state they left the rover in is journaled.
+        return executeDetached(roverId, List.of(), workingRover -> {
+            try {
+                workingRover.executeStream(new CommandStream(commands));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the commands of rover with ID: " + roverId, e);
+            }
+        });
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public Rover simulateProgram(Long roverId, CommandProgram program){
+        Rover rover = findRover(roverId);
+        Rover latestRover = stateStore.view(rover);
+        Rover simulatedRover = new Rover(latestRover.getX(), latestRover.getY(), latestRover.getOrientation());
+        simulatedRover.setId(rover.getId());
+        simulatedRover.setMap(snapshotCache.get(rover.getMap()));
+        simulatedRover.setRoverPositions(stateStore.positions(rover, simulatedRover));
+        simulatedRover.executeProgram(program);
+        return simulatedRover;
+    }
+
+    /**
+     * Runs an update of a rover in a transaction of its own. When the transaction fails because another one changed
+     * the rover first, the update runs again from scratch, reading the rover again, up to the given number of attempts.
+     */
+    private <T> T retryOnConflict(Long roverId, int maxAttempts, Supplier<T> update){
+        for(int attempt = 1; ; attempt++){
+            try {
+                return transactionTemplate.execute(status -> update.get());
+            } catch (OptimisticLockingFailureException e) {
+                if(attempt >= maxAttempts){
+                    throw new ConcurrentUpdateException("The rover with ID: " + roverId + " was updated concurrently; gave up after "
+                            + attempt + (attempt == 1 ? " attempt" : " attempts"));
+                }
+            }
+        }
+    }
+
+    private Rover findRover(Long roverId){
         Optional<Rover> optionalRover = roverRepository.findById(roverId);
         if (optionalRover.isPresent()){
-            Rover rover = optionalRover.get();
-            Obstacle reportedObstacle = rover.executeCommands(commands);
-            roverRepository.save(rover);
-            return reportedObstacle;
+            return optionalRover.get();
         }else{
             throw new RoverNotFoundException("Could not find rover with ID: " + roverId);
         }
     }
+
+    /**
+     * Executes commands that take long to arrive or to report, such as an uploaded stream or a traced path written
+     * to a client, on a working copy of a rover outside any transaction, so no connection nor row lock is held while
+     * they run. The rover is loaded in a short read-only transaction and the state it ends in is saved in a second
+     * one, only if the rover was not changed in between. The commands cannot be read again and the steps already
+     * reported cannot be taken back, so a conflict is not retried.
+     *
+     * @param programs  The programs recorded in the command journal once the rover is saved.
+     * @param execution Runs the commands on the working copy.
+     * @return The saved rover.
+     * @throws ConcurrentUpdateException If the rover was changed while the commands ran.
+     */
+    private Rover executeDetached(Long roverId, List<CommandProgram> programs, Consumer<Rover> execution){
+        stateStore.release(Collections.singleton(roverId));
+        Rover workingRover = readOnlyTransactionTemplate.execute(status -> workingCopy(findRover(roverId)));
+        execution.accept(workingRover);
+        Rover savedRover = retryOnConflict(roverId, 1, () -> {
+            Rover rover = findRover(roverId);
+            if(rover.getVersion() != workingRover.getVersion()){
+                throw new ObjectOptimisticLockingFailureException(Rover.class, roverId);
+            }
+            copyState(workingRover, rover);
+            roverRepository.save(rover);
+            incrementRevision(rover.getMap());
+            return rover;
+        });
+        journal.append(savedRover, programs);
+        return savedRover;
+    }
+
+    /**
+     * Executes programs on a rover and persists the state it ends in. With write-behind, the programs run on the
+     * latest state of the rover held by the state store, which writes it later; otherwise the rover is saved in the
+     * transaction, retried on conflicts. Either way the execution is recorded in the command journal.
+     *
+     * @param programs Compiles the programs once the rover is found, so a missing rover is reported first.
+     */
+    private List<Obstacle> executeOnRover(Long roverId, Supplier<List<CommandProgram>> programs){
+        if(stateStore.isEnabled()){
+            // Read-only, so the rover loaded is never written through JPA.
+            return readOnlyTransactionTemplate.execute(status -> {
+                Rover rover = findRover(roverId);
+                List<CommandProgram> compiledPrograms = programs.get();
+                return stateStore.update(rover, workingRover -> {
+                    List<Obstacle> reportedObstacles = run(workingRover, compiledPrograms);
+                    // Under the lock of the rover in the store, so its records follow the order of its executions.
+                    journal.append(workingRover, compiledPrograms);
+                    return reportedObstacles;
+                });
+            });
+        }
+        Execution execution = retryOnConflict(roverId, MAX_UPDATE_ATTEMPTS, () -> {
+            Rover rover = findRover(roverId);
+            List<CommandProgram> compiledPrograms = programs.get();
+            List<Obstacle> reportedObstacles = run(rover, compiledPrograms);
+            roverRepository.save(rover);
+            incrementRevision(rover.getMap());
+            return new Execution(rover, compiledPrograms, reportedObstacles);
+        });
+        // Once committed, so only executions that reached the database are recorded, with the version they got.
+        journal.append(execution.rover(), execution.programs());
+        return execution.reportedObstacles();
+    }
+
+    /**
+     * Executes programs on a rover against the cached snapshot of its map, so the obstacles of the map are not
+     * loaded for every execution. The programs run on a working copy and its final state is copied to the rover.
+     * Maps with a memory-mapped grid are not cached: their snapshot answers from the grid.
+     */
+    private List<Obstacle> run(Rover rover, List<CommandProgram> programs){
+        Rover workingRover = workingCopy(rover);
+        List<Obstacle> reportedObstacles = runPrograms(workingRover, programs);
+        rover.placeAt(workingRover.getX(), workingRover.getY(), workingRover.getOrientation());
+        rover.setReportedObstacle(workingRover.getReportedObstacle());
+        rover.setExecutedCommands(workingRover.getExecutedCommands());
+        return reportedObstacles;
+    }
+
+    /**
+     * Copies a rover, with its version, onto the snapshot of its map and the positions of the other rovers of the map.
+     */
+    private Rover workingCopy(Rover rover){
+        Rover workingRover = new Rover(rover.getX(), rover.getY(), rover.getOrientation());
+        workingRover.setId(rover.getId());
+        workingRover.setVersion(rover.getVersion());
+        workingRover.setMap(snapshotCache.get(rover.getMap()));
+        workingRover.setRoverPositions(stateStore.positions(rover, workingRover));
+        return workingRover;
+    }
+
+    /**
+     * Copies the state a working copy ended in to the rover entity. The positions of the map are not updated, so
+     * the other rovers of the map are not loaded.
+     */
+    private static void copyState(Rover workingRover, Rover rover){
+        rover.setX(workingRover.getX());
+        rover.setY(workingRover.getY());
+        rover.setOrientation(workingRover.getOrientation());
+        rover.setReportedObstacle(workingRover.getReportedObstacle());
+        rover.setExecutedCommands(workingRover.getExecutedCommands());
+    }
+
+    private static List<Obstacle> runPrograms(Rover rover, List<CommandProgram> programs){
+        List<Obstacle> reportedObstacles = new ArrayList<>(programs.size());
+        for(CommandProgram program : programs){
+            reportedObstacles.add(rover.executeProgram(program));
+        }
+        return reportedObstacles;
+    }
+
+    /**
+     * Increments the revision of a map in the transaction changing one of its rovers, so clients holding the map
+     * see it changed once the transaction commits.
+     */
+    private void incrementRevision(Map map){
+        if(map != null && map.getId() != null){
+            mapRepository.incrementRevision(map.getId());
+        }
+    }
+
+    private record Execution(Rover rover, List<CommandProgram> programs, List<Obstacle> reportedObstacles) {
+    }
 }
@@ -0,0 +1,440 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Rover;
+import com.martinm1500.marsrover.models.RoverPositions;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Write-behind store of the positions of rovers, used when {@code rover.write-behind.enabled} is set.
+ * The latest state of the rovers executed through it is kept in memory and is the one read and executed on.
+ * Changed rovers are written to the database in batched updates every {@code flush-interval-ms}, as soon as
+ * {@code max-dirty} rovers are waiting, and on shutdown.
+ * <p>
+ * Each update of the database checks the version of the row and increments it, like an update through JPA, so
+ * a rover updated through JPA in between is never overwritten: its state in memory is dropped instead. The revision
+ * of the maps of the written rovers is incremented afterwards. Operations writing rovers through JPA first call
+ * {@link #release(Collection)}. Since a flush can be a while away, {@link #getChangeTag(Long)} tells readers of a
+ * map as soon as one of its rovers changes in memory.
+ * When disabled, the store holds nothing and returns the rovers it is given.
+ */
+@Component
+public class RoverStateStore {
+
+    static final String UPDATE_SQL =
+            "UPDATE rover SET x = ?, y = ?, orientation = ?, version = ? WHERE id = ? AND version = ?";
+
+    static final String INCREMENT_REVISION_SQL = "UPDATE map SET revision = revision + 1 WHERE id = ?";
+
+    /**
+     * Number of counters the changes held in memory are counted in, by map ID; maps sharing a counter only make
+     * each other's clients fetch an unchanged map again.
+     */
+    static final int CHANGE_COUNTERS = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int maxDirty;
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyIds = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final AtomicLong flushedUpdates = new AtomicLong();
+    private final AtomicLong droppedUpdates = new AtomicLong();
+    // Tells apart the counts of successive runs, since states not written before a crash are lost.
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLongArray changes = new AtomicLongArray(CHANGE_COUNTERS);
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public RoverStateStore(JdbcTemplate jdbcTemplate,
+                           @Value("${rover.write-behind.enabled:false}") boolean enabled,
+                           @Value("${rover.write-behind.flush-interval-ms:200}") long flushIntervalMillis,
+                           @Value("${rover.write-behind.max-dirty:500}") int maxDirty) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.maxDirty = Math.max(1, maxDirty);
+        if (enabled) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("rover-write-behind").daemon().factory());
+            scheduler.scheduleWithFixedDelay(this::scheduledFlush, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs an execution on a copy of a rover holding its latest state, then keeps the state the copy ends in.
+     * Executions of the same rover run one at a time. Without write-behind, the execution runs on the rover itself.
+     *
+     * @param rover     The rover, as loaded from the database.
+     * @param execution The execution, which must not write the rover.
+     * @return The result of the execution.
+     */
+    public <T> T update(Rover rover, Function<Rover, T> execution) {
+        if (!enabled) {
+            return execution.apply(rover);
+        }
+        Long roverId = rover.getId();
+        T result;
+        while (true) {
+            Entry entry = entries.computeIfAbsent(roverId,
+                    id -> new Entry(RoverState.of(rover), rover.getVersion(), mapIdOf(rover)));
+            entry.lock.lock();
+            try {
+                if (entry.removed) {
+                    continue;
+                }
+                Rover workingRover = copy(rover, entry);
+                workingRover.setRoverPositions(positions(rover, workingRover));
+                result = execution.apply(workingRover);
+                RoverState next = RoverState.of(workingRover);
+                if (!next.equals(entry.state)) {
+                    entry.state = next;
+                    if (entry.mapId != null) {
+                        // After the state, so a reader seeing the new count also sees the new state.
+                        changes.incrementAndGet(changeCounter(entry.mapId));
+                    }
+                    if (!entry.dirty) {
+                        entry.dirty = true;
+                        entry.dirtySince = System.currentTimeMillis();
+                    }
+                    dirtyIds.add(roverId);
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+            break;
+        }
+        if (dirtyIds.size() >= maxDirty && flushRequested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::scheduledFlush);
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the pending states are written by close.
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a rover with its latest state.
+     *
+     * @param rover The rover, as loaded from the database.
+     * @return A detached copy of the rover if a newer state is held in memory, the rover itself otherwise.
+     */
+    public Rover view(Rover rover) {
+        Entry entry = enabled ? entries.get(rover.getId()) : null;
+        return entry != null ? copy(rover, entry) : rover;
+    }
+
+    /**
+     * Gets several rovers with their latest state, like {@link #view(Rover)}.
+     */
+    public List<Rover> views(List<Rover> rovers) {
+        if (!enabled || entries.isEmpty()) {
+            return rovers;
+        }
+        List<Rover> views = new ArrayList<>(rovers.size());
+        for (Rover rover : rovers) {
+            views.add(view(rover));
+        }
+        return views;
+    }
+
+    /**
+     * Builds the positions of the rovers of the map of a rover, with their latest states, holding another rover
+     * in place of the given one, such as a copy executing for it.
+     *
+     * @param rover       The rover, as loaded from the database.
+     * @param replacement The rover taking its place.
+     * @return The positions of the rovers of the map.
+     */
+    public RoverPositions positions(Rover rover, Rover replacement) {
+        List<Rover> roversOnMap = rover.getMap().getRovers();
+        RoverPositions positions = new RoverPositions(List.of());
+        positions.add(replacement);
+        for (Rover roverOnMap : roversOnMap) {
+            if (roverOnMap != rover && (rover.getId() == null || !rover.getId().equals(roverOnMap.getId()))) {
+                positions.add(view(roverOnMap));
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Writes every pending state and forgets the given rovers, so the database holds their latest state and they
+     * can be read and written through JPA.
+     *
+     * @param roverIds The IDs of the rovers about to be written through JPA.
+     */
+    public void release(Collection<Long> roverIds) {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            flush();
+            for (Long roverId : roverIds) {
+                Entry entry = roverId != null ? entries.get(roverId) : null;
+                if (entry == null) {
+                    continue;
+                }
+                entry.lock.lock();
+                try {
+                    if (entry.dirty) {
+                        // Changed again while the others were written.
+                        write(List.of(roverId), List.of(entry), List.of(entry.state), List.of(entry.version));
+                    }
+                    remove(roverId, entry);
+                } finally {
+                    entry.lock.unlock();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending states of all changed rovers in one batch.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Long> roverIds = new ArrayList<>();
+            List<Entry> flushed = new ArrayList<>();
+            List<RoverState> states = new ArrayList<>();
+            List<Long> versions = new ArrayList<>();
+            for (Iterator<Long> iterator = dirtyIds.iterator(); iterator.hasNext(); ) {
+                Long roverId = iterator.next();
+                iterator.remove();
+                Entry entry = entries.get(roverId);
+                if (entry == null) {
+                    continue;
+                }
+                entry.lock.lock();
+                try {
+                    if (entry.dirty && !entry.removed) {
+                        roverIds.add(roverId);
+                        flushed.add(entry);
+                        states.add(entry.state);
+                        versions.add(entry.version);
+                    }
+                } finally {
+                    entry.lock.unlock();
+                }
+            }
+            if (!roverIds.isEmpty()) {
+                write(roverIds, flushed, states, versions);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Gets a tag of the rover states of a map held in memory, which changes as soon as one of them changes, before
+     * the state is written and the revision of the map incremented. Read before the rovers, it is never newer
+     * than them.
+     *
+     * @param mapId The ID of the map.
+     * @return The tag, or null when write-behind is disabled and the revision alone tells every change.
+     */
+    public String getChangeTag(Long mapId) {
+        if (!enabled) {
+            return null;
+        }
+        return epoch + "." + changes.get(changeCounter(mapId));
+    }
+
+    /**
+     * Gets the number of rovers whose latest state is not written yet.
+     */
+    public int getDirtyCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.dirty) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the durability lag: how long the oldest change not written yet has been waiting.
+     *
+     * @return The age of the oldest pending change in milliseconds, 0 if every change is written.
+     */
+    public long getDurabilityLagMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            long dirtySince = entry.dirtySince;
+            if (entry.dirty && dirtySince < oldest) {
+                oldest = dirtySince;
+            }
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * Gets the number of rover states written since startup.
+     */
+    public long getFlushedUpdates() {
+        return flushedUpdates.get();
+    }
+
+    /**
+     * Gets the number of rover states dropped because their rover was updated through JPA or deleted meanwhile.
+     */
+    public long getDroppedUpdates() {
+        return droppedUpdates.get();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+        }
+    }
+
+    private void scheduledFlush() {
+        flushRequested.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // The states stay pending and are written by the next flush.
+        }
+    }
+
+    /**
+     * Writes states with one batch of updates. Must be called holding the flush lock.
+     */
+    private void write(List<Long> roverIds, List<Entry> flushed, List<RoverState> states, List<Long> versions) {
+        List<Object[]> arguments = new ArrayList<>(roverIds.size());
+        for (int i = 0; i < roverIds.size(); i++) {
+            RoverState state = states.get(i);
+            long version = versions.get(i);
+            arguments.add(new Object[]{state.x(), state.y(), String.valueOf(state.orientation()), version + 1,
+                    roverIds.get(i), version});
+        }
+        int[] counts;
+        try {
+            counts = jdbcTemplate.batchUpdate(UPDATE_SQL, arguments);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < roverIds.size(); i++) {
+                dirtyIds.add(roverIds.get(i));
+            }
+            throw e;
+        }
+        Set<Long> changedMapIds = new LinkedHashSet<>();
+        for (int i = 0; i < roverIds.size(); i++) {
+            Long roverId = roverIds.get(i);
+            Entry entry = flushed.get(i);
+            entry.lock.lock();
+            try {
+                if (counts[i] == 0) {
+                    droppedUpdates.incrementAndGet();
+                    remove(roverId, entry);
+                    continue;
+                }
+                if (entry.mapId != null) {
+                    changedMapIds.add(entry.mapId);
+                }
+                entry.version = versions.get(i) + 1;
+                if (entry.state.equals(states.get(i))) {
+                    entry.dirty = false;
+                } else {
+                    // Changed again while it was written.
+                    dirtyIds.add(roverId);
+                }
+                flushedUpdates.incrementAndGet();
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+        if (!changedMapIds.isEmpty()) {
+            // After the rovers, so a map is never seen at a revision newer than its rovers.
+            List<Object[]> mapArguments = new ArrayList<>(changedMapIds.size());
+            for (Long mapId : changedMapIds) {
+                mapArguments.add(new Object[]{mapId});
+            }
+            jdbcTemplate.batchUpdate(INCREMENT_REVISION_SQL, mapArguments);
+        }
+    }
+
+    private void remove(Long roverId, Entry entry) {
+        entry.removed = true;
+        entry.dirty = false;
+        entries.remove(roverId, entry);
+        dirtyIds.remove(roverId);
+    }
+
+    /**
+     * Copies a rover with its state in memory and the version of the row that state will be written over.
+     */
+    private static Rover copy(Rover rover, Entry entry) {
+        RoverState state = entry.state;
+        Rover copy = new Rover(state.x(), state.y(), state.orientation());
+        copy.setId(rover.getId());
+        copy.setVersion(entry.version);
+        copy.setMap(rover.getMap());
+        return copy;
+    }
+
+    private static int changeCounter(Long mapId) {
+        return Math.floorMod(mapId, CHANGE_COUNTERS);
+    }
+
+    private static Long mapIdOf(Rover rover) {
+        return rover.getMap() != null ? rover.getMap().getId() : null;
+    }
+
+    private record RoverState(int x, int y, char orientation) {
+        static RoverState of(Rover rover) {
+            return new RoverState(rover.getX(), rover.getY(), rover.getOrientation());
+        }
+    }
+
+    private static final class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile RoverState state;
+        private volatile boolean dirty;
+        private volatile long dirtySince;
+        private volatile long version;
+        private final Long mapId;
+        private boolean removed;
+
+        private Entry(RoverState state, long version, Long mapId) {
+            this.state = state;
+            this.version = version;
+            this.mapId = mapId;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.martinm1500.marsrover;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadConfigurationTest {
+
+    private final VirtualThreadConfiguration configuration = new VirtualThreadConfiguration();
+
+    @Test
+    @DisplayName("The Tomcat worker pool is replaced by virtual threads")
+    @SuppressWarnings("unchecked")
+    void testProtocolHandlerRunsOnVirtualThreads() throws Exception {
+        //Arrange
+        Http11NioProtocol protocol = new Http11NioProtocol();
+        TomcatProtocolHandlerCustomizer<AbstractProtocol<?>> customizer =
+                (TomcatProtocolHandlerCustomizer<AbstractProtocol<?>>) configuration.virtualThreadProtocolHandlerCustomizer();
+
+        //Act
+        customizer.customize(protocol);
+        Executor executor = protocol.getExecutor();
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+        executor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+
+        //Assert
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    @DisplayName("Asynchronous handlers run on virtual threads")
+    void testApplicationTaskExecutorRunsOnVirtualThreads() throws Exception {
+        //Arrange
+        AsyncTaskExecutor executor = configuration.applicationTaskExecutor();
+
+        //Act and Assert
+        assertTrue(executor.submit(() -> Thread.currentThread().isVirtual()).get());
+    }
+}
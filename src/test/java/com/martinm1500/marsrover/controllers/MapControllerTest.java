@@ -1,27 +1,38 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.martinm1500.marsrover.dtos.MapDTO;
+import com.martinm1500.marsrover.dtos.PageDTO;
 import com.martinm1500.marsrover.dtos.MapFullDTO;
+import com.martinm1500.marsrover.dtos.SnapshotCacheStatsDTO;
 import com.martinm1500.marsrover.exceptions.InvalidMapDimensionsException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
 import com.martinm1500.marsrover.services.MapServiceImpl;
+import com.martinm1500.marsrover.services.MapSnapshotCache;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -30,6 +41,12 @@ public class MapControllerTest {
     @Mock
     private MapServiceImpl mapService;
 
+    @Mock
+    private MapSnapshotCache snapshotCache;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @InjectMocks
     private MapController mapController;
 
@@ -115,7 +132,8 @@ public class MapControllerTest {
         // Arrange
         Long mapId = 1L;
         Map obtainedMap = new Map(12,12,"Jupiter");
-        obtainedMap.setRover(new Rover(4,4,Rover.NORTH));
+        obtainedMap.addRover(new Rover(4,4,Rover.NORTH));
+        obtainedMap.addRover(new Rover(6,2,Rover.EAST));
         obtainedMap.setObstacles(Arrays.asList(new Obstacle(3,3),new Obstacle(6,3)));
 
         MapFullDTO mapFullDTO = MapFullDTO.convertToFullDTO(obtainedMap);
@@ -124,7 +142,7 @@ public class MapControllerTest {
         when(mapService.getMap(mapId)).thenReturn(obtainedMap);
 
         // Act
-        ResponseEntity<?> response = mapController.getMap(mapId);
+        ResponseEntity<?> response = mapController.getMap(mapId, null);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -132,6 +150,87 @@ public class MapControllerTest {
 
     }
 
+    @Test
+    @DisplayName("Get Map tagged with its revision")
+    void testGetMapTaggedWithRevision() {
+        // Arrange
+        Long mapId = 1L;
+        Map obtainedMap = new Map(12,12,"Jupiter");
+        obtainedMap.setId(mapId);
+        obtainedMap.setRevision(5);
+
+        // Expected service behavior
+        when(mapService.getMapRevision(mapId)).thenReturn(6L);
+        when(mapService.getMap(mapId)).thenReturn(obtainedMap);
+
+        // Act
+        ResponseEntity<?> response = mapController.getMap(mapId, "\"1-4\"");
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"1-5\"", response.getHeaders().getETag());
+        assertEquals(MapFullDTO.convertToFullDTO(obtainedMap), response.getBody());
+    }
+
+    @Test
+    @DisplayName("Get Map - a rover moved in memory by write-behind changes the tag before the revision")
+    void testGetMapTaggedWithRoverChanges() {
+        // Arrange
+        Long mapId = 1L;
+        Map obtainedMap = new Map(12,12,"Jupiter");
+        obtainedMap.setId(mapId);
+        obtainedMap.setRevision(5);
+
+        // Expected service behavior
+        when(mapService.getMapRevision(mapId)).thenReturn(5L);
+        when(mapService.getRoverChangeTag(mapId)).thenReturn("1700000000000.3");
+        when(mapService.getMap(mapId)).thenReturn(obtainedMap);
+
+        // Act
+        ResponseEntity<?> response = mapController.getMap(mapId, "\"1-5-1700000000000.2\"");
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"1-5-1700000000000.3\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    @DisplayName("Get Map - unchanged since the tag held by the client, 304 without loading the map")
+    void testGetMapNotModified() {
+        // Arrange
+        Long mapId = 1L;
+
+        // Expected service behavior
+        when(mapService.getMapRevision(mapId)).thenReturn(5L);
+
+        // Act
+        ResponseEntity<?> response = mapController.getMap(mapId, "\"1-3\", W/\"1-5\"");
+
+        // Assert
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"1-5\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+        verify(mapService, never()).getMap(any());
+    }
+
+    @Test
+    @DisplayName("Get Map with a tag - MapNotFoundException")
+    void testGetMapWithTagMapNotFoundException() {
+        // Arrange
+        Long mapId = 1L;
+        String errorMessage = "Could not find map with ID: " + mapId;
+
+        // Expected service behavior
+        when(mapService.getMapRevision(mapId)).thenThrow(new MapNotFoundException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = mapController.getMap(mapId, "\"1-5\"");
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
     @Test
     @DisplayName("Get Map - MapNotFoundException")
     void testGetMapMapNotFoundException() {
@@ -143,7 +242,7 @@ public class MapControllerTest {
         when(mapService.getMap(mapId)).thenThrow(new MapNotFoundException(errorMessage));
 
         // Act
-        ResponseEntity<?> response = mapController.getMap(mapId);
+        ResponseEntity<?> response = mapController.getMap(mapId, null);
 
         // Assert
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
@@ -170,4 +269,88 @@ public class MapControllerTest {
         List<MapDTO> obtainedMapDTOs = response.getBody();
         assertEquals(maps.size(), obtainedMapDTOs.size());
     }
+
+    @Test
+    @DisplayName("Get the hit and miss counters of the map snapshot cache")
+    void testGetSnapshotCacheStats() {
+        // Expected cache behavior
+        when(snapshotCache.getSize()).thenReturn(3);
+        when(snapshotCache.getHits()).thenReturn(950L);
+        when(snapshotCache.getMisses()).thenReturn(50L);
+
+        // Act
+        ResponseEntity<?> response = mapController.getSnapshotCacheStats();
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        SnapshotCacheStatsDTO stats = (SnapshotCacheStatsDTO) response.getBody();
+        assertEquals(3, stats.getEntries());
+        assertEquals(950L, stats.getHits());
+        assertEquals(50L, stats.getMisses());
+        assertEquals(0L, stats.getEvictions());
+    }
+
+    @Test
+    @DisplayName("Get pages of the maps, following the cursors")
+    @SuppressWarnings("unchecked")
+    void testGetMapsPages() {
+        // Arrange
+        Map firstMap = mapWithId(1L, "Jupiter");
+        Map secondMap = mapWithId(5L, "Tierra");
+        Map thirdMap = mapWithId(8L, "Marte");
+
+        // Expected service behavior
+        when(mapService.getMapsAfter(0L, 3)).thenReturn(List.of(firstMap, secondMap, thirdMap));
+        when(mapService.getMapsAfter(5L, 3)).thenReturn(List.of(thirdMap));
+
+        // Act
+        PageDTO<MapDTO> firstPage = (PageDTO<MapDTO>) mapController.getMapsPage(null, 2).getBody();
+        PageDTO<MapDTO> lastPage = (PageDTO<MapDTO>) mapController.getMapsPage(firstPage.getNextCursor(), 2).getBody();
+
+        // Assert
+        assertEquals(List.of(MapDTO.convertToDTO(firstMap), MapDTO.convertToDTO(secondMap)), firstPage.getItems());
+        assertEquals(List.of(MapDTO.convertToDTO(thirdMap)), lastPage.getItems());
+        assertNull(lastPage.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("Get a page of maps with an invalid cursor - Bad Request")
+    void testGetMapsPageInvalidCursor() {
+        // Act
+        ResponseEntity<?> response = mapController.getMapsPage("%%%", 10);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Invalid cursor: %%%", response.getBody());
+        verifyNoInteractions(mapService);
+    }
+
+    @Test
+    @DisplayName("Stream all maps as one JSON array")
+    void testStreamAllMaps() throws IOException {
+        // Arrange
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Expected service behavior
+        doAnswer(invocation -> {
+            Consumer<Map> action = invocation.getArgument(0);
+            action.accept(mapWithId(1L, "Jupiter"));
+            return null;
+        }).when(mapService).streamAllMaps(any());
+
+        // Act
+        ResponseEntity<StreamingResponseBody> response = mapController.streamAllMaps();
+        response.getBody().writeTo(output);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("[{\"id\":1,\"name\":\"Jupiter\",\"dimensionX\":12,\"dimensionY\":12}]",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Map mapWithId(Long mapId, String name) {
+        Map map = new Map(12,12,name);
+        map.setId(mapId);
+        return map;
+    }
 }
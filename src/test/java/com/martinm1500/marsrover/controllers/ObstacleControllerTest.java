@@ -1,25 +1,40 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.martinm1500.marsrover.dtos.ObstacleDTO;
+import com.martinm1500.marsrover.dtos.ObstacleDeletionDTO;
+import com.martinm1500.marsrover.dtos.ObstacleImportDTO;
+import com.martinm1500.marsrover.dtos.PageDTO;
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.ObstacleNotFoundException;
 import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
 import com.martinm1500.marsrover.services.ObstacleServiceImpl;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -28,6 +43,9 @@ public class ObstacleControllerTest {
     @Mock
     private ObstacleServiceImpl obstacleService;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @InjectMocks
     private ObstacleController obstacleController;
 
@@ -166,4 +184,251 @@ public class ObstacleControllerTest {
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         assertEquals(errorMessage, response.getBody());
     }
+
+    @Test
+    @DisplayName("Get Obstacles In Region Successfully")
+    void testGetObstaclesInRegionSuccessfully() {
+        // Arrange
+        Long mapId = 1L;
+        List<Obstacle> obstacles = Arrays.asList(new Obstacle(2,3), new Obstacle(5,7));
+
+        List<ObstacleDTO> obstacleDTOs = obstacles.stream()
+                .map(ObstacleDTO::convertToDTO)
+                .collect(Collectors.toList());
+
+        // Expected service behavior
+        when(obstacleService.getAllInRegion(mapId, 1, 1, 6, 8)).thenReturn(obstacles);
+
+        // Act
+        ResponseEntity<?> response = obstacleController.getObstaclesInRegion(mapId, 1, 1, 6, 8);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(obstacleDTOs,response.getBody());
+    }
+
+    @Test
+    @DisplayName("Get Obstacles In Region - InvalidCoordinatesException")
+    void testGetObstaclesInRegionInvalidCoordinatesException() {
+        // Arrange
+        Long mapId = 1L;
+        String errorMessage = "Invalid region";
+
+        // Expected service behavior
+        when(obstacleService.getAllInRegion(mapId, 6, 1, 1, 8)).thenThrow(new InvalidCoordinatesException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = obstacleController.getObstaclesInRegion(mapId, 6, 1, 1, 8);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Get a page of the obstacles of a map with the cursor of the next page")
+    @SuppressWarnings("unchecked")
+    void testGetObstaclesPage() {
+        // Arrange
+        Long mapId = 1L;
+        List<Obstacle> obstacles = Arrays.asList(obstacleWithId(4L, 1, 1), obstacleWithId(9L, 2, 2), obstacleWithId(12L, 3, 3));
+
+        // Expected service behavior
+        when(obstacleService.getFromMapAfter(mapId, 3L, 3)).thenReturn(obstacles);
+
+        // Act
+        ResponseEntity<?> response = obstacleController.getObstaclesPage(mapId, KeysetPages.cursor(3L), 2);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        PageDTO<ObstacleDTO> page = (PageDTO<ObstacleDTO>) response.getBody();
+        assertEquals(List.of(ObstacleDTO.convertToDTO(obstacles.get(0)), ObstacleDTO.convertToDTO(obstacles.get(1))), page.getItems());
+        assertEquals(KeysetPages.cursor(9L), page.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("Get the last page of the obstacles of a map, without a next cursor")
+    @SuppressWarnings("unchecked")
+    void testGetLastObstaclesPage() {
+        // Arrange
+        Long mapId = 1L;
+        List<Obstacle> obstacles = List.of(obstacleWithId(4L, 1, 1));
+
+        // Expected service behavior
+        when(obstacleService.getFromMapAfter(mapId, 0L, 101)).thenReturn(obstacles);
+
+        // Act
+        ResponseEntity<?> response = obstacleController.getObstaclesPage(mapId, null, 100);
+
+        // Assert
+        PageDTO<ObstacleDTO> page = (PageDTO<ObstacleDTO>) response.getBody();
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("Get a page of obstacles with an invalid cursor or size - Bad Request")
+    void testGetObstaclesPageInvalidRequest() {
+        // Act
+        ResponseEntity<?> invalidCursor = obstacleController.getObstaclesPage(1L, "not a cursor", 10);
+        ResponseEntity<?> invalidSize = obstacleController.getObstaclesPage(1L, null, KeysetPages.MAX_SIZE + 1);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, invalidCursor.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, invalidSize.getStatusCode());
+        verifyNoInteractions(obstacleService);
+    }
+
+    @Test
+    @DisplayName("Stream the obstacles of a map as one JSON array")
+    void testStreamAllObstaclesFromMap() throws IOException {
+        // Arrange
+        Long mapId = 1L;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        // Expected service behavior
+        when(obstacleService.countAllFromMap(mapId)).thenReturn(2L);
+        doAnswer(invocation -> {
+            Consumer<Obstacle> action = invocation.getArgument(1);
+            action.accept(new Obstacle(2,3));
+            action.accept(new Obstacle(5,1));
+            return null;
+        }).when(obstacleService).streamAllFromMap(eq(mapId), any());
+
+        // Act
+        ResponseEntity<?> response = obstacleController.streamAllObstaclesFromMap(mapId);
+        ((StreamingResponseBody) response.getBody()).writeTo(output);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.APPLICATION_JSON, response.getHeaders().getContentType());
+        assertEquals("2", response.getHeaders().getFirst("X-Total-Count"));
+        assertEquals("[{\"x\":2,\"y\":3},{\"x\":5,\"y\":1}]", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Stream the obstacles of a non-existing map - Not Found before streaming")
+    void testStreamAllObstaclesFromNonExistingMap() {
+        // Arrange
+        Long mapId = 1L;
+        String errorMessage = "Could not find map with ID: " + mapId;
+
+        // Expected service behavior
+        when(obstacleService.countAllFromMap(mapId)).thenThrow(new MapNotFoundException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = obstacleController.streamAllObstaclesFromMap(mapId);
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+        verify(obstacleService, never()).streamAllFromMap(any(), any());
+    }
+
+    @Test
+    @DisplayName("Import obstacles from CSV - Created with the throughput")
+    void testImportObstaclesFromCsv() {
+        // Arrange
+        Long mapId = 1L;
+
+        // Expected service behavior
+        when(obstacleService.importObstacles(eq(mapId), any(ObstacleCoordinates.class))).thenAnswer(invocation -> {
+            ObstacleCoordinates coordinates = invocation.getArgument(1);
+            assertEquals(2, coordinates.size());
+            assertEquals(5, coordinates.getX(1));
+            return coordinates.size();
+        });
+
+        // Act
+        ResponseEntity<?> response = obstacleController.importObstacles(mapId, "text/csv",
+                new ByteArrayInputStream("x,y\n2,3\n5,1\n".getBytes(StandardCharsets.US_ASCII)));
+
+        // Assert
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+        ObstacleImportDTO importDTO = (ObstacleImportDTO) response.getBody();
+        assertEquals(mapId, importDTO.getMapId());
+        assertEquals(2, importDTO.getImportedObstacles());
+    }
+
+    @Test
+    @DisplayName("Import obstacles from malformed JSON - Bad Request without importing")
+    void testImportObstaclesFromMalformedJson() {
+        // Act
+        ResponseEntity<?> response = obstacleController.importObstacles(1L, MediaType.APPLICATION_JSON_VALUE,
+                new ByteArrayInputStream("[{\"x\":2}]".getBytes(StandardCharsets.UTF_8)));
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verify(obstacleService, never()).importObstacles(any(), any());
+    }
+
+    @Test
+    @DisplayName("Import obstacles on positions taken during the import - Conflict")
+    void testImportObstaclesConflict() {
+        // Expected service behavior
+        when(obstacleService.importObstacles(eq(1L), any(ObstacleCoordinates.class)))
+                .thenThrow(new ConcurrentUpdateException("An obstacle was created on one of the imported positions during the import"));
+
+        // Act
+        ResponseEntity<?> response = obstacleController.importObstacles(1L, MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                new ByteArrayInputStream(new byte[]{0, 0, 0, 2, 0, 0, 0, 3}));
+
+        // Assert
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals("An obstacle was created on one of the imported positions during the import", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Delete Obstacles in Region Successfully")
+    void testDeleteObstaclesInRegionSuccessfully() {
+        // Expected service behavior
+        when(obstacleService.deleteInRegion(1L, 2, 3, 8, 9)).thenReturn(4);
+
+        // Act
+        ResponseEntity<?> response = obstacleController.deleteObstaclesInRegion(1L, 2, 3, 8, 9);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(ObstacleDeletionDTO.of(1L, 4), response.getBody());
+    }
+
+    @Test
+    @DisplayName("Delete Obstacles in Region - InvalidCoordinatesException")
+    void testDeleteObstaclesInRegionInvalidCoordinatesException() {
+        // Arrange
+        String errorMessage = "Invalid region: (5, 1) must not be greater than (4, 2)";
+
+        // Expected service behavior
+        when(obstacleService.deleteInRegion(1L, 5, 1, 4, 2)).thenThrow(new InvalidCoordinatesException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = obstacleController.deleteObstaclesInRegion(1L, 5, 1, 4, 2);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Delete All Obstacles from Map - MapNotFoundException")
+    void testDeleteAllObstaclesFromMapMapNotFoundException() {
+        // Arrange
+        String errorMessage = "Could not find map with ID: 1";
+
+        // Expected service behavior
+        when(obstacleService.deleteAllFromMap(1L)).thenThrow(new MapNotFoundException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = obstacleController.deleteAllObstaclesFromMap(1L);
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
+    private static Obstacle obstacleWithId(Long obstacleId, int x, int y) {
+        Obstacle obstacle = new Obstacle(x, y);
+        obstacle.setId(obstacleId);
+        return obstacle;
+    }
 }
@@ -1,10 +1,18 @@
 package com.martinm1500.marsrover.controllers;
 
+import com.martinm1500.marsrover.dtos.BatchOutcomeDTO;
 import com.martinm1500.marsrover.dtos.RoverDTO;
+import com.martinm1500.marsrover.dtos.WriteBehindStatsDTO;
+import com.martinm1500.marsrover.dtos.MissionDTO;
 import com.martinm1500.marsrover.exceptions.*;
+import com.martinm1500.marsrover.models.CommandProgram;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
+import com.martinm1500.marsrover.models.StepListener;
+import com.martinm1500.marsrover.services.RoverMailboxExecutor;
+import com.martinm1500.marsrover.services.RoverService;
 import com.martinm1500.marsrover.services.RoverServiceImpl;
+import com.martinm1500.marsrover.services.RoverStateStore;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,11 +20,22 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.mockito.ArgumentMatchers.eq;
@@ -31,6 +50,12 @@ public class RoverControllerTest {
     @Mock
     private RoverServiceImpl roverService;
 
+    @Mock
+    private RoverMailboxExecutor mailboxExecutor;
+
+    @Mock
+    private RoverStateStore stateStore;
+
     @Test
     @DisplayName("Create Rover Successfully")
     void testCreateRover() {
@@ -138,7 +163,7 @@ public class RoverControllerTest {
     }
 
     @Test
-    @DisplayName("Create Rover - InvalidOperationException (Map already has a rover)")
+    @DisplayName("Create Rover - InvalidOperationException")
     void testCreateRoverInvalidOperationException() {
         // Arrange
         Long mapId = 1L;  // ID of a valid map (8x8)
@@ -237,6 +262,27 @@ public class RoverControllerTest {
         assertEquals(errorMessage, response.getBody());
     }
 
+    @Test
+    @DisplayName("Update Rover - ConcurrentUpdateException")
+    void testUpdateRoverConcurrentUpdate(){
+        // Arrange
+        Long roverId = 1L;
+        Rover roverToUpdate = new Rover(4,6,Rover.SOUTH);
+        roverToUpdate.setId(roverId);
+
+        String errorMessage = "The rover with ID: 1 was updated concurrently; gave up after 3 attempts";
+
+        // Expected service behavior
+        when(roverService.updateRover(roverToUpdate)).thenThrow(new ConcurrentUpdateException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = roverController.updateRover(roverToUpdate);
+
+        // Assert
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
 
     @Test
     @DisplayName("Update Rover - InvalidCoordinatesException (Position Not on Map)")
@@ -345,38 +391,40 @@ public class RoverControllerTest {
 
     //------------------------------------------------------------------------------------------------------------------
     @Test
-    @DisplayName("Get Rover By Map ID Successfully")
-    void testGetRoverByMapId() {
+    @DisplayName("Get Rovers By Map ID Successfully")
+    void testGetRoversByMapId() {
         // Arrange
         Long mapId = 1L;
         Rover obtainedRover = new Rover(4,4,Rover.SOUTH);
         obtainedRover.setId(1L);
+        Rover otherRover = new Rover(6,2,Rover.EAST);
+        otherRover.setId(2L);
 
-        RoverDTO obtainedRoverDTO = RoverDTO.convertToDTO(obtainedRover);
+        List<RoverDTO> obtainedRoverDTOs = List.of(RoverDTO.convertToDTO(obtainedRover), RoverDTO.convertToDTO(otherRover));
 
         // Expected service behavior
-        when(roverService.getRoverByMapId(mapId)).thenReturn(obtainedRover);
+        when(roverService.getRoversByMapId(mapId)).thenReturn(List.of(obtainedRover, otherRover));
 
         // Act
-        ResponseEntity<?> response = roverController.getRoverByMapId(mapId);
+        ResponseEntity<?> response = roverController.getRoversByMapId(mapId);
 
         // Assert
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals(obtainedRoverDTO, response.getBody());
+        assertEquals(obtainedRoverDTOs, response.getBody());
     }
 
     @Test
-    @DisplayName("Get Rover By Map ID - MapNotFoundException")
-    void testGetRoverByMapIdMapNotFoundException() {
+    @DisplayName("Get Rovers By Map ID - MapNotFoundException")
+    void testGetRoversByMapIdMapNotFoundException() {
         // Arrange
         Long mapId = 1L;
         String errorMessage = "No rover found for map with ID: " + mapId;
 
         // Expected service behavior
-        when(roverService.getRoverByMapId(mapId)).thenThrow(new MapNotFoundException(errorMessage));
+        when(roverService.getRoversByMapId(mapId)).thenThrow(new MapNotFoundException(errorMessage));
 
         // Act
-        ResponseEntity<?> response = roverController.getRoverByMapId(mapId);
+        ResponseEntity<?> response = roverController.getRoversByMapId(mapId);
 
         // Assert
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
@@ -461,4 +509,346 @@ public class RoverControllerTest {
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertEquals(errorMessage, response.getBody());
     }
+
+    @Test
+    @DisplayName("Execute Command String Successfully (No Obstacle)")
+    void testExecuteCommandStringNoObstacle() {
+        // Arrange
+        Long roverId = 1L;
+
+        //Expected service behavior
+        when(roverService.executeProgram(roverId, CommandProgram.parse("ffr"))).thenReturn(null);
+
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandString(roverId, "ffr", 1);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    @DisplayName("Get the durability lag of the write-behind store")
+    void testGetWriteBehindStats() {
+        //Expected store behavior
+        when(stateStore.isEnabled()).thenReturn(true);
+        when(stateStore.getDirtyCount()).thenReturn(12);
+        when(stateStore.getDurabilityLagMillis()).thenReturn(150L);
+        when(stateStore.getFlushedUpdates()).thenReturn(4000L);
+
+        // Act
+        ResponseEntity<?> response = roverController.getWriteBehindStats();
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        WriteBehindStatsDTO stats = (WriteBehindStatsDTO) response.getBody();
+        assertEquals(12, stats.getDirtyRovers());
+        assertEquals(150L, stats.getDurabilityLagMillis());
+        assertEquals(4000L, stats.getFlushedUpdates());
+        assertEquals(0L, stats.getDroppedUpdates());
+    }
+
+    @Test
+    @DisplayName("Queue Command String with Obstacle (Conflict)")
+    void testQueueCommandStringWithObstacle() {
+        // Arrange
+        Long roverId = 1L;
+        Obstacle obstacle = new Obstacle(4,2);
+
+        //Expected mailbox behavior
+        when(mailboxExecutor.submit(roverId, CommandProgram.parse("ff"))).thenReturn(CompletableFuture.completedFuture(obstacle));
+
+        // Act
+        ResponseEntity<?> response = roverController.queueCommandString(roverId, "ff", 1).join();
+
+        // Assert
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals("Mission aborted due to obstacle at coordinates: (4, 2)", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Queue Command String for a rover that does not exist")
+    void testQueueCommandStringRoverNotFound() {
+        // Arrange
+        Long roverId = 1L;
+        String errorMessage = "Could not find rover with ID: " + roverId;
+
+        //Expected mailbox behavior
+        when(mailboxExecutor.submit(roverId, CommandProgram.parse("f")))
+                .thenReturn(CompletableFuture.failedFuture(new RoverNotFoundException(errorMessage)));
+
+        // Act
+        ResponseEntity<?> response = roverController.queueCommandString(roverId, "f", 1).join();
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Queue Command String with invalid commands is rejected before queueing")
+    void testQueueCommandStringInvalidCommand() {
+        // Act
+        ResponseEntity<?> response = roverController.queueCommandString(1L, "fx", 1).join();
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(mailboxExecutor);
+    }
+
+    @Test
+    @DisplayName("Execute Command Bytes with Obstacle (Conflict)")
+    void testExecuteCommandBytesWithObstacle() {
+        // Arrange
+        Long roverId = 1L;
+        Obstacle obstacle = new Obstacle(3, 5);
+
+        //Expected service behavior
+        when(roverService.executeProgram(roverId, CommandProgram.parse("frf"))).thenReturn(obstacle);
+
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandBytes(roverId, new byte[]{'f', 'r', 'f'}, 1);
+
+        // Assert
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        assertEquals("Mission aborted due to obstacle at coordinates: (3, 5)", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Execute Command String - InvalidCommandException")
+    void testExecuteCommandStringInvalidCommand() {
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandString(1L, "fxf", 1);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(roverService);
+    }
+
+    @Test
+    @DisplayName("Execute Command String Repeated")
+    void testExecuteCommandStringRepeated() {
+        // Arrange
+        Long roverId = 1L;
+
+        //Expected service behavior
+        when(roverService.executeProgram(roverId, CommandProgram.parse("frfl").repeat(1000))).thenReturn(null);
+
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandString(roverId, "frfl", 1000);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("Execute Command Bytes - Invalid Repetitions")
+    void testExecuteCommandBytesInvalidRepetitions() {
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandBytes(1L, new byte[]{'f'}, 0);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        verifyNoInteractions(roverService);
+    }
+
+    @Test
+    @DisplayName("Simulate Commands with Obstacle")
+    void testSimulateCommandsWithObstacle() {
+        // Arrange
+        Long roverId = 1L;
+        Rover simulatedRover = new Rover(3, 3, Rover.SOUTH);
+        simulatedRover.setId(roverId);
+        simulatedRover.setReportedObstacle(new Obstacle(3, 4));
+
+        //Expected service behavior
+        when(roverService.simulateProgram(roverId, CommandProgram.parse("ffrfff"))).thenReturn(simulatedRover);
+
+        // Act
+        ResponseEntity<?> response = roverController.simulateCommands(roverId, List.of('f', 'f', 'r', 'f', 'f', 'f'));
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        MissionDTO missionDTO = (MissionDTO) response.getBody();
+        assertEquals(roverId, missionDTO.getRoverId());
+        assertEquals(3, missionDTO.getX());
+        assertEquals(3, missionDTO.getY());
+        assertEquals(Rover.SOUTH, missionDTO.getOrientation());
+        assertEquals(3, missionDTO.getObstacle().getX());
+        assertEquals(4, missionDTO.getObstacle().getY());
+    }
+
+    @Test
+    @DisplayName("Simulate Command String - RoverNotFoundException")
+    void testSimulateCommandStringRoverNotFound() {
+        // Arrange
+        Long roverId = 1L;
+        String errorMessage = "Could not find rover with ID: " + roverId;
+
+        //Expected service behavior
+        when(roverService.simulateProgram(roverId, CommandProgram.parse("f10"))).thenThrow(new RoverNotFoundException(errorMessage));
+
+        // Act
+        ResponseEntity<?> response = roverController.simulateCommandString(roverId, "f10", 1);
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals(errorMessage, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Execute Command Stream Successfully")
+    void testExecuteCommandStream() {
+        // Arrange
+        Long roverId = 1L;
+        InputStream commands = new ByteArrayInputStream("f5000".getBytes(StandardCharsets.US_ASCII));
+        Rover rover = new Rover(2, 4, Rover.EAST);
+        rover.setId(roverId);
+        rover.setExecutedCommands(5000);
+
+        //Expected service behavior
+        when(roverService.executeStream(roverId, commands)).thenReturn(rover);
+
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandStream(roverId, commands);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        MissionDTO missionDTO = (MissionDTO) response.getBody();
+        assertEquals(5000, missionDTO.getSteps());
+        assertEquals(2, missionDTO.getX());
+        assertNull(missionDTO.getObstacle());
+    }
+
+    @Test
+    @DisplayName("Execute Command Stream - InvalidCommandException")
+    void testExecuteCommandStreamInvalidCommand() {
+        // Arrange
+        Long roverId = 1L;
+        InputStream commands = new ByteArrayInputStream("fx".getBytes(StandardCharsets.US_ASCII));
+
+        //Expected service behavior
+        when(roverService.executeStream(roverId, commands)).thenThrow(new InvalidCommandException("Invalid command 'x'"));
+
+        // Act
+        ResponseEntity<?> response = roverController.executeCommandStream(roverId, commands);
+
+        // Assert
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Invalid command 'x'", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Trace Command String as NDJSON")
+    void testTraceCommandStringNdjson() throws IOException {
+        // Arrange
+        Long roverId = 1L;
+        Obstacle obstacle = new Obstacle(4, 2);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        //Expected service behavior
+        when(roverService.getRover(roverId)).thenReturn(new Rover(4, 4, Rover.NORTH));
+        when(roverService.executeTraced(eq(roverId), eq(CommandProgram.parse("f2")), any())).thenAnswer(invocation -> {
+            StepListener listener = invocation.getArgument(2);
+            listener.onStep(4, 4, Rover.NORTH);
+            listener.onStep(4, 3, Rover.NORTH);
+            return obstacle;
+        });
+
+        // Act
+        ResponseEntity<?> response = roverController.traceCommandString(roverId, "f2", 1);
+        ((StreamingResponseBody) response.getBody()).writeTo(output);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.APPLICATION_NDJSON, response.getHeaders().getContentType());
+        assertEquals("{\"x\":4,\"y\":4,\"orientation\":\"N\"}\n" +
+                "{\"x\":4,\"y\":3,\"orientation\":\"N\"}\n" +
+                "{\"obstacle\":{\"x\":4,\"y\":2}}\n", output.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    @DisplayName("Trace Command String as binary records")
+    void testTraceCommandStringBinary() throws IOException {
+        // Arrange
+        Long roverId = 1L;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        //Expected service behavior
+        when(roverService.getRover(roverId)).thenReturn(new Rover(4, 4, Rover.NORTH));
+        when(roverService.executeTraced(eq(roverId), eq(CommandProgram.parse("r")), any())).thenAnswer(invocation -> {
+            StepListener listener = invocation.getArgument(2);
+            listener.onStep(4, 4, Rover.NORTH);
+            listener.onStep(4, 4, Rover.EAST);
+            return null;
+        });
+
+        // Act
+        ResponseEntity<?> response = roverController.traceCommandStringBinary(roverId, "r", 1);
+        ((StreamingResponseBody) response.getBody()).writeTo(output);
+
+        // Assert
+        assertArrayEquals(new byte[]{'P', 0, 0, 0, 4, 0, 0, 0, 4, 'N', 'P', 0, 0, 0, 4, 0, 0, 0, 4, 'E'}, output.toByteArray());
+    }
+
+    @Test
+    @DisplayName("Trace Command String - RoverNotFoundException before streaming")
+    void testTraceCommandStringRoverNotFound() {
+        // Arrange
+        Long roverId = 1L;
+
+        //Expected service behavior
+        when(roverService.getRover(roverId)).thenThrow(new RoverNotFoundException("Could not find rover with ID: 1"));
+
+        // Act
+        ResponseEntity<?> response = roverController.traceCommandString(roverId, "f", 1);
+
+        // Assert
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        verify(roverService, never()).executeTraced(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Execute Batch with completed, aborted, invalid, missing and conflicting rovers")
+    @SuppressWarnings("unchecked")
+    void testExecuteBatch() {
+        // Arrange
+        Rover completedRover = new Rover(3, 1, Rover.EAST);
+        completedRover.setId(10L);
+        Rover abortedRover = new Rover(4, 3, Rover.NORTH);
+        abortedRover.setId(20L);
+        abortedRover.setReportedObstacle(new Obstacle(4, 2));
+        LinkedHashMap<Long, String> commands = new LinkedHashMap<>();
+        commands.put(10L, "f2");
+        commands.put(20L, "f3");
+        commands.put(30L, "fx");
+        commands.put(40L, "f");
+        commands.put(50L, "r");
+        LinkedHashMap<Long, CommandProgram> programs = new LinkedHashMap<>();
+        programs.put(10L, CommandProgram.parse("f2"));
+        programs.put(20L, CommandProgram.parse("f3"));
+        programs.put(40L, CommandProgram.parse("f"));
+        programs.put(50L, CommandProgram.parse("r"));
+
+        //Expected service behavior
+        when(roverService.executeBatch(programs))
+                .thenReturn(new RoverService.BatchResult(List.of(completedRover, abortedRover), Set.of(50L)));
+
+        // Act
+        ResponseEntity<?> response = roverController.executeBatch(commands);
+
+        // Assert
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        List<BatchOutcomeDTO> outcomes = (List<BatchOutcomeDTO>) response.getBody();
+        assertEquals(5, outcomes.size());
+        assertEquals(BatchOutcomeDTO.Status.COMPLETED, outcomes.get(0).getStatus());
+        assertEquals(3, outcomes.get(0).getMission().getX());
+        assertEquals(BatchOutcomeDTO.Status.ABORTED, outcomes.get(1).getStatus());
+        assertEquals(2, outcomes.get(1).getMission().getObstacle().getY());
+        assertEquals(BatchOutcomeDTO.Status.INVALID_COMMANDS, outcomes.get(2).getStatus());
+        assertEquals(BatchOutcomeDTO.Status.NOT_FOUND, outcomes.get(3).getStatus());
+        assertEquals("Could not find rover with ID: 40", outcomes.get(3).getMessage());
+        assertEquals(BatchOutcomeDTO.Status.CONFLICT, outcomes.get(4).getStatus());
+        assertEquals(50L, outcomes.get(4).getRoverId());
+    }
 }
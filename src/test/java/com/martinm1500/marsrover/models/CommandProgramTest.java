@@ -0,0 +1,111 @@
+package com.martinm1500.marsrover.models;
+
+import com.martinm1500.marsrover.exceptions.InvalidCommandException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandProgramTest {
+
+    @Test
+    @DisplayName("A command string compiles to one run per command.")
+    void testParseCommandString() {
+        CommandProgram program = CommandProgram.parse("fbl r\n");
+
+        assertEquals(4, program.length());
+        assertEquals(4, program.runCount());
+        assertEquals(CommandProgram.MOVE_FORWARD, program.opcodeOfRun(0));
+        assertEquals(CommandProgram.MOVE_BACKWARD, program.opcodeOfRun(1));
+        assertEquals(CommandProgram.TURN_LEFT, program.opcodeOfRun(2));
+        assertEquals(CommandProgram.TURN_RIGHT, program.opcodeOfRun(3));
+    }
+
+    @Test
+    @DisplayName("Repeat counts and consecutive identical commands compile to runs.")
+    void testParseRunLengthCommands() {
+        CommandProgram program = CommandProgram.parse("f5000r2b300ff");
+
+        assertEquals(5304, program.length());
+        assertEquals(4, program.runCount());
+        assertEquals(CommandProgram.MOVE_FORWARD, program.opcodeOfRun(0));
+        assertEquals(5000, program.repeatOfRun(0));
+        assertEquals(CommandProgram.TURN_RIGHT, program.opcodeOfRun(1));
+        assertEquals(2, program.repeatOfRun(1));
+        assertEquals(CommandProgram.MOVE_BACKWARD, program.opcodeOfRun(2));
+        assertEquals(300, program.repeatOfRun(2));
+        assertEquals(2, program.repeatOfRun(3));
+        assertEquals(CommandProgram.parse("fff"), CommandProgram.parse("f2f"));
+    }
+
+    @Test
+    @DisplayName("A JSON list of commands takes one command per element and rejects repeat counts.")
+    void testListRejectsRepeatCounts() {
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.of(List.of('f', '9')));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.of(List.of('f', '1', '2')));
+        assertEquals(CommandProgram.parse("f2r"), CommandProgram.of(List.of('f', 'f', 'r')));
+    }
+
+    @Test
+    @DisplayName("String, byte and list forms of the same commands compile to the same program.")
+    void testAllFormsCompileToSameProgram() {
+        CommandProgram fromString = CommandProgram.parse("ffrblb");
+        CommandProgram fromBytes = CommandProgram.fromBytes("ffrblb".getBytes(StandardCharsets.US_ASCII));
+        CommandProgram fromList = CommandProgram.of(List.of('f', 'f', 'r', 'b', 'l', 'b'));
+
+        assertEquals(fromString, fromBytes);
+        assertEquals(fromString, fromList);
+    }
+
+    @Test
+    @DisplayName("Invalid commands are rejected when the program is compiled.")
+    void testInvalidCommandsRejected() {
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("ffx"));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("F"));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.fromBytes(new byte[]{'f', (byte) 0xE9}));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.of(List.of('f', ' ')));
+    }
+
+    @Test
+    @DisplayName("Repeat counts must be positive, fit in an int and follow a command.")
+    void testInvalidRepeatCountsRejected() {
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("f0"));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("f2147483648"));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("5f"));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.parse("f 5"));
+    }
+
+    @Test
+    @DisplayName("A repeated program keeps its runs and records the number of repetitions.")
+    void testRepeatProgram() {
+        CommandProgram body = CommandProgram.parse("f3r");
+        CommandProgram repeated = body.repeat(1000);
+
+        assertEquals(1, body.repetitions());
+        assertEquals(1000, repeated.repetitions());
+        assertEquals(4, repeated.length());
+        assertEquals(2, repeated.runCount());
+        assertNotEquals(body, repeated);
+        assertEquals(body, repeated.repeat(1));
+        assertThrows(InvalidCommandException.class, () -> body.repeat(0));
+    }
+
+    @Test
+    @DisplayName("A program rebuilt from its runs equals the original.")
+    void testProgramOfRuns() {
+        CommandProgram program = CommandProgram.parse("f5000r2b300").repeat(3);
+        byte[] opcodes = new byte[program.runCount()];
+        int[] repeats = new int[program.runCount()];
+        for (int run = 0; run < program.runCount(); run++) {
+            opcodes[run] = program.opcodeOfRun(run);
+            repeats[run] = program.repeatOfRun(run);
+        }
+
+        assertEquals(program, CommandProgram.ofRuns(opcodes, repeats, 3));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.ofRuns(new byte[]{7}, new int[]{1}, 1));
+        assertThrows(InvalidCommandException.class, () -> CommandProgram.ofRuns(new byte[]{0}, new int[]{0}, 1));
+    }
+}
@@ -0,0 +1,62 @@
+package com.martinm1500.marsrover.models;
+
+import com.martinm1500.marsrover.exceptions.InvalidCommandException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandStreamTest {
+
+    @Test
+    @DisplayName("Runs are read one by one, even when repeat counts are split between reads.")
+    void testReadRunsAcrossChunks() throws IOException {
+        CommandStream commands = new CommandStream(oneByteAtATime("f5000 r2\nb"));
+
+        assertTrue(commands.next());
+        assertEquals(CommandProgram.MOVE_FORWARD, commands.opcode());
+        assertEquals(5000, commands.repeat());
+        assertTrue(commands.next());
+        assertEquals(CommandProgram.TURN_RIGHT, commands.opcode());
+        assertEquals(2, commands.repeat());
+        assertTrue(commands.next());
+        assertEquals(CommandProgram.MOVE_BACKWARD, commands.opcode());
+        assertEquals(1, commands.repeat());
+        assertFalse(commands.next());
+    }
+
+    @Test
+    @DisplayName("Invalid commands and repeat counts are rejected when they are read.")
+    void testInvalidCommandsRejected() throws IOException {
+        CommandStream commands = new CommandStream(stream("fx"));
+
+        assertTrue(commands.next());
+        assertThrows(InvalidCommandException.class, commands::next);
+        assertThrows(InvalidCommandException.class, () -> new CommandStream(stream("f0")).next());
+        assertThrows(InvalidCommandException.class, () -> new CommandStream(stream("b2147483648")).next());
+    }
+
+    private static InputStream stream(String commands) {
+        return new ByteArrayInputStream(commands.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static InputStream oneByteAtATime(String commands) {
+        InputStream input = stream(commands);
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return input.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return input.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+    }
+}
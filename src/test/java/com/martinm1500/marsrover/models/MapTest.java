@@ -1,11 +1,15 @@
 package com.martinm1500.marsrover.models;
 
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
+import com.martinm1500.marsrover.exceptions.InvalidOperationException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -155,4 +159,139 @@ public class MapTest {
         // Act and Assert
         assertNull(map.getObstacle(-1, -1));
     }
+
+    @Test
+    @DisplayName("Occupancy index stays in sync when obstacles are added and removed after a query.")
+    void testOccupancyIndexStaysInSync() {
+        // Arrange
+        Map map = new Map(10, 10, "Mars");
+        Obstacle first = new Obstacle(3, 3);
+        map.addObstacle(first);
+        assertTrue(map.isPositionOccupied(3, 3));
+
+        // Act
+        Obstacle second = new Obstacle(10, 10);
+        map.addObstacle(second);
+        map.removeObstacle(first);
+
+        // Assert
+        assertFalse(map.isPositionOccupied(3, 3));
+        assertNull(map.getObstacle(3, 3));
+        assertTrue(map.isPositionOccupied(10, 10));
+        assertSame(second, map.getObstacle(10, 10));
+        assertFalse(map.isPositionOccupied(11, 10));
+    }
+
+    @Test
+    @DisplayName("Removing one of two obstacles on the same cell keeps the cell occupied.")
+    void testRemoveDuplicateObstacleKeepsCellOccupied() {
+        // Arrange
+        Map map = new Map(10, 10, "Mars");
+        Obstacle first = new Obstacle(4, 5);
+        Obstacle duplicate = new Obstacle(4, 5);
+        duplicate.setId(2L);
+        map.addObstacle(first);
+        map.addObstacle(duplicate);
+        assertSame(first, map.getObstacle(4, 5));
+
+        // Act
+        map.removeObstacle(first);
+
+        // Assert
+        assertTrue(map.isPositionOccupied(4, 5));
+        assertSame(duplicate, map.getObstacle(4, 5));
+    }
+
+    @Test
+    @DisplayName("Occupancy index is rebuilt when the obstacle list is replaced.")
+    void testOccupancyIndexRebuiltOnSetObstacles() {
+        // Arrange
+        Map map = new Map(10, 10, "Mars");
+        map.addObstacle(new Obstacle(1, 1));
+        assertTrue(map.isPositionOccupied(1, 1));
+
+        // Act
+        map.setObstacles(new ArrayList<>(List.of(new Obstacle(2, 2))));
+
+        // Assert
+        assertFalse(map.isPositionOccupied(1, 1));
+        assertTrue(map.isPositionOccupied(2, 2));
+    }
+
+    @Test
+    @DisplayName("Obstacle index backend is chosen from map size and obstacle count.")
+    void testSelectIndexType() {
+        assertEquals(ObstacleIndexType.DENSE, Map.selectIndexType(10, 10, 0));
+        assertEquals(ObstacleIndexType.DENSE, Map.selectIndexType(4000, 4000, 20000));
+        assertEquals(ObstacleIndexType.SPARSE, Map.selectIndexType(4000, 4000, 300));
+        assertEquals(ObstacleIndexType.SPARSE, Map.selectIndexType(100000, 100000, 500));
+    }
+
+    @Test
+    @DisplayName("Large map with few obstacles uses the sparse index and answers lookups.")
+    void testSparseIndexLookups() {
+        // Arrange
+        Map map = new Map(100000, 100000, "Survey");
+        Obstacle obstacle = new Obstacle(99999, 12);
+        map.addObstacle(obstacle);
+
+        // Assert
+        assertEquals(ObstacleIndexType.SPARSE, map.getObstacleIndexType());
+        assertTrue(map.isPositionOccupied(99999, 12));
+        assertSame(obstacle, map.getObstacle(99999, 12));
+        assertFalse(map.isPositionOccupied(12, 99999));
+
+        map.removeObstacle(obstacle);
+        assertFalse(map.isPositionOccupied(99999, 12));
+    }
+
+    @Test
+    @DisplayName("Region query returns only the obstacles inside the rectangle, across tiles.")
+    void testGetObstaclesInRegion() {
+        // Arrange
+        Map map = new Map(1000, 1000, "Mars");
+        Obstacle inside = new Obstacle(60, 70);
+        Obstacle onBorder = new Obstacle(200, 65);
+        Obstacle outside = new Obstacle(201, 65);
+        Obstacle farAway = new Obstacle(900, 900);
+        map.addObstacle(inside);
+        map.addObstacle(onBorder);
+        map.addObstacle(outside);
+        map.addObstacle(farAway);
+
+        // Act
+        List<Obstacle> found = map.getObstaclesInRegion(50, 60, 200, 80);
+
+        // Assert
+        assertEquals(2, found.size());
+        assertTrue(found.contains(inside));
+        assertTrue(found.contains(onBorder));
+
+        map.removeObstacle(inside);
+        assertEquals(List.of(onBorder), map.getObstaclesInRegion(50, 60, 200, 80));
+        assertEquals(3, map.getObstaclesInRegion(1, 1, 1000, 1000).size());
+    }
+
+    @Test
+    @DisplayName("A snapshot answers obstacle queries and cannot be changed.")
+    void testSnapshotIsReadOnly() {
+        // Arrange
+        Map map = new Map(10, 10, "Mars");
+        map.setId(1L);
+        Obstacle obstacle = new Obstacle(3, 3);
+
+        // Act
+        Map snapshot = map.snapshot(List.of(obstacle));
+
+        // Assert
+        assertTrue(snapshot.isReadOnly());
+        assertFalse(map.isReadOnly());
+        assertEquals(map, snapshot);
+        assertSame(obstacle, snapshot.getObstacle(3, 3));
+        assertEquals(List.of(obstacle), snapshot.getObstaclesInRegion(1, 1, 5, 5));
+        assertThrows(InvalidOperationException.class, () -> snapshot.addObstacle(new Obstacle(4, 4)));
+        assertThrows(InvalidOperationException.class, () -> snapshot.removeObstacle(obstacle));
+        assertThrows(InvalidOperationException.class, () -> snapshot.setDimensionX(20));
+        assertFalse(snapshot.isPositionOccupied(4, 4));
+    }
 }
@@ -0,0 +1,97 @@
+package com.martinm1500.marsrover.models;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedObstacleIndexTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    @DisplayName("Occupied cells are answered from the mapped file.")
+    void testAddAndRemoveObstacles() throws Exception {
+        // Arrange
+        try (MappedObstacleIndex index = MappedObstacleIndex.open(dataDirectory.resolve("map-1.occupancy"), 100, 80, 0)) {
+            // Act
+            index.add(new Obstacle(100, 80));
+            index.add(new Obstacle(1, 1));
+            index.remove(new Obstacle(1, 1));
+
+            // Assert
+            assertTrue(index.isCreated());
+            assertTrue(index.isOccupied(100, 80));
+            assertFalse(index.isOccupied(1, 1));
+            assertFalse(index.isOccupied(101, 80));
+            assertEquals(1, index.getObstacleCount());
+            assertEquals(new Obstacle(100, 80), index.getObstacle(100, 80));
+            assertNull(index.getObstacle(1, 1));
+        }
+    }
+
+    @Test
+    @DisplayName("Reopening a file with the same dimensions and obstacle generation reuses the grid.")
+    void testReopenReusesGrid() throws Exception {
+        // Arrange
+        Path file = dataDirectory.resolve("map-2.occupancy");
+        try (MappedObstacleIndex index = MappedObstacleIndex.open(file, 64, 64, 0)) {
+            assertEquals(-1, index.getGeneration());
+            index.add(new Obstacle(10, 20));
+            index.setGeneration(5);
+        }
+
+        // Act and Assert
+        try (MappedObstacleIndex reopened = MappedObstacleIndex.open(file, 64, 64, 5)) {
+            assertFalse(reopened.isCreated());
+            assertEquals(5, reopened.getGeneration());
+            assertTrue(reopened.isOccupied(10, 20));
+        }
+        try (MappedObstacleIndex stale = MappedObstacleIndex.open(file, 64, 64, 6)) {
+            assertTrue(stale.isCreated());
+            assertFalse(stale.isOccupied(10, 20));
+        }
+    }
+
+    @Test
+    @DisplayName("A change and its undo keep the obstacle count but not the generation, so the file is not reused.")
+    void testCancellingChangesDoNotReuseGrid() throws Exception {
+        // Arrange
+        Path file = dataDirectory.resolve("map-4.occupancy");
+        try (MappedObstacleIndex index = MappedObstacleIndex.open(file, 64, 64, 0)) {
+            index.add(new Obstacle(1, 1));
+            index.setGeneration(1);
+        }
+
+        // Act: another obstacle is created and the first one deleted while the file is not open
+        try (MappedObstacleIndex reopened = MappedObstacleIndex.open(file, 64, 64, 3)) {
+
+            // Assert
+            assertTrue(reopened.isCreated());
+            assertEquals(0, reopened.getObstacleCount());
+        }
+    }
+
+    @Test
+    @DisplayName("A map with an attached mapped grid answers occupancy checks from it, but does not write its own changes to it.")
+    void testAttachedToMap() throws Exception {
+        // Arrange
+        Map map = new Map(50, 50, "Giant");
+        try (MappedObstacleIndex index = MappedObstacleIndex.open(dataDirectory.resolve("map-3.occupancy"), 50, 50, 0)) {
+            index.add(new Obstacle(7, 8));
+            map.attachObstacleIndex(index);
+
+            // Act
+            map.addObstacle(new Obstacle(9, 9));
+
+            // Assert
+            assertEquals(ObstacleIndexType.MAPPED, map.getObstacleIndexType());
+            assertTrue(map.isPositionOccupied(7, 8));
+            assertFalse(index.isOccupied(9, 9));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.martinm1500.marsrover.models;
+
+import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ObstacleCoordinatesTest {
+
+    @Test
+    @DisplayName("CSV lines are read as pairs, skipping the header and blank lines.")
+    void testReadCsv() throws IOException {
+        ObstacleCoordinates coordinates = ObstacleCoordinates.readCsv(stream("x,y\n3,4\r\n\n 10 , 2\n"));
+
+        assertEquals(2, coordinates.size());
+        assertEquals(3, coordinates.getX(0));
+        assertEquals(4, coordinates.getY(0));
+        assertEquals(10, coordinates.getX(1));
+        assertEquals(2, coordinates.getY(1));
+        assertThrows(InvalidCoordinatesException.class, () -> ObstacleCoordinates.readCsv(stream("3,4\n5\n")));
+        assertThrows(InvalidCoordinatesException.class, () -> ObstacleCoordinates.readCsv(stream("3,a\n")));
+    }
+
+    @Test
+    @DisplayName("A JSON array of obstacles is read, ignoring other fields.")
+    void testReadJson() throws IOException {
+        ObstacleCoordinates coordinates = ObstacleCoordinates.readJson(
+                stream("[{\"x\":3,\"y\":4},{\"id\":7,\"y\":2,\"map\":{\"id\":1},\"x\":10}]"));
+
+        assertEquals(2, coordinates.size());
+        assertEquals(3, coordinates.getX(0));
+        assertEquals(4, coordinates.getY(0));
+        assertEquals(10, coordinates.getX(1));
+        assertEquals(2, coordinates.getY(1));
+        assertEquals(0, ObstacleCoordinates.readJson(stream("[]")).size());
+        assertThrows(InvalidCoordinatesException.class, () -> ObstacleCoordinates.readJson(stream("{\"x\":3,\"y\":4}")));
+        assertThrows(InvalidCoordinatesException.class, () -> ObstacleCoordinates.readJson(stream("[{\"x\":3}]")));
+        assertThrows(InvalidCoordinatesException.class, () -> ObstacleCoordinates.readJson(stream("[{\"x\":3,\"y\":")));
+    }
+
+    @Test
+    @DisplayName("Binary records are read as big-endian int pairs and a partial record is rejected.")
+    void testReadBinary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        for (int i = 1; i <= 300; i++) {
+            data.writeInt(i);
+            data.writeInt(70000 + i);
+        }
+
+        ObstacleCoordinates coordinates = ObstacleCoordinates.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertEquals(300, coordinates.size());
+        assertEquals(1, coordinates.getX(0));
+        assertEquals(70001, coordinates.getY(0));
+        assertEquals(300, coordinates.getX(299));
+        assertEquals(70300, coordinates.getY(299));
+        data.writeInt(5);
+        data.writeShort(1);
+        assertThrows(InvalidCoordinatesException.class,
+                () -> ObstacleCoordinates.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -5,6 +5,10 @@ import com.martinm1500.marsrover.exceptions.InvalidCommandException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -216,4 +220,210 @@ public class RoverTest {
         rover.setMap(map);
         assertFalse(rover.onSouthPole());
     }
+
+    @Test
+    public void executeProgram_obstacleHalfway_haltsRemainingCommands() {
+        map.addObstacle(new Obstacle(4, 2));
+
+        //current position of rover (4,4,NORTH): the second 'f' is blocked, the turn and move after it are not executed
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("ffrf"));
+
+        assertNotNull(reportedObstacle);
+        assertEquals(new Rover(4, 3, Rover.NORTH), rover);
+
+        //a new program starts without the previously reported obstacle
+        assertNull(rover.executeProgram(CommandProgram.parse("r")));
+        assertEquals(new Rover(4, 3, Rover.EAST), rover);
+    }
+
+    @Test
+    public void executeProgram_wrapsAndPoleCrossingsInOneProgram() {
+        //the batches of executeCommands_validCommandsNoObstacle_returnNull run as a single program
+        String commands = "ffff" + "ffff" + "ffff" + "rfff" + "rrff" + "lrff" + "lfff"
+                + "bbbr" + "bblr" + "bbll" + "bbbl" + "bbbb" + "bbbb" + "bbbb";
+
+        assertNull(rover.executeProgram(CommandProgram.parse(commands)));
+        assertEquals(new Rover(4, 4, Rover.NORTH), rover);
+    }
+
+    @Test
+    public void executeProgram_poleOutsideMeridianRange_doesNotMove() {
+        //on a map wider than it is tall, columns beyond dimensionY cannot cross the pole
+        Map wideMap = new Map(8, 4, "Wide");
+        Rover wideRover = new Rover(6, 1, Rover.NORTH);
+        wideRover.setMap(wideMap);
+
+        assertNull(wideRover.executeProgram(CommandProgram.parse("f")));
+        assertEquals(new Rover(6, 1, Rover.NORTH), wideRover);
+    }
+
+    @Test
+    public void executeProgram_longRunAlongRow_wrapsInClosedForm() {
+        //current position of rover (4,4,NORTH): one million cells east wrap around the 6-cell row
+        assertNull(rover.executeProgram(CommandProgram.parse("rf1000000")));
+        assertEquals(new Rover(2, 4, Rover.EAST), rover);
+    }
+
+    @Test
+    public void executeProgram_longRunAlongRow_stopsBeforeObstacle() {
+        Obstacle obstacle = new Obstacle(2, 4);
+        map.addObstacle(obstacle);
+
+        //the rover wraps from x=6 to x=1 and stops in front of the obstacle, the rest of the run is dropped
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("rf1000l"));
+
+        assertSame(obstacle, reportedObstacle);
+        assertEquals(new Rover(1, 4, Rover.EAST), rover);
+    }
+
+    @Test
+    public void executeProgram_longRunAcrossPole_stopsBeforeObstacle() {
+        Obstacle obstacle = new Obstacle(1, 5);
+        map.addObstacle(obstacle);
+
+        //the rover crosses the north pole to column 1 heading south and runs into the obstacle
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("f1000"));
+
+        assertSame(obstacle, reportedObstacle);
+        assertEquals(new Rover(1, 4, Rover.SOUTH), rover);
+    }
+
+    @Test
+    public void executeProgram_longRun_matchesSingleSteps() {
+        map.addObstacle(new Obstacle(3, 2));
+        Rover steppedRover = new Rover(4, 4, Rover.NORTH);
+        steppedRover.setMap(map);
+
+        assertNull(rover.executeProgram(CommandProgram.parse("b999999")));
+        for (int i = 0; i < 999999; i++) {
+            assertNull(steppedRover.executeProgram(CommandProgram.parse("b")));
+        }
+
+        assertEquals(steppedRover, rover);
+    }
+
+    @Test
+    public void executeProgram_turnRuns_turnRepeatModuloFour() {
+        assertNull(rover.executeProgram(CommandProgram.parse("r5")));
+        assertEquals(new Rover(4, 4, Rover.EAST), rover);
+
+        assertNull(rover.executeProgram(CommandProgram.parse("l7")));
+        assertEquals(new Rover(4, 4, Rover.SOUTH), rover);
+    }
+
+    @Test
+    public void executeProgram_repeatedPatrol_skipsLoopsAndMatchesRepetitions() {
+        CommandProgram patrol = CommandProgram.parse("f2rf3l");
+        Rover steppedRover = new Rover(4, 4, Rover.NORTH);
+        steppedRover.setMap(map);
+
+        assertNull(rover.executeProgram(patrol.repeat(Integer.MAX_VALUE)));
+        //the patrol comes back to its start every 6 repetitions on the 6x6 map
+        for (int i = 0; i < Integer.MAX_VALUE % 6; i++) {
+            assertNull(steppedRover.executeProgram(patrol));
+        }
+
+        assertEquals(steppedRover, rover);
+    }
+
+    @Test
+    public void executeProgram_repeatedPatrol_haltsAtObstacle() {
+        Obstacle obstacle = new Obstacle(1, 1);
+        map.addObstacle(obstacle);
+
+        //each repetition moves the rover 3 cells east along row 4, then one north
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("rf3lf").repeat(1000));
+
+        assertSame(obstacle, reportedObstacle);
+        assertEquals(new Rover(1, 2, Rover.NORTH), rover);
+    }
+
+    @Test
+    public void executeStream_obstacle_stopsReadingAndCountsExecutedCommands() throws IOException {
+        Obstacle obstacle = new Obstacle(4, 1);
+        map.addObstacle(obstacle);
+        ByteArrayInputStream input = new ByteArrayInputStream(("rlf5000" + "r".repeat(100000)).getBytes(StandardCharsets.US_ASCII));
+
+        //current position of rover (4,4,NORTH): the turns and two moves are executed before the obstacle at (4,1)
+        Obstacle reportedObstacle = rover.executeStream(new CommandStream(input));
+
+        assertSame(obstacle, reportedObstacle);
+        assertEquals(new Rover(4, 2, Rover.NORTH), rover);
+        assertEquals(4, rover.getExecutedCommands());
+        //only the first buffered chunk of the stream was read
+        assertTrue(input.available() > 90000);
+    }
+
+    @Test
+    public void executeStream_invalidCommand_keepsPosition() {
+        ByteArrayInputStream input = new ByteArrayInputStream("ff?".getBytes(StandardCharsets.US_ASCII));
+
+        assertThrows(InvalidCommandException.class, () -> rover.executeStream(new CommandStream(input)));
+        assertEquals(new Rover(4, 4, Rover.NORTH), rover);
+    }
+
+    @Test
+    public void executeProgram_withStepListener_reportsEveryState() {
+        map.addObstacle(new Obstacle(4, 2));
+        List<String> path = new ArrayList<>();
+        rover.setStepListener((x, y, orientation) -> path.add(x + "," + y + "," + orientation));
+
+        //current position of rover (4,4,NORTH): the run of 'f' is stepped and stops in front of (4,2)
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("rlf30"));
+
+        assertNotNull(reportedObstacle);
+        assertEquals(List.of("4,4,N", "4,4,E", "4,4,N", "4,3,N"), path);
+        assertEquals(3, rover.getExecutedCommands());
+    }
+
+    @Test
+    public void executeProgram_withStepListener_runsEveryRepetition() {
+        List<String> path = new ArrayList<>();
+        rover.setStepListener((x, y, orientation) -> path.add(x + "," + y + "," + orientation));
+
+        assertNull(rover.executeProgram(CommandProgram.parse("r").repeat(5)));
+
+        assertEquals(List.of("4,4,N", "4,4,E", "4,4,S", "4,4,W", "4,4,N", "4,4,E"), path);
+    }
+
+    @Test
+    public void executeProgram_otherRoverAhead_reportsItsCellAsObstacle() {
+        map.addRover(rover);
+        map.addRover(new Rover(4, 2, Rover.EAST));
+
+        //current position of rover (4,4,NORTH): the long run stops in front of the rover on (4,2)
+        Obstacle reportedObstacle = rover.executeProgram(CommandProgram.parse("f30"));
+
+        assertNotNull(reportedObstacle);
+        assertNull(reportedObstacle.getId());
+        assertEquals(4, reportedObstacle.getX());
+        assertEquals(2, reportedObstacle.getY());
+        assertEquals(new Rover(4, 3, Rover.NORTH), rover);
+        assertEquals(1, rover.getExecutedCommands());
+    }
+
+    @Test
+    public void executeProgram_otherRoverMovedAway_cellIsFree() {
+        Rover otherRover = new Rover(4, 2, Rover.EAST);
+        map.addRover(rover);
+        map.addRover(otherRover);
+
+        assertNull(otherRover.executeProgram(CommandProgram.parse("f")));
+        assertNull(rover.executeProgram(CommandProgram.parse("f2")));
+
+        assertEquals(new Rover(4, 2, Rover.NORTH), rover);
+        assertNotNull(otherRover.executeProgram(CommandProgram.parse("ll f")));
+        assertEquals(new Rover(5, 2, Rover.WEST), otherRover);
+    }
+
+    @Test
+    public void executeProgram_snapshotWithRoverPositions_stopsInFrontOfRover() {
+        Map snapshot = map.snapshot(List.of());
+        Rover workingRover = new Rover(4, 4, Rover.NORTH);
+        workingRover.setMap(snapshot);
+        workingRover.setRoverPositions(new RoverPositions(List.of(new Rover(4, 1, Rover.SOUTH))));
+
+        assertNotNull(workingRover.executeProgram(CommandProgram.parse("f20")));
+        assertEquals(new Rover(4, 2, Rover.NORTH), workingRover);
+    }
 }
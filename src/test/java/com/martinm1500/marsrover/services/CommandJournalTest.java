@@ -0,0 +1,210 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Rover;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandJournalTest {
+
+    @TempDir
+    Path journalDirectory;
+
+    @Test
+    @DisplayName("The latest state of each rover is recovered after a restart")
+    void testRecoverLatestStates() throws IOException {
+        //Arrange
+        CommandJournal journal = open(1000);
+        journal.append(rover(1L, 2, 3, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        journal.append(rover(2L, 5, 5, Rover.EAST, 4), List.of(CommandProgram.parse("r")));
+        journal.append(rover(1L, 2, 2, Rover.WEST, 2), List.of(CommandProgram.parse("fl")));
+        journal.close();
+
+        //Act
+        CommandJournal reopened = open(1000);
+
+        //Assert
+        assertEquals(new CommandJournal.RoverState(2, 2, Rover.WEST, 2), reopened.getState(1L));
+        assertEquals(new CommandJournal.RoverState(5, 5, Rover.EAST, 4), reopened.getState(2L));
+        assertEquals(2, reopened.getJournaledRovers());
+        assertEquals(CommandJournal.recover(journalDirectory).get(1L), reopened.getState(1L));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("A record of an older version appended late does not replace a newer state")
+    void testOutOfOrderRecordsResolvedByVersion() throws IOException {
+        //Arrange
+        CommandJournal journal = open(1000);
+
+        //Act
+        journal.append(rover(1L, 4, 4, Rover.SOUTH, 3), List.of(CommandProgram.parse("b")));
+        journal.append(rover(1L, 1, 1, Rover.NORTH, 2), List.of(CommandProgram.parse("f")));
+        journal.close();
+
+        //Assert
+        assertEquals(new CommandJournal.RoverState(4, 4, Rover.SOUTH, 3), CommandJournal.recover(journalDirectory).get(1L));
+    }
+
+    @Test
+    @DisplayName("The programs of each record are read back for an audit")
+    void testReadRecordsForAudit() throws IOException {
+        //Arrange
+        CommandJournal journal = open(1000);
+        List<CommandProgram> programs = List.of(CommandProgram.parse("f5000r2b300"), CommandProgram.parse("lf").repeat(7));
+        journal.append(rover(9L, 7, 1, Rover.EAST, 5), programs);
+        journal.close();
+
+        //Act
+        List<CommandJournal.JournalRecord> records = new ArrayList<>();
+        CommandJournal.read(journalDirectory, records::add);
+
+        //Assert
+        assertEquals(1, records.size());
+        assertEquals(9L, records.get(0).roverId());
+        assertEquals(programs, records.get(0).programs());
+        assertEquals(new CommandJournal.RoverState(7, 1, Rover.EAST, 5), records.get(0).state());
+    }
+
+    @Test
+    @DisplayName("A record cut short by a crash is dropped and appending resumes after the last complete one")
+    void testTornRecordDropped() throws IOException {
+        //Arrange
+        CommandJournal journal = open(1000);
+        journal.append(rover(1L, 2, 3, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        journal.append(rover(1L, 2, 2, Rover.NORTH, 2), List.of(CommandProgram.parse("f")));
+        journal.close();
+        Path segment = files("segment-").get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        //Act
+        CommandJournal reopened = open(1000);
+        reopened.append(rover(2L, 6, 6, Rover.SOUTH, 1), List.of(CommandProgram.parse("l")));
+        reopened.close();
+
+        //Assert
+        List<CommandJournal.JournalRecord> records = new ArrayList<>();
+        CommandJournal.read(journalDirectory, records::add);
+        assertEquals(2, records.size());
+        assertEquals(new CommandJournal.RoverState(2, 3, Rover.NORTH, 1), records.get(0).state());
+        assertEquals(2L, records.get(1).roverId());
+    }
+
+    @Test
+    @DisplayName("Snapshots start new segments and recovery only replays the segments after the newest one")
+    void testSnapshotsLimitReplay() throws IOException {
+        //Arrange
+        CommandJournal journal = open(3);
+
+        //Act
+        for (int i = 1; i <= 7; i++) {
+            journal.append(rover((long) (i % 2), i, i, Rover.NORTH, i), List.of(CommandProgram.parse("f")));
+        }
+        journal.close();
+        for (Path segment : files("segment-").subList(0, 2)) {
+            // Covered by the snapshot, so recovery must not need them.
+            Files.delete(segment);
+        }
+        CommandJournal reopened = open(3);
+
+        //Assert
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(new CommandJournal.RoverState(7, 7, Rover.NORTH, 7), reopened.getState(1L));
+        assertEquals(new CommandJournal.RoverState(6, 6, Rover.NORTH, 6), reopened.getState(0L));
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("A disabled journal writes nothing")
+    void testDisabledJournal() throws IOException {
+        //Arrange
+        CommandJournal journal = new CommandJournal(false, journalDirectory.resolve("disabled").toString(), 1000, false);
+
+        //Act
+        journal.append(rover(1L, 2, 3, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        journal.close();
+
+        //Assert
+        assertFalse(Files.exists(journalDirectory.resolve("disabled")));
+        assertNull(journal.getState(1L));
+    }
+
+    @Test
+    @DisplayName("A deleted rover is not recovered, even if a record of it is appended late")
+    void testDeletedRoverNotRecovered() throws IOException {
+        //Arrange
+        CommandJournal journal = open(4);
+        journal.append(rover(1L, 2, 3, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        journal.append(rover(2L, 5, 5, Rover.EAST, 1), List.of(CommandProgram.parse("r")));
+
+        //Act
+        journal.appendDeletion(1L, 1);
+        journal.append(rover(1L, 2, 4, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        boolean deletedBeforeSnapshot = CommandJournal.recover(journalDirectory).containsKey(1L);
+        journal.append(rover(2L, 5, 6, Rover.EAST, 2), List.of(CommandProgram.parse("f")));
+        journal.close();
+
+        //Assert
+        assertFalse(deletedBeforeSnapshot);
+        assertEquals(1, files("snapshot-").size());
+        java.util.Map<Long, CommandJournal.RoverState> states = CommandJournal.recover(journalDirectory);
+        assertEquals(java.util.Set.of(2L), states.keySet());
+        CommandJournal reopened = open(4);
+        assertNull(reopened.getState(1L));
+        assertEquals(1, reopened.getJournaledRovers());
+        reopened.close();
+    }
+
+    @Test
+    @DisplayName("A late record with a lower version does not bring back a rover deleted before a snapshot")
+    void testTombstoneKeptInSnapshot() throws IOException {
+        //Arrange
+        CommandJournal journal = open(2);
+        journal.append(rover(1L, 2, 3, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+
+        //Act
+        journal.appendDeletion(1L, 1);
+        // Appended by a transaction that committed before the deletion, after the snapshot was written.
+        journal.append(rover(1L, 2, 4, Rover.NORTH, 1), List.of(CommandProgram.parse("f")));
+        journal.close();
+
+        //Assert
+        assertEquals(1, files("snapshot-").size());
+        assertFalse(CommandJournal.recover(journalDirectory).containsKey(1L));
+        CommandJournal reopened = open(2);
+        assertNull(reopened.getState(1L));
+        assertEquals(0, reopened.getJournaledRovers());
+        reopened.close();
+    }
+
+    private CommandJournal open(int snapshotEvery) {
+        return new CommandJournal(true, journalDirectory.toString(), snapshotEvery, false);
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        try (Stream<Path> paths = Files.list(journalDirectory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().toList();
+        }
+    }
+
+    private static Rover rover(Long roverId, int x, int y, char orientation, long version) {
+        Rover rover = new Rover(x, y, orientation);
+        rover.setId(roverId);
+        rover.setVersion(version);
+        return rover;
+    }
+}
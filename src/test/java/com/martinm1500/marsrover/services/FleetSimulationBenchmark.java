@@ -0,0 +1,113 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.Rover;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the throughput of {@link FleetSimulationEngine} with sequential {@link Rover#executeCommands(List)}.
+ * Not a unit test: run the main method with the test classpath, optionally passing the number of maps,
+ * rovers per map and commands per rover.
+ */
+public class FleetSimulationBenchmark {
+
+    private static final int DIMENSION = 1000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int mapCount = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int roversPerMap = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int commandsPerRover = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        Random random = new Random(42);
+        List<Map> snapshots = new ArrayList<>(mapCount);
+        for (long mapId = 1; mapId <= mapCount; mapId++) {
+            Map map = new Map(DIMENSION, DIMENSION, "Map " + mapId);
+            map.setId(mapId);
+            boolean[] occupied = new boolean[DIMENSION * DIMENSION];
+            List<Obstacle> obstacles = new ArrayList<>();
+            for (int i = 0; i < DIMENSION * DIMENSION / 100; i++) {
+                // Maps are 1-based; the bottom row is left free for the rovers to start on
+                int x = 1 + random.nextInt(DIMENSION);
+                int y = 2 + random.nextInt(DIMENSION - 1);
+                int cell = (x - 1) * DIMENSION + (y - 1);
+                if (!occupied[cell]) {
+                    occupied[cell] = true;
+                    obstacles.add(new Obstacle(x, y));
+                }
+            }
+            snapshots.add(map.snapshot(obstacles));
+        }
+        List<List<Character>> commands = new ArrayList<>(mapCount * roversPerMap);
+        for (int i = 0; i < mapCount * roversPerMap; i++) {
+            List<Character> roverCommands = new ArrayList<>(commandsPerRover);
+            for (int j = 0; j < commandsPerRover; j++) {
+                // Mostly turns so that rovers rarely run into an obstacle and stop early
+                roverCommands.add("lrlrlrfb".charAt(random.nextInt(8)));
+            }
+            commands.add(roverCommands);
+        }
+
+        FleetSimulationEngine engine = new FleetSimulationEngine(0);
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                runSequential(snapshots, roversPerMap, commands);
+                runParallel(engine, snapshots, roversPerMap, commands);
+            }
+            long sequential = 0;
+            long parallel = 0;
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                sequential += runSequential(snapshots, roversPerMap, commands);
+                parallel += runParallel(engine, snapshots, roversPerMap, commands);
+            }
+            long totalCommands = (long) mapCount * roversPerMap * commandsPerRover * MEASURED_ROUNDS;
+            System.out.printf("maps=%d rovers=%d commands/rover=%d workers=%d%n",
+                    mapCount, mapCount * roversPerMap, commandsPerRover, engine.getParallelism());
+            System.out.printf("sequential: %8.1f ms  %,12.0f commands/s%n", sequential / 1e6, totalCommands / (sequential / 1e9));
+            System.out.printf("parallel:   %8.1f ms  %,12.0f commands/s%n", parallel / 1e6, totalCommands / (parallel / 1e9));
+            System.out.printf("speed-up:   %.2fx%n", (double) sequential / parallel);
+        } finally {
+            engine.close();
+        }
+    }
+
+    private static long runSequential(List<Map> snapshots, int roversPerMap, List<List<Character>> commands) {
+        List<Rover> rovers = placeRovers(snapshots, roversPerMap);
+        long start = System.nanoTime();
+        for (int i = 0; i < rovers.size(); i++) {
+            rovers.get(i).executeCommands(commands.get(i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runParallel(FleetSimulationEngine engine, List<Map> snapshots, int roversPerMap,
+                                    List<List<Character>> commands) {
+        List<Rover> rovers = placeRovers(snapshots, roversPerMap);
+        long start = System.nanoTime();
+        // Compiling the commands is part of the measured work, as it is for executeCommands
+        List<CommandProgram> programs = new ArrayList<>(commands.size());
+        for (List<Character> roverCommands : commands) {
+            programs.add(CommandProgram.of(roverCommands));
+        }
+        engine.execute(rovers, programs);
+        return System.nanoTime() - start;
+    }
+
+    private static List<Rover> placeRovers(List<Map> snapshots, int roversPerMap) {
+        List<Rover> rovers = new ArrayList<>(snapshots.size() * roversPerMap);
+        for (Map snapshot : snapshots) {
+            for (int i = 0; i < roversPerMap; i++) {
+                Rover rover = new Rover(i + 1, 1, Rover.NORTH);
+                rover.setMap(snapshot);
+                rovers.add(rover);
+            }
+        }
+        return rovers;
+    }
+}
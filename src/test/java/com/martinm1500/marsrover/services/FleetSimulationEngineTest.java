@@ -0,0 +1,115 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.Rover;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FleetSimulationEngineTest {
+
+    private final FleetSimulationEngine engine = new FleetSimulationEngine(4);
+
+    @AfterEach
+    void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    @DisplayName("Rovers on several maps end in the same state as with sequential execution")
+    void testExecuteMatchesSequentialExecution() {
+        //Arrange
+        Random random = new Random(14);
+        List<Rover> parallelRovers = new ArrayList<>();
+        List<Rover> sequentialRovers = new ArrayList<>();
+        List<CommandProgram> programs = new ArrayList<>();
+        for (long mapId = 1; mapId <= 12; mapId++) {
+            Map map = new Map(40, 40, "Map " + mapId);
+            map.setId(mapId);
+            boolean[][] occupied = new boolean[40][40];
+            occupied[20][20] = true;
+            List<Obstacle> obstacles = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                int x = random.nextInt(40);
+                int y = random.nextInt(40);
+                if (!occupied[x][y]) {
+                    occupied[x][y] = true;
+                    obstacles.add(new Obstacle(x, y));
+                }
+            }
+            Map snapshot = map.snapshot(obstacles);
+            for (int rover = 0; rover < 3; rover++) {
+                StringBuilder commands = new StringBuilder();
+                for (int i = 0; i < 50; i++) {
+                    commands.append("fblr".charAt(random.nextInt(4))).append(1 + random.nextInt(30));
+                }
+                CommandProgram program = CommandProgram.parse(commands);
+                Rover parallelRover = new Rover(20, 20, Rover.NORTH);
+                parallelRover.setMap(snapshot);
+                Rover sequentialRover = new Rover(20, 20, Rover.NORTH);
+                sequentialRover.setMap(snapshot);
+                parallelRovers.add(parallelRover);
+                sequentialRovers.add(sequentialRover);
+                programs.add(program);
+            }
+        }
+
+        //Act
+        engine.execute(parallelRovers, programs);
+        for (int i = 0; i < sequentialRovers.size(); i++) {
+            sequentialRovers.get(i).executeProgram(programs.get(i));
+        }
+
+        //Assert
+        for (int i = 0; i < parallelRovers.size(); i++) {
+            Rover parallelRover = parallelRovers.get(i);
+            Rover sequentialRover = sequentialRovers.get(i);
+            assertEquals(sequentialRover, parallelRover);
+            assertSame(sequentialRover.getReportedObstacle(), parallelRover.getReportedObstacle());
+            assertEquals(sequentialRover.getExecutedCommands(), parallelRover.getExecutedCommands());
+        }
+    }
+
+    @Test
+    @DisplayName("An exception thrown by a rover is rethrown to the caller")
+    void testExecuteRethrowsException() {
+        //Arrange
+        Map first = new Map(8, 8, "Tierra");
+        first.setId(1L);
+        Map second = new Map(8, 8, "Marte");
+        second.setId(2L);
+        Rover firstRover = new Rover(1, 1, Rover.NORTH);
+        firstRover.setMap(first.snapshot(List.of()));
+        Rover secondRover = new Rover(1, 1, Rover.NORTH);
+        secondRover.setMap(second.snapshot(List.of()));
+        Rover expectedRover = new Rover(1, 1, Rover.NORTH);
+        expectedRover.setMap(firstRover.getMap());
+        expectedRover.executeProgram(CommandProgram.parse("f"));
+
+        //Act and Assert
+        assertThrows(NullPointerException.class,
+                () -> engine.execute(List.of(firstRover, secondRover), Arrays.asList(CommandProgram.parse("f"), null)));
+        assertEquals(expectedRover, firstRover);
+        assertNotEquals(new Rover(1, 1, Rover.NORTH), firstRover);
+    }
+
+    @Test
+    @DisplayName("The parallelism defaults to the number of available processors")
+    void testDefaultParallelism() {
+        FleetSimulationEngine defaultEngine = new FleetSimulationEngine(0);
+        try {
+            assertEquals(Runtime.getRuntime().availableProcessors(), defaultEngine.getParallelism());
+        } finally {
+            defaultEngine.close();
+        }
+    }
+}
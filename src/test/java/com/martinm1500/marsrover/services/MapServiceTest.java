@@ -3,17 +3,23 @@ package com.martinm1500.marsrover.services;
 import com.martinm1500.marsrover.exceptions.InvalidMapDimensionsException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.Rover;
 import com.martinm1500.marsrover.repositories.MapRepository;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -27,6 +33,21 @@ public class MapServiceTest {
     @Mock
     private MapRepository mapRepository;
 
+    @Mock
+    private MappedOccupancyStore occupancyStore;
+
+    @Mock
+    private MapSnapshotCache snapshotCache;
+
+    @Mock
+    private RoverStateStore stateStore;
+
+    @Mock
+    private CommandJournal journal;
+
+    @Mock
+    private EntityManager entityManager;
+
     @InjectMocks
     private MapServiceImpl mapService;
 
@@ -63,15 +84,27 @@ public class MapServiceTest {
     void testDeleteMapSuccessfully() {
         //Arrange
         Long mapId = 1L;
+        Map map = new Map(10,10,"Mars");
+        map.setId(mapId);
+        Rover rover = new Rover(1,1,Rover.NORTH);
+        rover.setId(10L);
+        rover.setVersion(4);
+        map.addRover(rover);
 
         //Expected mapRepository behavior
-        when(mapRepository.existsById(mapId)).thenReturn(true);
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(journal).appendAfterCommit(any());
 
         //Act
         mapService.deleteMap(mapId);
 
         //Assert
         verify(mapRepository, times(1)).deleteById(mapId);
+        verify(snapshotCache, times(1)).invalidate(mapId);
+        verify(journal, times(1)).appendDeletion(10L, 4L);
     }
 
     @Test
@@ -81,7 +114,7 @@ public class MapServiceTest {
         Long mapId = 1L;
 
         //Expected mapService behavior
-        when(mapRepository.existsById(mapId)).thenReturn(false);
+        when(mapRepository.findById(mapId)).thenReturn(Optional.empty());
 
         //Act and Assert
         assertThrows(MapNotFoundException.class, () -> mapService.deleteMap(mapId));
@@ -89,24 +122,58 @@ public class MapServiceTest {
     }
 
     @Test
-    @DisplayName("Successfully retrieve a map")
+    @DisplayName("Successfully retrieve a map, with its obstacles from the cached snapshot")
     void testGetMapSuccessfully() {
         // Arrange
         Long mapId = 1L;
 
         // Expected mapRepository behavior
 
-        Map expectedMap = new Map();
+        Map expectedMap = new Map(8,8,"Tierra");
+        expectedMap.setId(mapId);
+        expectedMap.setRevision(3);
+        Rover rover = new Rover(1,1,'N');
+        expectedMap.addRover(rover);
 
         when(mapRepository.findById(mapId)).thenReturn(Optional.of(expectedMap));
+        when(stateStore.views(expectedMap.getRovers())).thenReturn(expectedMap.getRovers());
+        when(snapshotCache.get(expectedMap)).thenReturn(expectedMap.snapshot(List.of(new Obstacle(2,2))));
 
         // Act
         Map obtainedMap = mapService.getMap(mapId);
 
         // Assert
         verify(mapRepository, times(1)).findById(mapId);
-        assertNotNull(obtainedMap);
-        assertSame(expectedMap, obtainedMap);
+        assertEquals(expectedMap, obtainedMap);
+        assertTrue(obtainedMap.isReadOnly());
+        assertEquals(List.of(new Obstacle(2,2)), obtainedMap.getObstacles());
+        assertEquals(List.of(rover), obtainedMap.getRovers());
+        assertEquals(3, obtainedMap.getRevision());
+    }
+
+    @Test
+    @DisplayName("A retrieved map holds the latest positions of its rovers, not yet written by write-behind")
+    void testGetMapWithRoverPositionsInMemory() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(8,8,"Tierra");
+        map.setId(mapId);
+        Rover rover = new Rover(1,1,'N');
+        rover.setId(2L);
+        map.addRover(rover);
+        Rover movedRover = new Rover(1,2,'N');
+        movedRover.setId(2L);
+
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(stateStore.views(map.getRovers())).thenReturn(List.of(movedRover));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of()));
+
+        // Act
+        Map obtainedMap = mapService.getMap(mapId);
+
+        // Assert
+        assertEquals(List.of(movedRover), obtainedMap.getRovers());
+        assertEquals(List.of(rover), map.getRovers());
     }
 
     @Test
@@ -122,6 +189,36 @@ public class MapServiceTest {
         assertThrows(MapNotFoundException.class, () -> mapService.getMap(mapId));
     }
 
+    @Test
+    @DisplayName("Retrieve the revision of a map without loading it")
+    void testGetMapRevision() {
+        // Arrange
+        Long mapId = 1L;
+
+        //Expected mapRepository behavior
+        when(mapRepository.findRevisionById(mapId)).thenReturn(Optional.of(8L));
+
+        // Act
+        long revision = mapService.getMapRevision(mapId);
+
+        // Assert
+        assertEquals(8L, revision);
+        verify(mapRepository, never()).findById(any());
+    }
+
+    @Test
+    @DisplayName("Attempt to retrieve the revision of a non-existing map, expect MapNotFoundException")
+    void testGetRevisionOfNonExistingMap() {
+        // Arrange
+        Long mapId = 1L;
+
+        //Expected mapRepository behavior
+        when(mapRepository.findRevisionById(mapId)).thenReturn(Optional.empty());
+
+        //Act and Assert
+        assertThrows(MapNotFoundException.class, () -> mapService.getMapRevision(mapId));
+    }
+
     @Test
     @DisplayName("Successfully retrieve all maps")
     void testGetAllMapsSuccessfully() {
@@ -140,4 +237,37 @@ public class MapServiceTest {
         assertEquals(expectedMaps.size(), obtainedMaps.size());
         assertTrue(expectedMaps.containsAll(obtainedMaps));
     }
+
+    @Test
+    @DisplayName("Retrieve a page of maps after an ID")
+    void testGetMapsAfter() {
+        // Arrange
+        List<Map> maps = List.of(new Map(8,8,"Tierra"));
+
+        //Expected mapRepository behavior
+        when(mapRepository.findByIdGreaterThanOrderByIdAsc(12L, PageRequest.of(0, 51))).thenReturn(maps);
+
+        // Act and Assert
+        assertEquals(maps, mapService.getMapsAfter(12L, 51));
+    }
+
+    @Test
+    @DisplayName("Stream all maps, detaching each one once it is handled")
+    void testStreamAllMaps() {
+        // Arrange
+        Map map = new Map(8,8,"Tierra");
+        Map otherMap = new Map(12,12,"Jupiter");
+        List<Map> handled = new ArrayList<>();
+
+        //Expected mapRepository behavior
+        when(mapRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(map, otherMap));
+
+        // Act
+        mapService.streamAllMaps(handled::add);
+
+        // Assert
+        assertEquals(List.of(map, otherMap), handled);
+        verify(entityManager, times(1)).detach(map);
+        verify(entityManager, times(1)).detach(otherMap);
+    }
 }
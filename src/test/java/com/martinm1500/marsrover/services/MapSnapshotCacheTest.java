@@ -0,0 +1,283 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleIndex;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class MapSnapshotCacheTest {
+
+    @Mock
+    private ObstacleRepository obstacleRepository;
+
+    @Mock
+    private MappedOccupancyStore occupancyStore;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("The snapshot of a map is built once and then served from the cache")
+    void testSnapshotBuiltOnceAndCounted() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        Obstacle obstacle = new Obstacle(2,3);
+        when(obstacleRepository.findByMapId(1L)).thenReturn(List.of(obstacle));
+
+        //Act
+        Map first = snapshotCache.get(map);
+        Map second = snapshotCache.get(map);
+
+        //Assert
+        assertSame(first, second);
+        assertTrue(first.isReadOnly());
+        assertEquals(obstacle, first.getObstacle(2,3));
+        assertEquals(1, snapshotCache.getHits());
+        assertEquals(1, snapshotCache.getMisses());
+        assertEquals(MapSnapshotCache.weigh(first), snapshotCache.getWeight());
+        verify(obstacleRepository, times(1)).findByMapId(1L);
+    }
+
+    @Test
+    @DisplayName("An invalidated map is loaded again on the next request")
+    void testInvalidateDropsSnapshot() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        when(obstacleRepository.findByMapId(1L)).thenReturn(List.of()).thenReturn(List.of(new Obstacle(4,4)));
+        snapshotCache.get(map);
+
+        //Act
+        snapshotCache.invalidate(1L);
+        Map snapshot = snapshotCache.get(map);
+
+        //Assert
+        assertEquals(new Obstacle(4,4), snapshot.getObstacle(4,4));
+        assertEquals(1, snapshotCache.getSize());
+        verify(obstacleRepository, times(2)).findByMapId(1L);
+    }
+
+    @Test
+    @DisplayName("A cached snapshot older than the obstacle generation of the map read by the caller is loaded again")
+    void testSnapshotOlderThanMapGenerationReloaded() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        when(obstacleRepository.findByMapId(1L)).thenReturn(List.of()).thenReturn(List.of(new Obstacle(4,4)));
+        Map cachedSnapshot = snapshotCache.get(map);
+        // An obstacle was committed, and the map read again, before the snapshot was invalidated.
+        Map changedMap = persistedMap(1L);
+        changedMap.setObstacleGeneration(1);
+
+        //Act
+        Map snapshot = snapshotCache.get(changedMap);
+
+        //Assert
+        assertNotSame(cachedSnapshot, snapshot);
+        assertTrue(snapshot.isPositionOccupied(4,4));
+        assertSame(snapshot, snapshotCache.get(map));
+        assertEquals(1, snapshotCache.getSize());
+    }
+
+    @Test
+    @DisplayName("The least recently used snapshots are evicted to stay within the maximum number of entries")
+    void testEvictsLeastRecentlyUsedByCount() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 2);
+        Map firstMap = persistedMap(1L);
+        Map secondMap = persistedMap(2L);
+        Map thirdMap = persistedMap(3L);
+        when(obstacleRepository.findByMapId(anyLong())).thenReturn(List.of());
+        snapshotCache.get(firstMap);
+        snapshotCache.get(secondMap);
+        snapshotCache.get(firstMap);
+
+        //Act
+        snapshotCache.get(thirdMap);
+        snapshotCache.get(firstMap);
+        snapshotCache.get(secondMap);
+
+        //Assert
+        assertEquals(2, snapshotCache.getSize());
+        assertEquals(2, snapshotCache.getEvictions());
+        verify(obstacleRepository, times(1)).findByMapId(1L);
+        verify(obstacleRepository, times(2)).findByMapId(2L);
+    }
+
+    @Test
+    @DisplayName("Snapshots are evicted to stay within the weight budget and a snapshot heavier than it is not kept")
+    void testEvictsByWeight() {
+        //Arrange
+        Map lightMap = persistedMap(1L);
+        Map otherLightMap = persistedMap(2L);
+        Map heavyMap = persistedMap(3L);
+        when(obstacleRepository.findByMapId(anyLong())).thenReturn(List.of());
+        when(obstacleRepository.findByMapId(3L)).thenReturn(List.of(new Obstacle(1,1), new Obstacle(1,2),
+                new Obstacle(1,3), new Obstacle(1,4), new Obstacle(1,5), new Obstacle(1,6)));
+        long lightWeight = MapSnapshotCache.weigh(lightMap.snapshot(List.of()));
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, lightWeight * 2, 10);
+        snapshotCache.get(lightMap);
+        snapshotCache.get(otherLightMap);
+
+        //Act
+        Map heavySnapshot = snapshotCache.get(heavyMap);
+
+        //Assert
+        assertEquals(6, heavySnapshot.getObstacles().size());
+        assertEquals(2, snapshotCache.getSize());
+        assertEquals(lightWeight * 2, snapshotCache.getWeight());
+        assertEquals(0, snapshotCache.getEvictions());
+    }
+
+    @Test
+    @DisplayName("The obstacles of all the maps missing from the cache are loaded in one query")
+    void testGetAllLoadsMissingMapsTogether() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map firstMap = persistedMap(1L);
+        Map secondMap = persistedMap(2L);
+        Obstacle obstacle = new Obstacle(5,5);
+        obstacle.setMap(secondMap);
+        when(obstacleRepository.findByMapId(1L)).thenReturn(List.of());
+        when(obstacleRepository.findByMapIdIn(Set.of(2L))).thenReturn(List.of(obstacle));
+        Map cachedSnapshot = snapshotCache.get(firstMap);
+
+        //Act
+        List<Map> snapshots = snapshotCache.getAll(List.of(firstMap, secondMap, secondMap));
+
+        //Assert
+        assertSame(cachedSnapshot, snapshots.get(0));
+        assertEquals(obstacle, snapshots.get(1).getObstacle(5,5));
+        assertSame(snapshots.get(1), snapshots.get(2));
+        assertEquals(2, snapshotCache.getSize());
+        verify(obstacleRepository, times(1)).findByMapIdIn(any());
+    }
+
+    @Test
+    @DisplayName("A snapshot built while its map is invalidated is returned without being kept")
+    void testSnapshotOfInvalidatedMapNotKept() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        when(obstacleRepository.findByMapId(1L)).thenAnswer(invocation -> {
+            snapshotCache.invalidate(1L);
+            return List.of(new Obstacle(4,4));
+        });
+
+        //Act
+        Map snapshot = snapshotCache.get(map);
+
+        //Assert
+        assertEquals(new Obstacle(4,4), snapshot.getObstacle(4,4));
+        assertEquals(0, snapshotCache.getSize());
+    }
+
+    @Test
+    @DisplayName("A snapshot loaded while any map is invalidated is not kept, and is kept once loaded again")
+    void testInvalidationOfOtherMapDuringLoad() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        Map otherMap = persistedMap(2L);
+        Obstacle obstacle = new Obstacle(5,5);
+        obstacle.setMap(otherMap);
+        when(obstacleRepository.findByMapId(1L)).thenAnswer(invocation -> {
+            snapshotCache.invalidate(3L);
+            return List.of();
+        }).thenReturn(List.of());
+        when(obstacleRepository.findByMapIdIn(Set.of(2L))).thenReturn(List.of(obstacle));
+
+        //Act
+        Map snapshot = snapshotCache.get(map);
+        Map otherSnapshot = snapshotCache.getAll(List.of(otherMap)).get(0);
+        Map reloadedSnapshot = snapshotCache.get(map);
+
+        //Assert
+        assertSame(otherSnapshot, snapshotCache.get(otherMap));
+        assertNotSame(snapshot, reloadedSnapshot);
+        assertSame(reloadedSnapshot, snapshotCache.get(map));
+        assertEquals(2, snapshotCache.getSize());
+    }
+
+    @Test
+    @DisplayName("An obstacle committed after the caller's transaction first read is in the snapshot, loaded in a read-committed transaction of its own")
+    void testSnapshotLoadedInItsOwnTransaction() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map map = persistedMap(1L);
+        Obstacle committedMeanwhile = new Obstacle(4,4);
+        // The caller's transaction read the rover before the obstacle was committed: its read view has no obstacle,
+        // and only a new transaction reading the latest committed data sees it.
+        AtomicBoolean ownTransaction = new AtomicBoolean();
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            TransactionDefinition definition = invocation.getArgument(0);
+            ownTransaction.set(definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW
+                    && definition.getIsolationLevel() == TransactionDefinition.ISOLATION_READ_COMMITTED);
+            return new SimpleTransactionStatus();
+        });
+        doAnswer(invocation -> {
+            ownTransaction.set(false);
+            return null;
+        }).when(transactionManager).commit(any());
+        when(obstacleRepository.findByMapId(1L)).thenAnswer(invocation -> ownTransaction.get() ? List.of(committedMeanwhile) : List.of());
+
+        //Act: the obstacle is committed, and its map invalidated, between the rover read and the snapshot build
+        snapshotCache.invalidate(1L);
+        Map snapshot = snapshotCache.get(map);
+
+        //Assert
+        assertTrue(snapshot.isPositionOccupied(4,4));
+        assertSame(snapshot, snapshotCache.get(map));
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    @DisplayName("A map with a memory-mapped grid is answered from its grid without loading nor caching its obstacles")
+    void testMappedMapBypassesCache() {
+        //Arrange
+        MapSnapshotCache snapshotCache = new MapSnapshotCache(obstacleRepository, occupancyStore, transactionManager, 1_000_000, 10);
+        Map mappedMap = persistedMap(1L);
+        Map otherMap = persistedMap(2L);
+        Obstacle obstacle = new Obstacle(5,5);
+        obstacle.setMap(otherMap);
+        Map gridSnapshot = mappedMap.snapshot(mock(ObstacleIndex.class));
+        when(occupancyStore.isMapped(mappedMap)).thenReturn(true);
+        when(occupancyStore.snapshot(mappedMap)).thenReturn(gridSnapshot);
+        when(obstacleRepository.findByMapIdIn(Set.of(2L))).thenReturn(List.of(obstacle));
+
+        //Act
+        Map snapshot = snapshotCache.get(mappedMap);
+        List<Map> snapshots = snapshotCache.getAll(List.of(mappedMap, otherMap));
+
+        //Assert
+        assertSame(gridSnapshot, snapshot);
+        assertTrue(snapshot.isReadOnly());
+        assertSame(gridSnapshot, snapshots.get(0));
+        assertEquals(obstacle, snapshots.get(1).getObstacle(5,5));
+        assertEquals(1, snapshotCache.getSize());
+        verify(obstacleRepository, never()).findByMapId(anyLong());
+    }
+
+    private static Map persistedMap(Long mapId) {
+        Map map = new Map(10,10,"Mars");
+        map.setId(mapId);
+        return map;
+    }
+}
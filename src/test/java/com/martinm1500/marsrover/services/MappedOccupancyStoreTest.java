@@ -0,0 +1,162 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.repositories.MapRepository;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class MappedOccupancyStoreTest {
+
+    @Mock
+    private MapRepository mapRepository;
+
+    @Mock
+    private ObstacleRepository obstacleRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path dataDirectory;
+
+    private MappedOccupancyStore occupancyStore;
+
+    @BeforeEach
+    void setUp() {
+        occupancyStore = new MappedOccupancyStore(mapRepository, obstacleRepository, transactionManager, true, dataDirectory.toString(), 100);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        occupancyStore.close();
+    }
+
+    @Test
+    @DisplayName("A created obstacle reaches the grid only once its transaction commits")
+    void testCreatedObstacleAppliedAfterCommit() {
+        //Arrange
+        Map map = openedMap(1L, 0L);
+        when(mapRepository.findObstacleGenerationById(1L)).thenReturn(Optional.of(1L));
+
+        //Act
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            occupancyStore.addAfterCommit(map, new Obstacle(4, 5));
+            boolean occupiedBeforeCommit = snapshotOccupied(map, 4, 5);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+            //Assert
+            assertFalse(occupiedBeforeCommit);
+            assertTrue(snapshotOccupied(map, 4, 5));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("A deleted obstacle stays in the grid if its transaction rolls back")
+    void testDeletedObstacleKeptOnRollback() {
+        //Arrange
+        Map map = openedMap(2L, 0L, new Obstacle(4, 5));
+        when(mapRepository.findObstacleGenerationById(2L)).thenReturn(Optional.of(1L));
+
+        //Act
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            occupancyStore.removeAfterCommit(map, new Obstacle(4, 5));
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        //Assert
+        assertTrue(snapshotOccupied(map, 4, 5));
+    }
+
+    @Test
+    @DisplayName("A grid that missed a change is dropped and rebuilt from the obstacle table")
+    void testGridMissingAChangeIsRebuilt() {
+        //Arrange
+        Map map = openedMap(3L, 0L);
+        when(mapRepository.findObstacleGenerationById(3L)).thenReturn(Optional.of(2L));
+        when(obstacleRepository.findByMapId(3L)).thenReturn(List.of(new Obstacle(1, 1), new Obstacle(4, 5)));
+
+        //Act
+        occupancyStore.addAfterCommit(map, new Obstacle(4, 5));
+
+        //Assert
+        assertTrue(snapshotOccupied(map, 1, 1));
+        assertTrue(snapshotOccupied(map, 4, 5));
+        verify(obstacleRepository, times(2)).findByMapId(3L);
+    }
+
+    @Test
+    @DisplayName("A grid is rebuilt from the latest committed obstacles, in a read-committed transaction of its own")
+    void testGridRebuiltInItsOwnTransaction() {
+        //Arrange
+        Map map = new Map(10, 10, "Giant");
+        map.setId(4L);
+        // The caller's transaction read the map before the obstacle was committed: its read view has neither the
+        // obstacle nor the generation it wrote, and only a new transaction reading the latest committed data sees them.
+        AtomicBoolean ownTransaction = new AtomicBoolean();
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            TransactionDefinition definition = invocation.getArgument(0);
+            ownTransaction.set(definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW
+                    && definition.getIsolationLevel() == TransactionDefinition.ISOLATION_READ_COMMITTED);
+            return new SimpleTransactionStatus();
+        });
+        doAnswer(invocation -> {
+            ownTransaction.set(false);
+            return null;
+        }).when(transactionManager).commit(any());
+        when(mapRepository.findObstacleGenerationById(4L)).thenAnswer(invocation -> Optional.of(ownTransaction.get() ? 1L : 0L));
+        when(obstacleRepository.findByMapId(4L)).thenAnswer(invocation -> ownTransaction.get() ? List.of(new Obstacle(4, 5)) : List.of());
+
+        //Act
+        occupancyStore.attach(map);
+
+        //Assert
+        assertTrue(snapshotOccupied(map, 4, 5));
+        verify(obstacleRepository, times(1)).findByMapId(4L);
+    }
+
+    /**
+     * Opens the grid of a map at the given generation, filled with the given obstacles.
+     */
+    private Map openedMap(Long mapId, long generation, Obstacle... obstacles) {
+        Map map = new Map(10, 10, "Giant");
+        map.setId(mapId);
+        when(mapRepository.findObstacleGenerationById(mapId)).thenReturn(Optional.of(generation));
+        when(obstacleRepository.findByMapId(mapId)).thenReturn(List.of(obstacles));
+        occupancyStore.attach(map);
+        return map;
+    }
+
+    private boolean snapshotOccupied(Map map, int x, int y) {
+        return occupancyStore.snapshot(map).isPositionOccupied(x, y);
+    }
+}
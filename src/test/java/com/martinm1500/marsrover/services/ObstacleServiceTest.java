@@ -1,22 +1,31 @@
 package com.martinm1500.marsrover.services;
 
+import com.martinm1500.marsrover.exceptions.ConcurrentUpdateException;
 import com.martinm1500.marsrover.exceptions.InvalidCoordinatesException;
 import com.martinm1500.marsrover.exceptions.MapNotFoundException;
 import com.martinm1500.marsrover.exceptions.ObstacleNotFoundException;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.ObstacleCoordinates;
 import com.martinm1500.marsrover.repositories.MapRepository;
 import com.martinm1500.marsrover.repositories.ObstacleRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
 
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,6 +39,15 @@ public class ObstacleServiceTest {
     @Mock
     private ObstacleRepository obstacleRepository;
 
+    @Mock
+    private MappedOccupancyStore occupancyStore;
+
+    @Mock
+    private MapSnapshotCache snapshotCache;
+
+    @Mock
+    private EntityManager entityManager;
+
     @InjectMocks
     private ObstacleServiceImpl obstacleService;
 
@@ -51,6 +69,10 @@ public class ObstacleServiceTest {
         // Assert
         verify(mapRepository, times(1)).save(eq(map));
         verify(obstacleRepository, times(1)).save(newObstacle);
+        verify(snapshotCache, times(1)).invalidate(mapId);
+        verify(mapRepository, times(1)).incrementObstacleGeneration(mapId);
+        verify(occupancyStore, times(1)).addAfterCommit(map, newObstacle);
+        verify(occupancyStore, never()).attach(any());
         assertTrue(map.getObstacles().contains(addedObstacle));
         assertEquals(addedObstacle.getMap(), map);
     }
@@ -91,6 +113,27 @@ public class ObstacleServiceTest {
         assertFalse(map.getObstacles().contains(newObstacle));
     }
 
+    @Test
+    @DisplayName("Attempt to add an obstacle on a cell that already has one, expect InvalidCoordinatesException")
+    void testAddObstacleOnOccupiedCell() {
+        //Arrange
+        Long mapID = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        Obstacle existingObstacle = new Obstacle(4,4);
+        existingObstacle.setId(9L);
+        Obstacle newObstacle = new Obstacle(4,4);
+
+        //expected repositories behavior
+        when(mapRepository.findById(mapID)).thenReturn(Optional.of(map));
+        when(obstacleRepository.findByMapIdAndXAndY(mapID,4,4)).thenReturn(Optional.of(existingObstacle));
+
+        //Act and Assert
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.createObstacle(newObstacle,mapID));
+        verify(mapRepository, never()).save(any());
+        verify(obstacleRepository,never()).save(any());
+        assertNull(newObstacle.getMap());
+    }
+
     @Test
     @DisplayName("Successfully remove an obstacle")
     void testRemoveObstacleSuccessfully() {
@@ -109,6 +152,8 @@ public class ObstacleServiceTest {
         //Assert
         verify(obstacleRepository,times(1)).delete(obstacle);
         verify(mapRepository,times(1)).save(map);
+        verify(occupancyStore,times(1)).removeAfterCommit(map, obstacle);
+        verify(occupancyStore,never()).attach(any());
     }
 
     @Test
@@ -189,4 +234,289 @@ public class ObstacleServiceTest {
         // Act and Assert
         assertThrows(MapNotFoundException.class, () -> obstacleService.getAllFromMap(mapId));
     }
+
+    @Test
+    @DisplayName("Successfully retrieve the obstacles inside a region of a map")
+    void testGetAllInRegionSuccessfully() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(12, 12, "Jupiter");
+        map.setId(mapId);
+        Obstacle first = new Obstacle(3, 3);
+        Obstacle second = new Obstacle(5, 4);
+
+        //Expected repository behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of(first, second, new Obstacle(7, 4), new Obstacle(3, 5))));
+
+        // Act
+        List<Obstacle> obtainedObstacles = obstacleService.getAllInRegion(mapId, 2, 1, 6, 4);
+
+        // Assert
+        assertEquals(2, obtainedObstacles.size());
+        assertTrue(obtainedObstacles.containsAll(List.of(first, second)));
+        verify(obstacleRepository, never()).findByMapIdAndXBetweenAndYBetween(any(), anyInt(), anyInt(), anyInt(), anyInt());
+        verify(obstacleRepository, never()).findByMapId(any());
+    }
+
+    @Test
+    @DisplayName("Retrieve the obstacles of a region of a map with a memory-mapped grid from the database")
+    void testGetAllInRegionOfMappedMap() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(12, 12, "Jupiter");
+        map.setId(mapId);
+        List<Obstacle> obstacles = Arrays.asList(new Obstacle(3, 3), new Obstacle(5, 4));
+
+        //Expected repository behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(occupancyStore.isMapped(map)).thenReturn(true);
+        when(obstacleRepository.findByMapIdAndXBetweenAndYBetween(mapId, 2, 6, 1, 4)).thenReturn(obstacles);
+
+        // Act
+        List<Obstacle> obtainedObstacles = obstacleService.getAllInRegion(mapId, 2, 1, 6, 4);
+
+        // Assert
+        assertEquals(obstacles, obtainedObstacles);
+        verify(snapshotCache, never()).get(any());
+    }
+
+    @Test
+    @DisplayName("Attempt to retrieve the obstacles of an inverted region, expect InvalidCoordinatesException")
+    void testGetAllInInvertedRegionThrowsException() {
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.getAllInRegion(1L, 6, 1, 2, 4));
+        verify(obstacleRepository, never()).findByMapIdAndXBetweenAndYBetween(any(), anyInt(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Attempt to retrieve the obstacles of a region of a non-existing map, expect MapNotFoundException")
+    void testGetAllInRegionForNonExistingMapThrowsException() {
+        // Arrange
+        Long mapId = 1L;
+
+        //Expected repository behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.empty());
+
+        //Act and Assert
+        assertThrows(MapNotFoundException.class, () -> obstacleService.getAllInRegion(mapId, 1, 1, 4, 4));
+    }
+
+    @Test
+    @DisplayName("Get a page of the obstacles of a map after an ID")
+    void testGetFromMapAfter() {
+        // Arrange
+        Long mapId = 1L;
+        List<Obstacle> obstacles = List.of(new Obstacle(3,3));
+
+        // Expected repositories behavior
+        when(mapRepository.existsById(mapId)).thenReturn(true);
+        when(obstacleRepository.findByMapIdAndIdGreaterThanOrderByIdAsc(mapId, 40L, PageRequest.of(0, 11))).thenReturn(obstacles);
+
+        // Act and Assert
+        assertEquals(obstacles, obstacleService.getFromMapAfter(mapId, 40L, 11));
+    }
+
+    @Test
+    @DisplayName("Stream the obstacles of a map, detaching each one once it is handled")
+    void testStreamAllFromMap() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(12, 12, "Jupiter");
+        Obstacle firstObstacle = new Obstacle(3,3);
+        Obstacle secondObstacle = new Obstacle(6,3);
+        List<Obstacle> handled = new ArrayList<>();
+
+        // Expected repositories behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(obstacleRepository.streamByMapIdOrderByIdAsc(mapId)).thenReturn(Stream.of(firstObstacle, secondObstacle));
+
+        // Act
+        obstacleService.streamAllFromMap(mapId, handled::add);
+
+        // Assert
+        assertEquals(List.of(firstObstacle, secondObstacle), handled);
+        InOrder inOrder = inOrder(entityManager);
+        inOrder.verify(entityManager).detach(firstObstacle);
+        inOrder.verify(entityManager).detach(secondObstacle);
+    }
+
+    @Test
+    @DisplayName("Attempt to stream the obstacles of a non-existing map, expect MapNotFoundException")
+    void testStreamAllFromNonExistingMap() {
+        // Expected repositories behavior
+        when(mapRepository.findById(1L)).thenReturn(Optional.empty());
+
+        // Act and Assert
+        assertThrows(MapNotFoundException.class, () -> obstacleService.streamAllFromMap(1L, obstacle -> {}));
+        verify(obstacleRepository, never()).streamByMapIdOrderByIdAsc(any());
+    }
+
+    @Test
+    @DisplayName("Import obstacles, flushing the inserts in batches and invalidating the map once")
+    void testImportObstacles() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(100, 100, "Jupiter");
+        map.setId(mapId);
+        ObstacleCoordinates coordinates = new ObstacleCoordinates();
+        for (int i = 0; i < ObstacleServiceImpl.IMPORT_FLUSH_SIZE + 1; i++) {
+            coordinates.add(i % 100 + 1, i / 100 + 1);
+        }
+
+        // Expected repositories behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of()));
+
+        // Act
+        int imported = obstacleService.importObstacles(mapId, coordinates);
+
+        // Assert
+        assertEquals(coordinates.size(), imported);
+        verify(entityManager, times(coordinates.size())).persist(any(Obstacle.class));
+        verify(entityManager, times(2)).flush();
+        verify(entityManager, times(1)).clear();
+        verify(entityManager, times(1)).getReference(Map.class, mapId);
+        verify(snapshotCache, times(1)).invalidate(mapId);
+        verify(mapRepository, times(1)).incrementObstacleGeneration(mapId);
+        verify(occupancyStore, times(1)).addAllAfterCommit(map, coordinates);
+    }
+
+    @Test
+    @DisplayName("Import obstacles on a position taken after the validation, expect the unique key violation of the flush to become ConcurrentUpdateException")
+    void testImportObstaclesOnPositionTakenMeanwhile() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(10, 10, "Jupiter");
+        map.setId(mapId);
+
+        // Expected repositories behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of()));
+        doThrow(new ConstraintViolationException("could not execute batch",
+                new SQLIntegrityConstraintViolationException("Duplicate entry '1-2-3' for key 'obstacle.uk_obstacle_map_cell'"),
+                "uk_obstacle_map_cell")).when(entityManager).flush();
+
+        // Act and Assert
+        ConcurrentUpdateException exception = assertThrows(ConcurrentUpdateException.class,
+                () -> obstacleService.importObstacles(mapId, coordinates(2, 3, 4, 5)));
+        assertEquals("An obstacle was created on one of the imported positions during the import", exception.getMessage());
+        verify(snapshotCache, never()).invalidate(any());
+        verify(mapRepository, never()).incrementObstacleGeneration(any());
+        verify(occupancyStore, never()).addAllAfterCommit(any(), any());
+    }
+
+    @Test
+    @DisplayName("Attempt to import obstacles outside the map, on occupied cells or repeated, expect InvalidCoordinatesException before any insert")
+    void testImportInvalidObstacles() {
+        // Arrange
+        Long mapId = 1L;
+        Map map = new Map(10, 10, "Jupiter");
+        map.setId(mapId);
+
+        // Expected repositories behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of(new Obstacle(5, 5))));
+
+        // Act and Assert
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.importObstacles(mapId, coordinates(1, 1, 11, 1)));
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.importObstacles(mapId, coordinates(1, 1, 5, 5)));
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.importObstacles(mapId, coordinates(2, 3, 1, 1, 2, 3)));
+        verify(entityManager, never()).persist(any());
+        verify(mapRepository, never()).incrementObstacleGeneration(any());
+    }
+
+    @Test
+    @DisplayName("Attempt to import obstacles to a non-existing map, expect MapNotFoundException")
+    void testImportObstaclesToNonExistingMap() {
+        // Expected repositories behavior
+        when(mapRepository.findById(1L)).thenReturn(Optional.empty());
+
+        // Act and Assert
+        assertThrows(MapNotFoundException.class, () -> obstacleService.importObstacles(1L, coordinates(1, 1)));
+        verify(entityManager, never()).persist(any());
+    }
+
+    @Test
+    @DisplayName("Delete the obstacles in a region with one statement, dropping the in-memory occupancy of the map")
+    void testDeleteInRegion() {
+        // Arrange
+        Long mapId = 1L;
+
+        // Expected repositories behavior
+        when(mapRepository.existsById(mapId)).thenReturn(true);
+        when(obstacleRepository.deleteByMapIdInRegion(mapId, 2, 8, 3, 9)).thenReturn(4);
+
+        // Act
+        int deleted = obstacleService.deleteInRegion(mapId, 2, 3, 8, 9);
+
+        // Assert
+        assertEquals(4, deleted);
+        verify(occupancyStore, times(1)).invalidate(mapId);
+        verify(snapshotCache, times(1)).invalidate(mapId);
+        verify(mapRepository, times(1)).incrementObstacleGeneration(mapId);
+        verify(obstacleRepository, never()).delete(any());
+    }
+
+    @Test
+    @DisplayName("Delete the obstacles of an empty region, leaving the map untouched")
+    void testDeleteInEmptyRegion() {
+        // Expected repositories behavior
+        when(mapRepository.existsById(1L)).thenReturn(true);
+        when(obstacleRepository.deleteByMapIdInRegion(1L, 1, 2, 1, 2)).thenReturn(0);
+
+        // Act
+        int deleted = obstacleService.deleteInRegion(1L, 1, 1, 2, 2);
+
+        // Assert
+        assertEquals(0, deleted);
+        verify(snapshotCache, never()).invalidate(any());
+        verify(mapRepository, never()).incrementObstacleGeneration(any());
+    }
+
+    @Test
+    @DisplayName("Attempt to delete the obstacles of an inverted region, expect InvalidCoordinatesException")
+    void testDeleteInInvertedRegionThrowsException() {
+        // Act and Assert
+        assertThrows(InvalidCoordinatesException.class, () -> obstacleService.deleteInRegion(1L, 5, 1, 4, 2));
+        verify(obstacleRepository, never()).deleteByMapIdInRegion(any(), anyInt(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Delete all obstacles of a map with one statement")
+    void testDeleteAllFromMap() {
+        // Arrange
+        Long mapId = 1L;
+
+        // Expected repositories behavior
+        when(mapRepository.existsById(mapId)).thenReturn(true);
+        when(obstacleRepository.deleteAllByMapId(mapId)).thenReturn(12);
+
+        // Act
+        int deleted = obstacleService.deleteAllFromMap(mapId);
+
+        // Assert
+        assertEquals(12, deleted);
+        verify(occupancyStore, times(1)).invalidate(mapId);
+        verify(snapshotCache, times(1)).invalidate(mapId);
+        verify(mapRepository, times(1)).incrementObstacleGeneration(mapId);
+    }
+
+    @Test
+    @DisplayName("Attempt to delete all obstacles of a non-existing map, expect MapNotFoundException")
+    void testDeleteAllFromNonExistingMap() {
+        // Expected repositories behavior
+        when(mapRepository.existsById(1L)).thenReturn(false);
+
+        // Act and Assert
+        assertThrows(MapNotFoundException.class, () -> obstacleService.deleteAllFromMap(1L));
+        verify(obstacleRepository, never()).deleteAllByMapId(any());
+    }
+
+    private static ObstacleCoordinates coordinates(int... pairs) {
+        ObstacleCoordinates coordinates = new ObstacleCoordinates();
+        for (int i = 0; i < pairs.length; i += 2) {
+            coordinates.add(pairs[i], pairs[i + 1]);
+        }
+        return coordinates;
+    }
 }
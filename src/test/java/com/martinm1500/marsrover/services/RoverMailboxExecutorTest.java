@@ -0,0 +1,153 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.exceptions.RoverNotFoundException;
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Obstacle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoverMailboxExecutorTest {
+
+    @Mock
+    private RoverService roverService;
+
+    private RoverMailboxExecutor mailboxExecutor;
+
+    @AfterEach
+    void closeExecutor() {
+        if (mailboxExecutor != null) {
+            mailboxExecutor.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Programs arriving while the rover executes are coalesced into one execution")
+    void testProgramsAreCoalescedWhileRoverExecutes() throws Exception {
+        //Arrange
+        mailboxExecutor = new RoverMailboxExecutor(roverService, 64);
+        Long roverId = 1L;
+        Obstacle obstacle = new Obstacle(3,1);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<CommandProgram>> executions = new ArrayList<>();
+        when(roverService.executePrograms(eq(roverId), any())).thenAnswer(invocation -> {
+            List<CommandProgram> programs = invocation.getArgument(1);
+            executions.add(List.copyOf(programs));
+            if (executions.size() == 1) {
+                firstStarted.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            }
+            List<Obstacle> obstacles = new ArrayList<>();
+            for (CommandProgram program : programs) {
+                obstacles.add(program.equals(CommandProgram.parse("ff")) ? obstacle : null);
+            }
+            return obstacles;
+        });
+
+        //Act
+        CompletableFuture<Obstacle> first = mailboxExecutor.submit(roverId, CommandProgram.parse("f"));
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Obstacle> second = mailboxExecutor.submit(roverId, CommandProgram.parse("ff"));
+        CompletableFuture<Obstacle> third = mailboxExecutor.submit(roverId, CommandProgram.parse("r"));
+        release.countDown();
+
+        //Assert
+        assertNull(first.get(10, TimeUnit.SECONDS));
+        assertEquals(obstacle, second.get(10, TimeUnit.SECONDS));
+        assertNull(third.get(10, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of(CommandProgram.parse("f")),
+                List.of(CommandProgram.parse("ff"), CommandProgram.parse("r"))), executions);
+        verify(roverService, times(2)).executePrograms(eq(roverId), any());
+    }
+
+    @Test
+    @DisplayName("A failed execution fails every program of its batch and the mailbox is removed")
+    void testFailedExecutionCompletesFuturesExceptionally() {
+        //Arrange
+        mailboxExecutor = new RoverMailboxExecutor(roverService, 64);
+        Long roverId = 9L;
+        when(roverService.executePrograms(eq(roverId), any()))
+                .thenThrow(new RoverNotFoundException("Could not find rover with ID: " + roverId));
+
+        //Act
+        CompletableFuture<Obstacle> result = mailboxExecutor.submit(roverId, CommandProgram.parse("f"));
+
+        //Assert
+        CompletionException exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(RoverNotFoundException.class, exception.getCause());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (mailboxExecutor.getActiveMailboxes() > 0 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(0, mailboxExecutor.getActiveMailboxes());
+    }
+
+    @Test
+    @DisplayName("A program submitted after the executor is closed fails at once and leaves no mailbox")
+    void testSubmitAfterCloseFails() {
+        //Arrange
+        mailboxExecutor = new RoverMailboxExecutor(roverService, 64);
+        mailboxExecutor.close();
+
+        //Act
+        CompletableFuture<Obstacle> result = mailboxExecutor.submit(3L, CommandProgram.parse("f"));
+
+        //Assert
+        CompletionException exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(RejectedExecutionException.class, exception.getCause());
+        assertEquals(0, mailboxExecutor.getActiveMailboxes());
+        verify(roverService, never()).executePrograms(any(), any());
+    }
+
+    @Test
+    @DisplayName("Batches never exceed the maximum size")
+    void testBatchesAreBounded() throws Exception {
+        //Arrange
+        mailboxExecutor = new RoverMailboxExecutor(roverService, 2);
+        Long roverId = 1L;
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> batchSizes = new ArrayList<>();
+        when(roverService.executePrograms(eq(roverId), any())).thenAnswer(invocation -> {
+            List<CommandProgram> programs = invocation.getArgument(1);
+            batchSizes.add(programs.size());
+            if (batchSizes.size() == 1) {
+                firstStarted.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            }
+            return new ArrayList<Obstacle>(Collections.nCopies(programs.size(), null));
+        });
+
+        //Act
+        List<CompletableFuture<Obstacle>> results = new ArrayList<>();
+        results.add(mailboxExecutor.submit(roverId, CommandProgram.parse("f")));
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            results.add(mailboxExecutor.submit(roverId, CommandProgram.parse("l")));
+        }
+        release.countDown();
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        //Assert
+        assertEquals(List.of(1, 2, 2, 1), batchSizes);
+    }
+}
@@ -1,21 +1,35 @@
 package com.martinm1500.marsrover.services;
 
 import com.martinm1500.marsrover.exceptions.*;
+import com.martinm1500.marsrover.models.CommandProgram;
 import com.martinm1500.marsrover.models.Map;
 import com.martinm1500.marsrover.models.Obstacle;
 import com.martinm1500.marsrover.models.Rover;
 import com.martinm1500.marsrover.repositories.MapRepository;
+import com.martinm1500.marsrover.repositories.ObstacleRepository;
 import com.martinm1500.marsrover.repositories.RoverRepository;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -29,6 +43,27 @@ public class RoverServiceTest {
     @Mock
     private RoverRepository roverRepository;
 
+    @Mock
+    private ObstacleRepository obstacleRepository;
+
+    @Mock
+    private MappedOccupancyStore occupancyStore;
+
+    @Mock
+    private MapSnapshotCache snapshotCache;
+
+    @Spy
+    private FleetSimulationEngine simulationEngine = new FleetSimulationEngine(2);
+
+    @Spy
+    private RoverStateStore stateStore = new RoverStateStore(null, false, 200, 500);
+
+    @Spy
+    private CommandJournal journal = new CommandJournal(false, "data/journal", 100000, false);
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private RoverServiceImpl roverService;
 
@@ -52,9 +87,10 @@ public class RoverServiceTest {
         //Assert
         verify(mapRepository,times(1)).save(map);
         verify(roverRepository,times(1)).save(rover);
+        verify(mapRepository,times(1)).incrementRevision(mapId);
         assertEquals(rover,createdRover);
         assertEquals(map,rover.getMap());
-        assertEquals(rover,map.getRover());
+        assertEquals(List.of(rover),map.getRovers());
     }
 
     @Test
@@ -120,11 +156,13 @@ public class RoverServiceTest {
         //Arrange
         Long mapId = 1L;
         Map map = new Map(12,12,"Jupiter");
+        map.setId(mapId);
         map.addObstacle(new Obstacle(4,4));
         Rover rover = new Rover(4,4,Rover.NORTH);
 
         //Expected repositories behavior
         when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(obstacleRepository.existsByMapIdAndXAndY(mapId,4,4)).thenReturn(true);
 
         //Act and Assert
         assertThrows(InvalidCoordinatesException.class, () -> roverService.createRover(rover,mapId));
@@ -135,23 +173,50 @@ public class RoverServiceTest {
     }
 
     @Test
-    @DisplayName("Attempt to create a rover on a map that already has a rover.")
-    void testCreateRoverOnMapWithExistingRoverThrowsException(){
+    @DisplayName("Successfully create a second rover on a map that already has a rover.")
+    void testCreateSecondRoverOnMapSuccessfully(){
+        //Arrange
+        Long mapId = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        map.setId(mapId);
+        Rover existingRover = new Rover(2,2,Rover.EAST);
+        map.addRover(existingRover);
+        Rover rover = new Rover(4,4,Rover.NORTH);
+
+        //Expected repositories behavior
+        when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(roverRepository.save(rover)).thenReturn(rover);
+
+        //Act
+        Rover createdRover = roverService.createRover(rover,mapId);
+
+        //Assert
+        verify(roverRepository,times(1)).save(rover);
+        assertEquals(rover,createdRover);
+        assertEquals(List.of(existingRover,rover),map.getRovers());
+    }
+
+    @Test
+    @DisplayName("Attempt to create a rover at coordinates occupied by another rover.")
+    void testCreateRoverOnOtherRoverThrowsException(){
         //Arrange
         Long mapId = 1L;
         Map map = new Map(12,12,"Jupiter");
-        map.setRover(new Rover());
+        map.setId(mapId);
+        map.addRover(new Rover(4,4,Rover.EAST));
         Rover rover = new Rover(4,4,Rover.NORTH);
 
         //Expected repositories behavior
         when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
+        when(roverRepository.existsByMapIdAndXAndY(mapId,4,4)).thenReturn(true);
 
         //Act and Assert
-        assertThrows(InvalidOperationException.class, () -> roverService.createRover(rover,mapId));
+        assertThrows(InvalidCoordinatesException.class, () -> roverService.createRover(rover,mapId));
 
         //Assert
         verify(mapRepository,never()).save(any());
         verify(roverRepository,never()).save(rover);
+        assertEquals(1,map.getRovers().size());
     }
 
     @Test
@@ -161,8 +226,7 @@ public class RoverServiceTest {
         Long roverId = 1L;
         Rover rover = new Rover(4,4,Rover.NORTH);
         Map map = new Map(12,12,"Jupiter");
-        map.setRover(rover);
-        rover.setMap(map);
+        map.addRover(rover);
 
         // Expected repository behavior
         when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
@@ -172,7 +236,7 @@ public class RoverServiceTest {
 
         // Assert
         verify(roverRepository, times(1)).deleteById(roverId);
-        assertNull(map.getRover());
+        assertTrue(map.getRovers().isEmpty());
     }
 
     @Test
@@ -199,26 +263,88 @@ public class RoverServiceTest {
         Rover currentrover = new Rover(4,4,Rover.NORTH);
         currentrover.setId(roverId);
 
-        map.setRover(currentrover);
-        currentrover.setMap(map);
+        map.addRover(currentrover);
 
         Rover roverUpdate = new Rover(1,3,Rover.SOUTH);
         roverUpdate.setId(roverId);
 
         //Expected repositories behavior
         when(roverRepository.findById(roverId)).thenReturn(Optional.of(currentrover));
-        when(roverRepository.save(roverUpdate)).thenReturn(roverUpdate);
+        when(roverRepository.save(currentrover)).thenReturn(currentrover);
 
         //Act
         Rover updatedRover = roverService.updateRover(roverUpdate);
 
         //Assert
         verify(roverRepository, times(1)).save(eq(roverUpdate));
+        verify(roverRepository, times(1)).findByMapIdAndXAndY(mapId,1,3);
+        verify(transactionManager, times(1)).commit(any());
+        assertSame(currentrover, updatedRover);
         assertEquals(roverUpdate, updatedRover);
-        assertEquals(map.getRover(), updatedRover);
         assertEquals(updatedRover.getMap(), map);
     }
 
+    @Test
+    @DisplayName("An update that conflicts with a concurrent one is retried on a freshly loaded rover.")
+    void testUpdateRoverRetriesOnConflict(){
+        //Arrange
+        Long roverId = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        map.setId(7L);
+        Rover staleRover = new Rover(4,4,Rover.NORTH);
+        staleRover.setId(roverId);
+        staleRover.setMap(map);
+        Rover freshRover = new Rover(5,5,Rover.EAST);
+        freshRover.setId(roverId);
+        freshRover.setMap(map);
+
+        Rover roverUpdate = new Rover(1,3,Rover.SOUTH);
+        roverUpdate.setId(roverId);
+
+        //Expected repositories behavior
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(staleRover)).thenReturn(Optional.of(freshRover));
+        when(roverRepository.save(any()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, roverId))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        //Act
+        Rover updatedRover = roverService.updateRover(roverUpdate);
+
+        //Assert
+        verify(roverRepository, times(2)).findById(roverId);
+        verify(transactionManager, times(1)).rollback(any());
+        verify(transactionManager, times(1)).commit(any());
+        assertSame(freshRover, updatedRover);
+        assertEquals(roverUpdate, updatedRover);
+    }
+
+    @Test
+    @DisplayName("Attempt to update a rover to coordinates occupied by another rover.")
+    void testUpdateRoverOnOtherRoverThrowsException(){
+        //Arrange
+        Long roverId = 1L;
+        Long mapId = 7L;
+        Map map = new Map(12,12,"Jupiter");
+        map.setId(mapId);
+        Rover currentrover = new Rover(4,4,Rover.NORTH);
+        currentrover.setId(roverId);
+        Rover otherRover = new Rover(1,3,Rover.EAST);
+        otherRover.setId(2L);
+        map.addRover(currentrover);
+        map.addRover(otherRover);
+
+        Rover roverUpdate = new Rover(1,3,Rover.SOUTH);
+        roverUpdate.setId(roverId);
+
+        //Expected repositories behavior
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(currentrover));
+        when(roverRepository.findByMapIdAndXAndY(mapId,1,3)).thenReturn(Optional.of(otherRover));
+
+        //Act and Assert
+        assertThrows(InvalidCoordinatesException.class, ()-> roverService.updateRover(roverUpdate));
+        verify(roverRepository, never()).save(any());
+    }
+
     @Test
     @DisplayName("Attempt to update a rover that does not exist. RoverNotFoundException is thrown.")
     void testUpdateNonExistingRoverThrowsException(){
@@ -251,8 +377,7 @@ public class RoverServiceTest {
         Rover currentrover = new Rover(4,4,Rover.NORTH);
         currentrover.setId(roverId);
 
-        map.setRover(currentrover);
-        currentrover.setMap(map);
+        map.addRover(currentrover);
 
         Rover roverUpdate = new Rover(23,15,Rover.SOUTH);
         roverUpdate.setId(roverId);
@@ -278,12 +403,13 @@ public class RoverServiceTest {
     void testUpdateRoverToOccupiedCoordinatesThrowsException(){
         //Arrange
         Long roverId = 1L;
+        Long mapId = 7L;
         Map map = new Map(12,12,"Jupiter");
+        map.setId(mapId);
         Rover currentrover = new Rover(4,4,Rover.NORTH);
         currentrover.setId(roverId);
 
-        map.setRover(currentrover);
-        currentrover.setMap(map);
+        map.addRover(currentrover);
         map.addObstacle(new Obstacle(3,3));
 
         Rover roverUpdate = new Rover(3,3,Rover.SOUTH);
@@ -292,6 +418,7 @@ public class RoverServiceTest {
 
         //Expected repositories behavior
         when(roverRepository.findById(roverId)).thenReturn(Optional.of(currentrover));
+        when(obstacleRepository.existsByMapIdAndXAndY(mapId,3,3)).thenReturn(true);
 
         //Act and Assert
         assertThrows(InvalidCoordinatesException.class, ()-> roverService.updateRover(roverUpdate));
@@ -313,8 +440,7 @@ public class RoverServiceTest {
         Rover currentRover = new Rover(4, 4, Rover.NORTH);
         currentRover.setId(roverId);
 
-        map.setRover(currentRover);
-        currentRover.setMap(map);
+        map.addRover(currentRover);
 
         Rover roverUpdate = new Rover(4, 4, 'X'); // 'X' is an invalid orientation
         roverUpdate.setId(roverId);
@@ -374,29 +500,31 @@ public class RoverServiceTest {
     }
 
     @Test
-    @DisplayName("Given the ID of a map, retrieve the rover on that map.")
-    void testGetRoverByMapIdSuccessfully(){
+    @DisplayName("Given the ID of a map, retrieve the rovers on that map.")
+    void testGetRoversByMapIdSuccessfully(){
         //Arrange
         Long mapId = 1L;
         Map map = new Map(12,12,"Jupiter");
         Rover rover = new Rover(4,4,Rover.SOUTH);
-        map.setRover(rover);
+        Rover otherRover = new Rover(6,2,Rover.EAST);
+        map.addRover(rover);
+        map.addRover(otherRover);
 
         //Expected repository behavior
         when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
 
         //Act
-        Rover obtainedRover = roverService.getRoverByMapId(mapId);
+        List<Rover> obtainedRovers = roverService.getRoversByMapId(mapId);
 
         //Assert
-        assertNotNull(obtainedRover);
+        assertEquals(List.of(rover, otherRover), obtainedRovers);
 
         // Additional verification to ensure no more interactions with the repository
         verifyNoMoreInteractions(mapRepository);
     }
     @Test
-    @DisplayName("Given the ID of a map without a rover, return null.")
-    void testGetRoverByMapIdWithNullRover() {
+    @DisplayName("Given the ID of a map without rovers, return an empty list.")
+    void testGetRoversByMapIdWithoutRovers() {
         // Arrange
         Long mapId = 1L;
         Map map = new Map(12, 12, "Jupiter");
@@ -405,10 +533,10 @@ public class RoverServiceTest {
         when(mapRepository.findById(mapId)).thenReturn(Optional.of(map));
 
         // Act
-        Rover obtainedRover = roverService.getRoverByMapId(mapId);
+        List<Rover> obtainedRovers = roverService.getRoversByMapId(mapId);
 
         // Assert
-        assertNull(obtainedRover);
+        assertTrue(obtainedRovers.isEmpty());
 
         // Additional verification to ensure no more interactions with the repositories
         verifyNoMoreInteractions(roverRepository, mapRepository);
@@ -425,7 +553,7 @@ public class RoverServiceTest {
         when(mapRepository.findById(mapId)).thenReturn(Optional.empty());
 
         // Act and Assert
-        assertThrows(MapNotFoundException.class, () -> roverService.getRoverByMapId(mapId));
+        assertThrows(MapNotFoundException.class, () -> roverService.getRoversByMapId(mapId));
 
         // Additional verification to ensure no more interactions with the repositories
         verifyNoMoreInteractions(roverRepository, mapRepository);
@@ -444,6 +572,7 @@ public class RoverServiceTest {
 
         //Expected behavior repository
         when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
 
         //Act
         Obstacle obstacle = roverService.executeCommands(roverId,commands);
@@ -469,6 +598,7 @@ public class RoverServiceTest {
 
         //Expected repository behavior
         when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
 
         //act
         Obstacle reportedObstacle = roverService.executeCommands(roverId,commands);  //retorna un obstaculo
@@ -508,4 +638,537 @@ public class RoverServiceTest {
         assertThrows(InvalidCommandException.class, () -> roverService.executeCommands(roverId,commands));
         verify(roverRepository, never()).save(any());
     }
+
+    @Test
+    @DisplayName("Execute a compiled program successfully. Saves the rover and returns null.")
+    void testExecuteProgramSuccessfully(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        rover.setMap(map);
+
+        //Expected behavior repository
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
+
+        //Act
+        Obstacle obstacle = roverService.executeProgram(roverId, CommandProgram.parse("ffrf"));
+
+        //Assert
+        verify(roverRepository, times(1)).save(rover);
+        assertNull(obstacle);
+        assertEquals(new Rover(3,2,Rover.SOUTH), rover);
+    }
+
+    @Test
+    @DisplayName("Executed programs are recorded in the journal once committed")
+    void testExecuteProgramsRecordedInJournal(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        rover.setId(roverId);
+        Map map = new Map(8,8,"Tierra");
+        map.addRover(rover);
+        List<CommandProgram> programs = List.of(CommandProgram.parse("f2"), CommandProgram.parse("rf"));
+
+        //Expected behavior repository
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
+
+        //Act
+        roverService.executePrograms(roverId, programs);
+
+        //Assert
+        InOrder inOrder = inOrder(transactionManager, journal);
+        inOrder.verify(transactionManager).commit(any());
+        inOrder.verify(journal).append(rover, programs);
+    }
+
+    @Test
+    @DisplayName("A rover not found is not recorded in the journal")
+    void testExecuteProgramRoverNotFoundNotJournaled(){
+        //Expected behavior repository
+        when(roverRepository.findById(1L)).thenReturn(Optional.empty());
+
+        //Act and Assert
+        assertThrows(RoverNotFoundException.class, () -> roverService.executeProgram(1L, CommandProgram.parse("f")));
+        verify(journal, never()).append(any(), any());
+    }
+
+    @Test
+    @DisplayName("With write-behind, executing a program leaves the write to the state store")
+    void testExecuteProgramWithWriteBehind(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        rover.setId(roverId);
+        Map map = new Map(8,8,"Tierra");
+        map.addRover(rover);
+
+        //Expected behavior repository and store
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
+        doReturn(true).when(stateStore).isEnabled();
+
+        //Act
+        Obstacle obstacle = roverService.executeProgram(roverId, CommandProgram.parse("ff"));
+
+        //Assert
+        assertNull(obstacle);
+        verify(stateStore, times(1)).update(eq(rover), any());
+        verify(roverRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Execute several programs in order on a rover with a single save")
+    void testExecuteProgramsInOrder(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        Obstacle obstacle = new Obstacle(3,1);
+        map.addObstacle(obstacle);
+        rover.setMap(map);
+
+        //Expected behavior repository
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        cacheSnapshot(map);
+
+        //Act
+        List<Obstacle> obstacles = roverService.executePrograms(roverId,
+                List.of(CommandProgram.parse("ff"), CommandProgram.parse("rf")));
+
+        //Assert
+        verify(roverRepository, times(1)).save(rover);
+        assertEquals(2, obstacles.size());
+        assertEquals(obstacle, obstacles.get(0));
+        assertNull(obstacles.get(1));
+        assertEquals(new Rover(2,2,Rover.SOUTH), rover);
+    }
+
+    @Test
+    @DisplayName("Execute a program against the cached snapshot of the map, without loading its obstacles")
+    void testExecuteProgramUsesCachedSnapshot(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,3,Rover.NORTH);
+        rover.setId(roverId);
+        Map map = new Map(8,8,"Tierra");
+        map.setId(1L);
+        map.addRover(rover);
+        Obstacle obstacle = new Obstacle(1,1);
+
+        //Expected behavior repository and cache
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(List.of(obstacle)));
+
+        //Act
+        Obstacle reportedObstacle = roverService.executeProgram(roverId, CommandProgram.parse("ff"));
+
+        //Assert
+        assertEquals(obstacle, reportedObstacle);
+        assertEquals(obstacle, rover.getReportedObstacle());
+        assertEquals(1, rover.getX());
+        assertEquals(2, rover.getY());
+        verify(roverRepository, times(1)).save(rover);
+        verify(mapRepository, times(1)).incrementRevision(1L);
+    }
+
+    @Test
+    @DisplayName("Simulate a program on a copy of the rover against the map snapshot without saving")
+    void testSimulateProgramSuccessfully(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        rover.setId(roverId);
+        Map map = new Map(8,8,"Tierra");
+        map.setId(1L);
+        rover.setMap(map);
+        Obstacle obstacle = new Obstacle(3,4);
+        Map snapshot = map.snapshot(List.of(obstacle));
+
+        //Expected behavior repository and cache
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        when(snapshotCache.get(map)).thenReturn(snapshot);
+
+        //Act
+        Rover simulatedRover = roverService.simulateProgram(roverId, CommandProgram.parse("ffrfff"));
+
+        //Assert
+        verify(roverRepository, never()).save(any());
+        assertSame(obstacle, simulatedRover.getReportedObstacle());
+        Rover expectedRover = new Rover(3,3,Rover.SOUTH);
+        expectedRover.setId(roverId);
+        assertEquals(expectedRover, simulatedRover);
+        assertNotSame(rover, simulatedRover);
+        assertEquals(1, rover.getX());
+        assertEquals(Rover.EAST, rover.getOrientation());
+    }
+
+    @Test
+    @DisplayName("Attempt to simulate a program on a non-existing rover, expect RoverNotFoundException")
+    void testSimulateProgramRoverNotFound(){
+        //Arrange
+        Long roverId = 1L;
+
+        //Expected behavior repository
+        when(roverRepository.findById(roverId)).thenReturn(Optional.empty());
+
+        //Act and Assert
+        assertThrows(RoverNotFoundException.class, () -> roverService.simulateProgram(roverId, CommandProgram.parse("f")));
+        verifyNoInteractions(snapshotCache);
+    }
+
+    @Test
+    @DisplayName("Execute commands read from a stream and save the rover")
+    void testExecuteStreamSuccessfully(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        rover.setMap(map);
+        InputStream commands = new ByteArrayInputStream("f2rf".getBytes(StandardCharsets.US_ASCII));
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        when(roverRepository.save(rover)).thenReturn(rover);
+
+        //Act
+        Rover executedRover = roverService.executeStream(roverId, commands);
+
+        //Assert
+        verify(roverRepository, times(1)).save(rover);
+        verify(transactionManager, times(2)).commit(any());
+        verify(occupancyStore, never()).attach(any());
+        assertNull(executedRover.getReportedObstacle());
+        assertEquals(4, executedRover.getExecutedCommands());
+        assertEquals(new Rover(3,2,Rover.SOUTH), executedRover);
+    }
+
+    @Test
+    @DisplayName("Attempt to execute an invalid command stream, expect InvalidCommandException and no save")
+    void testExecuteStreamInvalidCommand(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        rover.setMap(map);
+        InputStream commands = new ByteArrayInputStream("ffx".getBytes(StandardCharsets.US_ASCII));
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+
+        //Act and Assert
+        assertThrows(InvalidCommandException.class, () -> roverService.executeStream(roverId, commands));
+        verify(roverRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Execute a program with a step listener on a copy of the rover outside any transaction, then save the rover")
+    void testExecuteTracedSuccessfully(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        rover.setMap(map);
+        List<Integer> visitedX = new ArrayList<>();
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+
+        //Act
+        Obstacle obstacle = roverService.executeTraced(roverId, CommandProgram.parse("f3"), (x, y, orientation) -> visitedX.add(x));
+
+        //Assert
+        verify(roverRepository, times(1)).save(rover);
+        verify(transactionManager, times(2)).commit(any());
+        assertNull(obstacle);
+        assertEquals(List.of(1, 2, 3, 4), visitedX);
+        assertEquals(4, rover.getX());
+        assertNull(rover.getStepListener());
+    }
+
+    @Test
+    @DisplayName("Execute programs on several rovers with set-based loading and a single saveAll")
+    void testExecuteBatchSuccessfully(){
+        //Arrange
+        Map firstMap = new Map(8,8,"Tierra");
+        firstMap.setId(1L);
+        Map secondMap = new Map(6,6,"Marte");
+        secondMap.setId(2L);
+        Rover firstRover = new Rover(1,1,Rover.EAST);
+        firstRover.setId(10L);
+        firstRover.setMap(firstMap);
+        Rover secondRover = new Rover(4,4,Rover.NORTH);
+        secondRover.setId(20L);
+        secondRover.setMap(secondMap);
+        Obstacle obstacle = new Obstacle(4,2);
+        java.util.Map<Long, CommandProgram> programs = new LinkedHashMap<>();
+        programs.put(10L, CommandProgram.parse("f2"));
+        programs.put(20L, CommandProgram.parse("f3"));
+        programs.put(30L, CommandProgram.parse("f"));
+
+        //Expected behavior repository and cache
+        when(roverRepository.findAllWithMapByIdIn(programs.keySet())).thenReturn(List.of(firstRover, secondRover));
+        when(snapshotCache.getAll(List.of(firstMap, secondMap)))
+                .thenReturn(List.of(firstMap.snapshot(List.of()), secondMap.snapshot(List.of(obstacle))));
+
+        //Act
+        RoverService.BatchResult result = roverService.executeBatch(programs);
+
+        //Assert
+        verify(roverRepository, times(1)).saveAll(List.of(firstRover, secondRover));
+        verify(roverRepository, never()).findById(any());
+        assertEquals(List.of(firstRover, secondRover), result.rovers());
+        assertTrue(result.conflictingRoverIds().isEmpty());
+        assertEquals(new Rover(3,1,Rover.EAST), new Rover(firstRover.getX(), firstRover.getY(), firstRover.getOrientation()));
+        assertNull(firstRover.getReportedObstacle());
+        assertEquals(new Rover(4,3,Rover.NORTH), new Rover(secondRover.getX(), secondRover.getY(), secondRover.getOrientation()));
+        assertSame(obstacle, secondRover.getReportedObstacle());
+        assertEquals(1, secondRover.getExecutedCommands());
+        assertSame(secondMap, secondRover.getMap());
+    }
+
+    @Test
+    @DisplayName("Rovers of a batch sharing a map stop in front of each other")
+    void testExecuteBatchWithRoversOnSameMap(){
+        //Arrange
+        Map map = new Map(8,8,"Tierra");
+        map.setId(1L);
+        Rover firstRover = new Rover(1,1,Rover.EAST);
+        firstRover.setId(10L);
+        Rover secondRover = new Rover(4,1,Rover.NORTH);
+        secondRover.setId(20L);
+        map.addRover(firstRover);
+        map.addRover(secondRover);
+        java.util.Map<Long, CommandProgram> programs = new LinkedHashMap<>();
+        programs.put(10L, CommandProgram.parse("f5"));
+        programs.put(20L, CommandProgram.parse("r"));
+
+        //Expected behavior repository and cache
+        when(roverRepository.findAllWithMapByIdIn(programs.keySet())).thenReturn(List.of(firstRover, secondRover));
+        when(roverRepository.findByMapIdIn(Set.of(1L))).thenReturn(List.of(firstRover, secondRover));
+        when(snapshotCache.getAll(List.of(map, map))).thenReturn(List.of(map.snapshot(List.of()), map.snapshot(List.of())));
+
+        //Act
+        roverService.executeBatch(programs);
+
+        //Assert
+        assertEquals(new Rover(3,1,Rover.EAST), new Rover(firstRover.getX(), firstRover.getY(), firstRover.getOrientation()));
+        assertEquals(4, firstRover.getReportedObstacle().getX());
+        assertEquals(1, firstRover.getReportedObstacle().getY());
+        assertEquals(2, firstRover.getExecutedCommands());
+        assertEquals(new Rover(4,1,Rover.EAST), new Rover(secondRover.getX(), secondRover.getY(), secondRover.getOrientation()));
+        assertNull(secondRover.getReportedObstacle());
+    }
+
+    @Test
+    @DisplayName("Execute commands on a rover that keeps being updated concurrently. ConcurrentUpdateException is thrown after the last attempt.")
+    void testExecuteProgramGivesUpAfterRepeatedConflicts(){
+        //Arrange
+        Long roverId = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        Rover rover = new Rover(4,4,Rover.NORTH);
+        rover.setId(roverId);
+        rover.setMap(map);
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenAnswer(invocation -> {
+            Rover loadedRover = new Rover(rover.getX(), rover.getY(), rover.getOrientation());
+            loadedRover.setId(roverId);
+            loadedRover.setMap(map);
+            return Optional.of(loadedRover);
+        });
+        when(roverRepository.save(any())).thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, roverId));
+
+        //Act and Assert
+        ConcurrentUpdateException exception = assertThrows(ConcurrentUpdateException.class,
+                () -> roverService.executeProgram(roverId, CommandProgram.parse("f2")));
+        verify(roverRepository, times(RoverServiceImpl.MAX_UPDATE_ATTEMPTS)).findById(roverId);
+        verify(transactionManager, times(RoverServiceImpl.MAX_UPDATE_ATTEMPTS)).rollback(any());
+        verify(transactionManager, never()).commit(any());
+        assertEquals("The rover with ID: 1 was updated concurrently; gave up after 3 attempts", exception.getMessage());
+    }
+
+    @Test
+    @DisplayName("A conflict while executing a command stream is not retried.")
+    void testExecuteStreamDoesNotRetryOnConflict(){
+        //Arrange
+        Long roverId = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        Rover rover = new Rover(4,4,Rover.NORTH);
+        rover.setId(roverId);
+        rover.setMap(map);
+        InputStream commands = new ByteArrayInputStream("f2".getBytes(StandardCharsets.US_ASCII));
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+        when(roverRepository.save(rover)).thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, roverId));
+
+        //Act and Assert
+        assertThrows(ConcurrentUpdateException.class, () -> roverService.executeStream(roverId, commands));
+        // Once to load the rover and once to save it.
+        verify(roverRepository, times(2)).findById(roverId);
+    }
+
+    @Test
+    @DisplayName("A rover updated while its command stream is read is not saved. ConcurrentUpdateException is thrown.")
+    void testExecuteStreamOnRoverChangedMeanwhile(){
+        //Arrange
+        Long roverId = 1L;
+        Map map = new Map(12,12,"Jupiter");
+        Rover rover = new Rover(4,4,Rover.NORTH);
+        rover.setId(roverId);
+        rover.setMap(map);
+        Rover updatedRover = new Rover(6,6,Rover.SOUTH);
+        updatedRover.setId(roverId);
+        updatedRover.setMap(map);
+        updatedRover.setVersion(1);
+        InputStream commands = new ByteArrayInputStream("f2".getBytes(StandardCharsets.US_ASCII));
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover)).thenReturn(Optional.of(updatedRover));
+
+        //Act
+        ConcurrentUpdateException exception = assertThrows(ConcurrentUpdateException.class,
+                () -> roverService.executeStream(roverId, commands));
+
+        //Assert
+        verify(roverRepository, never()).save(any());
+        assertEquals(6, updatedRover.getX());
+        assertEquals(6, updatedRover.getY());
+        assertEquals("The rover with ID: 1 was updated concurrently; gave up after 1 attempt", exception.getMessage());
+    }
+
+    @Test
+    @DisplayName("A rover is not saved if the step listener fails")
+    void testExecuteTracedListenerFailure(){
+        //Arrange
+        Long roverId = 1L;
+        Rover rover = new Rover(1,1,Rover.EAST);
+        Map map = new Map(8,8,"Tierra");
+        rover.setMap(map);
+
+        //Expected behavior repository
+        cacheSnapshot(map);
+        when(roverRepository.findById(roverId)).thenReturn(Optional.of(rover));
+
+        //Act and Assert
+        assertThrows(IllegalStateException.class, () -> roverService.executeTraced(roverId, CommandProgram.parse("f3"),
+                (x, y, orientation) -> { throw new IllegalStateException("Client disconnected"); }));
+        verify(roverRepository, times(1)).findById(roverId);
+        verify(roverRepository, never()).save(any());
+        assertEquals(1, rover.getX());
+    }
+
+    @Test
+    @DisplayName("Rovers of a batch that keep being updated concurrently are reported as conflicting and the others are executed")
+    void testExecuteBatchLeavesOutConflictingRovers(){
+        //Arrange
+        Map map = new Map(8,8,"Tierra");
+        map.setId(1L);
+        Rover steadyRover = new Rover(1,1,Rover.EAST);
+        steadyRover.setId(10L);
+        steadyRover.setMap(map);
+        Rover busyRover = new Rover(1,5,Rover.EAST);
+        busyRover.setId(20L);
+        busyRover.setMap(map);
+        Rover updatedBusyRover = new Rover(2,5,Rover.EAST);
+        updatedBusyRover.setId(20L);
+        updatedBusyRover.setVersion(1);
+        java.util.Map<Long, CommandProgram> programs = new LinkedHashMap<>();
+        programs.put(10L, CommandProgram.parse("f2"));
+        programs.put(20L, CommandProgram.parse("f"));
+
+        //Expected behavior repository and cache
+        when(roverRepository.findAllWithMapByIdIn(any())).thenAnswer(invocation -> {
+            List<Rover> rovers = new ArrayList<>();
+            for (Long roverId : invocation.<java.util.Collection<Long>>getArgument(0)) {
+                rovers.add(roverId == 10L ? steadyRover : busyRover);
+            }
+            return rovers;
+        });
+        when(snapshotCache.getAll(any())).thenAnswer(invocation -> {
+            List<Map> snapshots = new ArrayList<>();
+            for (int i = 0; i < invocation.<List<Map>>getArgument(0).size(); i++) {
+                snapshots.add(map.snapshot(List.of()));
+            }
+            return snapshots;
+        });
+        when(roverRepository.saveAll(any()))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, 20L))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, 20L))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Rover.class, 20L))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(roverRepository.findAllById(any())).thenReturn(List.of(steadyRover, updatedBusyRover));
+
+        //Act
+        RoverService.BatchResult result = roverService.executeBatch(programs);
+
+        //Assert
+        assertEquals(List.of(steadyRover), result.rovers());
+        assertEquals(Set.of(20L), result.conflictingRoverIds());
+        verify(roverRepository, times(RoverServiceImpl.MAX_UPDATE_ATTEMPTS + 1)).findAllWithMapByIdIn(any());
+        verify(transactionManager, times(RoverServiceImpl.MAX_UPDATE_ATTEMPTS)).rollback(any());
+    }
+
+    @Test
+    @DisplayName("Batches, streams, updates and deletions are all journaled, so recovery returns the latest states")
+    void testEveryChangeIsJournaled(@TempDir Path journalDirectory) throws Exception {
+        //Arrange
+        CommandJournal enabledJournal = new CommandJournal(true, journalDirectory.toString(), 100000, false);
+        RoverServiceImpl journaledService = new RoverServiceImpl(roverRepository, mapRepository, obstacleRepository,
+                occupancyStore, snapshotCache, simulationEngine, stateStore, enabledJournal, transactionManager);
+        Map map = new Map(8,8,"Tierra");
+        map.setId(1L);
+        Rover firstRover = new Rover(1,1,Rover.EAST);
+        firstRover.setId(10L);
+        Rover secondRover = new Rover(1,3,Rover.EAST);
+        secondRover.setId(20L);
+        Rover thirdRover = new Rover(1,5,Rover.EAST);
+        thirdRover.setId(30L);
+        map.addRover(firstRover);
+        map.addRover(secondRover);
+        map.addRover(thirdRover);
+        java.util.Map<Long, CommandProgram> programs = new LinkedHashMap<>();
+        programs.put(10L, CommandProgram.parse("f"));
+        programs.put(20L, CommandProgram.parse("f"));
+        programs.put(30L, CommandProgram.parse("f"));
+        Rover roverUpdate = new Rover(6,6,Rover.SOUTH);
+        roverUpdate.setId(20L);
+
+        //Expected behavior repository and cache
+        cacheSnapshot(map);
+        when(roverRepository.findAllWithMapByIdIn(programs.keySet())).thenReturn(List.of(firstRover, secondRover, thirdRover));
+        when(snapshotCache.getAll(List.of(map, map, map)))
+                .thenReturn(List.of(map.snapshot(List.of()), map.snapshot(List.of()), map.snapshot(List.of())));
+        when(roverRepository.findById(10L)).thenReturn(Optional.of(firstRover));
+        when(roverRepository.findById(20L)).thenReturn(Optional.of(secondRover));
+        when(roverRepository.findById(30L)).thenReturn(Optional.of(thirdRover));
+        when(roverRepository.findByMapIdAndXAndY(1L, 6, 6)).thenReturn(Optional.empty());
+
+        //Act
+        journaledService.executeBatch(programs);
+        journaledService.executeStream(10L, new ByteArrayInputStream("rf".getBytes(StandardCharsets.US_ASCII)));
+        journaledService.updateRover(roverUpdate);
+        journaledService.deleteRover(30L);
+        enabledJournal.close();
+
+        //Assert
+        java.util.Map<Long, CommandJournal.RoverState> states = CommandJournal.recover(journalDirectory);
+        assertEquals(Set.of(10L, 20L), states.keySet());
+        assertEquals(new CommandJournal.RoverState(2, 2, Rover.SOUTH, 0), states.get(10L));
+        assertEquals(new CommandJournal.RoverState(6, 6, Rover.SOUTH, 0), states.get(20L));
+    }
+
+    private void cacheSnapshot(Map map){
+        when(snapshotCache.get(map)).thenReturn(map.snapshot(map.getObstacles()));
+    }
 }
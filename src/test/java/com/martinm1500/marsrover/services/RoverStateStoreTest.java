@@ -0,0 +1,239 @@
+package com.martinm1500.marsrover.services;
+
+import com.martinm1500.marsrover.models.CommandProgram;
+import com.martinm1500.marsrover.models.Map;
+import com.martinm1500.marsrover.models.Obstacle;
+import com.martinm1500.marsrover.models.Rover;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoverStateStoreTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private RoverStateStore stateStore;
+
+    @BeforeEach
+    void acceptWrites() {
+        // The states still pending at the end of a test are written when the store is closed.
+        lenient().when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenAnswer(invocation -> {
+            int[] counts = new int[invocation.<List<?>>getArgument(1).size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        });
+    }
+
+    @AfterEach
+    void closeStore() throws InterruptedException {
+        if (stateStore != null) {
+            stateStore.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Executions run on the latest state in memory and leave the loaded rover untouched")
+    void testUpdateKeepsLatestStateInMemory() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH);
+
+        //Act
+        Obstacle first = stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        Obstacle second = stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("rf")));
+
+        //Assert
+        assertNull(first);
+        assertNull(second);
+        assertPosition(2, 3, Rover.NORTH, rover);
+        assertPosition(3, 2, Rover.EAST, stateStore.view(rover));
+        assertEquals(1, stateStore.getDirtyCount());
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    @DisplayName("A flush writes the changed rovers in one batch, checking and incrementing their version")
+    @SuppressWarnings("unchecked")
+    void testFlushWritesBatchWithVersionCheck() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH);
+        Rover otherRover = roverOnMap(2L, 6, 6, Rover.SOUTH);
+        otherRover.setVersion(4);
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        stateStore.update(otherRover, workingRover -> workingRover.executeProgram(CommandProgram.parse("l")));
+        when(jdbcTemplate.batchUpdate(eq(RoverStateStore.UPDATE_SQL), anyList())).thenReturn(new int[]{1, 1});
+
+        //Act
+        stateStore.flush();
+
+        //Assert
+        ArgumentCaptor<List<Object[]>> arguments = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(RoverStateStore.UPDATE_SQL), arguments.capture());
+        List<Object[]> rows = arguments.getValue();
+        assertEquals(2, rows.size());
+        for (Object[] row : rows) {
+            if (row[4].equals(1L)) {
+                assertArrayEquals(new Object[]{2, 2, "N", 1L, 1L, 0L}, row);
+            } else {
+                assertArrayEquals(new Object[]{6, 6, "E", 5L, 2L, 4L}, row);
+            }
+        }
+        assertEquals(0, stateStore.getDirtyCount());
+        assertEquals(0, stateStore.getDurabilityLagMillis());
+        assertEquals(2, stateStore.getFlushedUpdates());
+    }
+
+    @Test
+    @DisplayName("A flush increments the revision of each map whose rovers were written, once")
+    @SuppressWarnings("unchecked")
+    void testFlushIncrementsRevisionOfMaps() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Map map = new Map(10,10,"Mars");
+        map.setId(7L);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH, map);
+        Rover otherRover = roverOnMap(2L, 6, 6, Rover.SOUTH, map);
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        stateStore.update(otherRover, workingRover -> workingRover.executeProgram(CommandProgram.parse("l")));
+
+        //Act
+        stateStore.flush();
+
+        //Assert
+        ArgumentCaptor<List<Object[]>> arguments = ArgumentCaptor.forClass(List.class);
+        InOrder inOrder = inOrder(jdbcTemplate);
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(RoverStateStore.UPDATE_SQL), anyList());
+        inOrder.verify(jdbcTemplate).batchUpdate(eq(RoverStateStore.INCREMENT_REVISION_SQL), arguments.capture());
+        assertEquals(1, arguments.getValue().size());
+        assertArrayEquals(new Object[]{7L}, arguments.getValue().get(0));
+    }
+
+    @Test
+    @DisplayName("A rover updated or deleted through JPA in between is not overwritten")
+    void testFlushDropsStateOfRoverChangedElsewhere() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH);
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        when(jdbcTemplate.batchUpdate(eq(RoverStateStore.UPDATE_SQL), anyList())).thenReturn(new int[]{0});
+
+        //Act
+        stateStore.flush();
+
+        //Assert
+        assertEquals(1, stateStore.getDroppedUpdates());
+        assertEquals(0, stateStore.getFlushedUpdates());
+        assertEquals(0, stateStore.getDirtyCount());
+        assertSame(rover, stateStore.view(rover));
+    }
+
+    @Test
+    @DisplayName("Released rovers are written and then read from the database again")
+    void testReleaseWritesAndForgetsRovers() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH);
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        when(jdbcTemplate.batchUpdate(eq(RoverStateStore.UPDATE_SQL), anyList())).thenReturn(new int[]{1});
+
+        //Act
+        stateStore.release(List.of(1L));
+
+        //Assert
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(RoverStateStore.UPDATE_SQL), anyList());
+        assertSame(rover, stateStore.view(rover));
+        assertEquals(0, stateStore.getDirtyCount());
+    }
+
+    @Test
+    @DisplayName("Other rovers of the map block the executing copy at their latest position")
+    void testUpdateSeesLatestPositionsOfOtherRovers() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Rover rover = roverOnMap(1L, 2, 5, Rover.NORTH);
+        Rover otherRover = roverOnMap(2L, 5, 2, Rover.WEST, rover.getMap());
+        stateStore.update(otherRover, workingRover -> workingRover.executeProgram(CommandProgram.parse("fff")));
+
+        //Act
+        Obstacle obstacle = stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("fff")));
+
+        //Assert
+        assertEquals(new Obstacle(2,2), obstacle);
+        assertPosition(2, 3, Rover.NORTH, stateStore.view(rover));
+    }
+
+    @Test
+    @DisplayName("The change tag of a map changes as soon as one of its rovers moves in memory, before any flush")
+    void testChangeTagFollowsStateInMemory() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, true, 60_000, 500);
+        Map map = new Map(10,10,"Mars");
+        map.setId(7L);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH, map);
+        String initialTag = stateStore.getChangeTag(7L);
+
+        //Act
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        String movedTag = stateStore.getChangeTag(7L);
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("")));
+
+        //Assert
+        assertNotEquals(initialTag, movedTag);
+        assertEquals(movedTag, stateStore.getChangeTag(7L));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    @DisplayName("Without write-behind the execution runs on the rover itself")
+    void testDisabledStoreRunsOnRover() {
+        //Arrange
+        stateStore = new RoverStateStore(jdbcTemplate, false, 200, 500);
+        Rover rover = roverOnMap(1L, 2, 3, Rover.NORTH);
+
+        //Act
+        stateStore.update(rover, workingRover -> workingRover.executeProgram(CommandProgram.parse("f")));
+        stateStore.flush();
+
+        //Assert
+        assertPosition(2, 2, Rover.NORTH, rover);
+        assertSame(rover, stateStore.view(rover));
+        assertNull(stateStore.getChangeTag(1L));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    private static void assertPosition(int x, int y, char orientation, Rover rover) {
+        assertEquals(x, rover.getX());
+        assertEquals(y, rover.getY());
+        assertEquals(orientation, rover.getOrientation());
+    }
+
+    private static Rover roverOnMap(Long roverId, int x, int y, char orientation) {
+        return roverOnMap(roverId, x, y, orientation, new Map(10,10,"Mars"));
+    }
+
+    private static Rover roverOnMap(Long roverId, int x, int y, char orientation, Map map) {
+        Rover rover = new Rover(x, y, orientation);
+        rover.setId(roverId);
+        map.addRover(rover);
+        return rover;
+    }
+}